@@ -0,0 +1,146 @@
+package com.j2bugzilla.base;
+
+import java.util.Date;
+
+/**
+ * The {@code Attachment} class describes a file attached to a {@link Bug} in a
+ * Bugzilla installation. It holds the attachment's metadata only; its data is
+ * streamed to or from a channel by {@link com.j2bugzilla.rpc.GetAttachment} and
+ * {@link com.j2bugzilla.rpc.AddAttachment}.
+ */
+public class Attachment {
+
+    private final int id;
+
+    private final int bugID;
+
+    private final String fileName;
+
+    private final String summary;
+
+    private final String contentType;
+
+    /**
+     * The size of the data in bytes, or -1 if not known
+     */
+    private final long size;
+
+    private final String creator;
+
+    private final Date creationTime;
+
+    private final boolean patch;
+
+    private final boolean obsolete;
+
+    private final boolean isPrivate;
+
+    /**
+     * Creates a new {@link Attachment} from a Bugzilla installation
+     *
+     * @param id           The unique ID of this attachment
+     * @param bugID        The ID of the bug it is attached to
+     * @param fileName     The file name of the attachment
+     * @param summary      A short description of the attachment
+     * @param contentType  The MIME type of the attachment
+     * @param size         The size of its data in bytes, or -1 if not known
+     * @param creator      The login of the user who attached it
+     * @param creationTime When it was attached
+     * @param patch        Whether the attachment is a patch
+     * @param obsolete     Whether the attachment is obsolete
+     * @param isPrivate    Whether the attachment is private
+     */
+    public Attachment(final int id, final int bugID, final String fileName, final String summary,
+            final String contentType, final long size, final String creator, final Date creationTime,
+            final boolean patch, final boolean obsolete, final boolean isPrivate) {
+        this.id = id;
+        this.bugID = bugID;
+        this.fileName = fileName;
+        this.summary = summary;
+        this.contentType = contentType;
+        this.size = size;
+        this.creator = creator;
+        this.creationTime = creationTime;
+        this.patch = patch;
+        this.obsolete = obsolete;
+        this.isPrivate = isPrivate;
+    }
+
+    /**
+     * @return The unique ID of this {@link Attachment}
+     */
+    public int getID() {
+        return id;
+    }
+
+    /**
+     * @return The ID of the {@link Bug} this {@link Attachment} belongs to
+     */
+    public int getBugID() {
+        return bugID;
+    }
+
+    /**
+     * @return The file name of this {@link Attachment}
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return A short description of this {@link Attachment}
+     */
+    public String getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return The MIME type of this {@link Attachment}
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return The size of the data of this {@link Attachment} in bytes, or -1 if
+     *         the installation did not say
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The login of the user who attached this {@link Attachment}
+     */
+    public String getCreator() {
+        return creator;
+    }
+
+    /**
+     * @return When this {@link Attachment} was attached
+     */
+    public Date getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * @return true if this {@link Attachment} is a patch
+     */
+    public boolean isPatch() {
+        return patch;
+    }
+
+    /**
+     * @return true if this {@link Attachment} has been marked obsolete
+     */
+    public boolean isObsolete() {
+        return obsolete;
+    }
+
+    /**
+     * @return true if this {@link Attachment} is only visible to the insider group
+     */
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+}
@@ -0,0 +1,81 @@
+package com.j2bugzilla.base;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A {@code BinaryData} is a request parameter holding binary content, such as the
+ * data of an attachment, which is read from a file or channel and base64 encoded as
+ * the request is sent, instead of being held in memory as a {@code byte[]}. Requests
+ * containing one are always written by the fast serializer, uncompressed, and sent
+ * with a fixed length, so that memory use does not depend on the size of the content.
+ * <p/>
+ * The content is read once per request, so a {@code BinaryData} created from a
+ * channel can only be sent once.
+ */
+public final class BinaryData {
+
+    private final File file;
+
+    private final ReadableByteChannel channel;
+
+    private final long length;
+
+    /**
+     * Creates a new {@link BinaryData} reading the content of a file
+     *
+     * @param file The file to send
+     */
+    public BinaryData(final File file) {
+        this.file = file;
+        this.channel = null;
+        this.length = file.length();
+    }
+
+    /**
+     * Creates a new {@link BinaryData} reading the content of a channel
+     *
+     * @param channel The channel to send the content of; it is read to its end but
+     *                not closed
+     * @param length  The exact number of bytes the channel holds
+     */
+    public BinaryData(final ReadableByteChannel channel, final long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length must not be negative, was " + length);
+        }
+        this.file = null;
+        this.channel = channel;
+        this.length = length;
+    }
+
+    /**
+     * @return The number of bytes of content
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return The length of the content once base64 encoded, without line breaks
+     */
+    long getEncodedLength() {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Opens the content for reading. The caller must close the channel returned if
+     * and only if {@link #isOwned()} is true.
+     */
+    ReadableByteChannel open() throws IOException {
+        return channel != null ? channel : new FileInputStream(file).getChannel();
+    }
+
+    /**
+     * @return true if {@link #open()} creates a new channel, which the caller closes
+     */
+    boolean isOwned() {
+        return channel == null;
+    }
+}
@@ -0,0 +1,22 @@
+package com.j2bugzilla.base;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link BugzillaMethod} whose result contains binary content, such as the data
+ * of an attachment. Instead of decoding it into a {@code byte[]}, the
+ * {@link BugzillaConnector} decodes every base64 value of the response straight
+ * into {@link #getBinaryTarget()} while the response is read, so that memory use
+ * does not depend on the size of the content.
+ * <p/>
+ * In the map passed to {@link #setResultMap(java.util.Map)}, each base64 value is
+ * replaced by a {@code Long} holding the number of bytes written for it.
+ */
+public interface BinaryResponseMethod extends BugzillaMethod {
+
+    /**
+     * @return The channel to write decoded binary content to, in the order it
+     *         appears in the response
+     */
+    WritableByteChannel getBinaryTarget();
+}
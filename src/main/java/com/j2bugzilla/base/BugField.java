@@ -111,7 +111,7 @@ public class BugField {
             final ArrayList<BugFieldValue> bugFieldValues = new ArrayList<BugFieldValue>();
 
             for (final Object o : values) {
-                final HashMap<String, Object> valueMap = (HashMap<String, Object>) o;
+                final Map<String, Object> valueMap = (Map<String, Object>) o;
                 final BugFieldValue value = new BugFieldValue(valueMap);
                 bugFieldValues.add(value);
             }
@@ -0,0 +1,18 @@
+package com.j2bugzilla.base;
+
+/**
+ * A {@code BugHandler} receives {@link BugBase bugs} one at a time as they are
+ * decoded from a response, rather than as one fully materialized {@code List}.
+ *
+ * @param <T> The type of bug being handled
+ */
+public interface BugHandler<T extends BugBase> {
+
+    /**
+     * Called once for every bug, in the order the installation returned them.
+     *
+     * @param bug A newly decoded bug
+     * @throws BugzillaException To stop processing the rest of the response
+     */
+    void handleBug(T bug) throws BugzillaException;
+}
@@ -0,0 +1,65 @@
+package com.j2bugzilla.base;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@code BugSchema} assigns a fixed slot to each field Bugzilla commonly
+ * returns for a bug. It is shared by every {@link CompactBugMap}, which stores
+ * the values of these fields in an array indexed by slot rather than in hash
+ * entries of its own.
+ */
+public final class BugSchema {
+
+    /**
+     * The known field names, in slot order
+     */
+    private static final String[] KEYS = {
+            "id", "bug_id", "alias", "summary", "status", "resolution", "product", "component", "version",
+            "priority", "severity", "op_sys", "platform", "assigned_to", "creator", "qa_contact",
+            "target_milestone", "is_open", "creation_time", "last_change_time", "cc", "blocks", "depends_on",
+            "keywords", "url", "whiteboard", "classification", "is_confirmed", "dupe_of", "groups"};
+
+    /**
+     * Maps each known field name to its slot
+     */
+    private static final Map<String, Integer> SLOTS = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            SLOTS.put(KEYS[i], i);
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private BugSchema() {
+    }
+
+    /**
+     * @return The number of slots in the schema
+     */
+    public static int size() {
+        return KEYS.length;
+    }
+
+    /**
+     * Returns the slot assigned to the given field.
+     *
+     * @param key A field name
+     * @return The slot for that field, or -1 if it is not part of the schema
+     */
+    public static int indexOf(final Object key) {
+        final Integer slot = SLOTS.get(key);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @param slot A slot number
+     * @return The field name held in that slot
+     */
+    public static String keyAt(final int slot) {
+        return KEYS[slot];
+    }
+}
@@ -1,23 +1,27 @@
 package com.j2bugzilla.base;
 
 
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.xmlrpc.XmlRpcException;
-import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
-import org.apache.xmlrpc.client.XmlRpcClientException;
-import org.apache.xmlrpc.client.XmlRpcSunHttpTransport;
 import org.apache.xmlrpc.client.XmlRpcSunHttpTransportFactory;
 import org.apache.xmlrpc.client.XmlRpcTransport;
 import org.apache.xmlrpc.client.XmlRpcTransportFactory;
+import org.apache.xmlrpc.common.TypeFactoryImpl;
+
+import com.j2bugzilla.metrics.BugzillaMetrics;
 
 
 /**
@@ -36,13 +40,68 @@ public class BugzillaConnector {
     /**
      * The {@link XmlRpcClient} handles all requests to Bugzilla by transforming method names and
      * parameters into properly formatted XML documents, which it then transmits to the host.
+     * Read by the threads running asynchronous calls, hence volatile.
+     */
+    private volatile XmlRpcClient client;
+
+    /**
+     * The number of threads used by {@link #executeMethodAsync(BugzillaMethod)} when
+     * no executor has been set, matching the number of idle connections the JDK
+     * keeps alive per host by default
+     */
+    public static final int DEFAULT_ASYNC_THREADS = 5;
+
+    /**
+     * A {@code List} of cookies received from the installation, used for authentication.
+     * Transports running concurrently read and fill it, hence a thread-safe list.
+     */
+    private final List<String> cookies = new CopyOnWriteArrayList<String>();
+
+    /**
+     * The listeners told about every method executed
+     */
+    private final List<MethodListener> methodListeners = new CopyOnWriteArrayList<MethodListener>();
+
+    /**
+     * The executor running asynchronous calls, or null to use the shared default
      */
-    private XmlRpcClient client;
+    private volatile ExecutorService executor;
 
     /**
-     * A {@code List} of cookies received from the installation, used for authentication
+     * Whether asynchronous calls run on virtual threads when no executor is set
      */
-    private List<String> cookies = new ArrayList<String>();
+    private volatile boolean virtualThreads;
+
+    /**
+     * An optional registry recording statistics for every call made through this connector
+     */
+    private volatile BugzillaMetrics metrics;
+
+    /**
+     * Whether structs are decoded into {@link CompactBugMap CompactBugMaps}
+     */
+    private volatile boolean compactDecoding;
+
+    /**
+     * The table decoded strings are shared through, or null if they are not
+     */
+    private volatile StringInterner stringInterner;
+
+    /**
+     * Whether requests are written by the {@link RequestSerializer}
+     */
+    private volatile boolean fastSerialization;
+
+    /**
+     * Whether gzip compressed responses are requested
+     */
+    private volatile boolean responseCompression;
+
+    /**
+     * The size in bytes from which request bodies are gzipped, or a negative value
+     * if they never are
+     */
+    private volatile int requestCompressionThreshold = -1;
 
 
     /**
@@ -117,6 +176,7 @@ public class BugzillaConnector {
 
         client = new XmlRpcClient();
         client.setConfig(config);
+        updateTypeFactory();
 
         /**
          * Here, we override the default behavior of the transport factory to properly
@@ -127,56 +187,7 @@ public class BugzillaConnector {
              * We override another internal class to properly define cookie behavior
              */
             public XmlRpcTransport getTransport() {
-                return new XmlRpcSunHttpTransport(client) {
-
-                    private URLConnection conn;
-
-                    protected URLConnection newURLConnection(URL pURL) throws IOException {
-                        conn = super.newURLConnection(pURL);
-                        return conn;
-                    }
-
-                    /**
-                     * This is the meat of these two overrides -- the HTTP header data now includes the
-                     * cookies received from the Bugzilla installation on login and will pass them every
-                     * time a connection is made to transmit or receive data.
-                     */
-                    protected void initHttpHeaders(XmlRpcRequest request) throws XmlRpcClientException {
-                        super.initHttpHeaders(request);
-                        if (cookies.size() > 0) {
-                            StringBuilder commaSep = new StringBuilder();
-
-                            for (String str : cookies) {
-                                commaSep.append(str);
-                                commaSep.append(",");
-                            }
-                            setRequestHeader("Cookie", commaSep.toString());
-
-                        }
-
-                    }
-
-                    protected void close() throws XmlRpcClientException {
-                        getCookies(conn);
-                    }
-
-                    /**
-                     * Retrieves cookie values from the HTTP header of Bugzilla responses
-                     * @param conn
-                     */
-                    private void getCookies(URLConnection conn) {
-                        if (cookies.size() == 0) {
-                            Map<String, List<String>> headers = conn.getHeaderFields();
-                            if (headers.containsKey("Set-Cookie")) {//avoid NPE
-                                List<String> vals = headers.get("Set-Cookie");
-                                for (String str : vals) {
-                                    cookies.add(str);
-                                }
-                            }
-                        }
-
-                    }
-                };//end XmlRpcSunHttpTransport
+                return new BugzillaHttpTransport(client, BugzillaConnector.this);
             }
         };//end XmlRpcSunHttpTransportFactory
         //after all that, tell our client to use our custom Factory
@@ -199,13 +210,314 @@ public class BugzillaConnector {
             throw new IllegalStateException("Cannot execute a method without connecting!");
         }//We are not currently connected to an installation
 
-        Object[] obj = {method.getParameterMap()};
+        final BugzillaMetrics m = metrics;
+        final long start = m == null ? 0L : m.callStarted();
+        int faultCode = BugzillaMetrics.UNKNOWN_FAULT;
+
         try {
-            Object results = client.execute(method.getMethodName(), obj);
+            // Dispatched straight to a transport rather than through client.execute(), whose
+            // worker factory takes a monitor on every call
+            final XmlRpcClient c = client;
+            Object results = c.getTransportFactory().getTransport()
+                    .sendRequest(new BugzillaRequest(c.getClientConfig(), method));
             method.setResultMap((Map<Object, Object>) results);
+            faultCode = BugzillaMetrics.NO_FAULT;
+            for (final MethodListener listener : methodListeners) {
+                listener.methodExecuted(method);
+            }
         } catch (XmlRpcException e) {
+            if (e.getCause() instanceof BugzillaException) {
+                // Thrown by a StreamingBugzillaMethod while the response was being read
+                throw (BugzillaException) e.getCause();
+            }
+            faultCode = e.code;
             BugzillaException wrapperException = XmlExceptionHandler.handleFault(e);
             throw wrapperException;
+        } finally {
+            if (m != null) {
+                m.callFinished(method.getMethodName(), start, faultCode);
+            }
+        }
+    }
+
+    /**
+     * @param listener A listener to tell about every method executed successfully
+     *                 through this connector, including asynchronous calls
+     */
+    public void addMethodListener(final MethodListener listener) {
+        methodListeners.add(listener);
+    }
+
+    /**
+     * @param listener A listener added earlier
+     */
+    public void removeMethodListener(final MethodListener listener) {
+        methodListeners.remove(listener);
+    }
+
+    /**
+     * Executes a method on another thread, so that the caller is not blocked while
+     * the request is sent and the response read. Any number of calls may be in
+     * flight at once; they share the login cookies and HTTP credentials of this
+     * connector, and reuse its persistent connections.
+     * <p/>
+     * If the call fails, {@link Future#get()} throws an
+     * {@link java.util.concurrent.ExecutionException ExecutionException} whose cause
+     * is the {@link BugzillaException} {@link #executeMethod(BugzillaMethod)} would
+     * have thrown.
+     *
+     * @param method A {@link BugzillaMethod} to call on the connected installation
+     * @param <M>    The type of the method
+     * @return A {@link Future} which yields {@code method} once its results have been set
+     */
+    public <M extends BugzillaMethod> Future<M> executeMethodAsync(final M method) {
+        if (client == null) {
+            throw new IllegalStateException("Cannot execute a method without connecting!");
+        }
+        ExecutorService e = executor;
+        if (e == null) {
+            e = virtualThreads ? VirtualThreadExecutor.INSTANCE : DefaultExecutor.INSTANCE;
+        }
+        return e.submit(new Callable<M>() {
+            public M call() throws BugzillaException {
+                executeMethod(method);
+                return method;
+            }
+        });
+    }
+
+    /**
+     * Sets the executor which runs {@link #executeMethodAsync(BugzillaMethod)} calls.
+     * The connector never shuts it down.
+     *
+     * @param executor An {@link ExecutorService}, or null to use a shared pool of
+     *                 {@link #DEFAULT_ASYNC_THREADS} daemon threads
+     */
+    public void setExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return The executor running asynchronous calls, or null if the shared default is used
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs {@link #executeMethodAsync(BugzillaMethod)} calls on a new virtual thread
+     * each, rather than on the shared pool, when no executor has been set. Tens of
+     * thousands of calls can then be in flight at once, each blocking cheaply on
+     * its own connection. Nothing on the call path holds a monitor while waiting
+     * on I/O, so the virtual threads never pin their carrier threads; this requires
+     * Java 21 or later.
+     *
+     * @param virtualThreads true to run asynchronous calls on virtual threads
+     * @throws IllegalStateException if the running JVM has no virtual threads
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        if (virtualThreads && VirtualThreadExecutor.INSTANCE == null) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later");
+        }
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return true if asynchronous calls run on virtual threads when no executor is set
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Enables or disables compact decoding of structs. When enabled, bugs returned
+     * by the installation are decoded straight into {@link CompactBugMap
+     * CompactBugMaps}, which hold the fields of the {@link BugSchema} in array slots
+     * instead of hash entries and take a fraction of the memory of a
+     * {@code HashMap}. Custom {@link BugzillaMethod BugzillaMethods} should therefore
+     * only rely on decoded structs being a {@link Map}.
+     * <p/>
+     * This may be called before or after {@link #connectTo(URL, String, String) connectTo()}.
+     *
+     * @param compactDecoding true to decode bugs into {@code CompactBugMaps}
+     */
+    public void setCompactDecoding(final boolean compactDecoding) {
+        this.compactDecoding = compactDecoding;
+        updateTypeFactory();
+    }
+
+    /**
+     * @return true if bugs are decoded into {@link CompactBugMap CompactBugMaps}
+     */
+    public boolean isCompactDecoding() {
+        return compactDecoding;
+    }
+
+    /**
+     * Sets a {@link StringInterner} through which the strings of every response are
+     * shared while it is decoded: member names, and the values of the fields it is
+     * enabled for. A large set of cached bugs then holds a single copy of each
+     * product, component, status or user name rather than one per bug. The same
+     * interner may be shared by several connectors.
+     * <p/>
+     * This may be called before or after {@link #connectTo(URL, String, String) connectTo()}.
+     *
+     * @param stringInterner The table to share strings through, or null to stop
+     *                       sharing them
+     */
+    public void setStringInterner(final StringInterner stringInterner) {
+        this.stringInterner = stringInterner;
+        updateTypeFactory();
+    }
+
+    /**
+     * @return The table decoded strings are shared through, or null if none is set
+     */
+    public StringInterner getStringInterner() {
+        return stringInterner;
+    }
+
+    /**
+     * Gives the client the type factory matching the decoding options.
+     */
+    private void updateTypeFactory() {
+        if (client == null) {
+            return;
+        }
+        if (compactDecoding || stringInterner != null) {
+            client.setTypeFactory(new CompactTypeFactory(client, compactDecoding, stringInterner));
+        } else {
+            client.setTypeFactory(new TypeFactoryImpl(client));
+        }
+    }
+
+    /**
+     * Enables or disables fast request serialization. When enabled, requests made
+     * up of {@code String}, {@code Integer}, {@code Boolean}, {@code Date},
+     * {@code Map} and {@code Object[]} values are written directly into a reusable
+     * pooled buffer instead of through the general-purpose Apache XML-RPC
+     * writer, which saves most of the CPU time and garbage of building bulk
+     * {@link com.j2bugzilla.rpc.ReportBug ReportBug}, {@link com.j2bugzilla.rpc.UpdateBug UpdateBug}
+     * and {@link com.j2bugzilla.rpc.CommentBug CommentBug} requests. The bytes sent
+     * are identical either way; requests containing other values are still
+     * written by the default writer.
+     *
+     * @param fastSerialization true to use the fast serializer where possible
+     */
+    public void setFastSerialization(final boolean fastSerialization) {
+        this.fastSerialization = fastSerialization;
+    }
+
+    /**
+     * @return true if requests are written by the fast serializer where possible
+     */
+    public boolean isFastSerialization() {
+        return fastSerialization;
+    }
+
+    /**
+     * Enables or disables compressed responses. When enabled, every request carries
+     * an {@code Accept-Encoding: gzip} header, and responses the installation
+     * chooses to compress are inflated as they are parsed, without being buffered
+     * first. The verbose XML of large {@link com.j2bugzilla.rpc.BugSearch BugSearch}
+     * and {@link com.j2bugzilla.rpc.GetProduct GetProduct} responses typically
+     * shrinks by a factor of ten. Byte counts in {@link BugzillaMetrics} are the
+     * compressed sizes sent over the wire.
+     *
+     * @param responseCompression true to ask for gzip compressed responses
+     */
+    public void setResponseCompression(final boolean responseCompression) {
+        this.responseCompression = responseCompression;
+    }
+
+    /**
+     * @return true if gzip compressed responses are requested
+     */
+    public boolean isResponseCompression() {
+        return responseCompression;
+    }
+
+    /**
+     * Sets the size from which request bodies are gzipped and sent with
+     * {@code Content-Encoding: gzip}. Stock Bugzilla installations do not inflate
+     * requests, so this should only be enabled when the web server in front of the
+     * installation does, for instance through an input filter. Disabled by default.
+     *
+     * @param requestCompressionThreshold the size in bytes from which request
+     *                                    bodies are compressed, or a negative
+     *                                    value to never compress them
+     */
+    public void setRequestCompressionThreshold(final int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * @return the size in bytes from which request bodies are compressed, or a
+     *         negative value if they never are
+     */
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * @return The cookies received from the installation, shared by every transport
+     */
+    List<String> getCookies() {
+        return cookies;
+    }
+
+    /**
+     * Enables or disables metrics collection for this connector.
+     *
+     * @param metrics A {@link BugzillaMetrics} registry to record calls in, or null to
+     *                stop recording
+     */
+    public void setMetrics(final BugzillaMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The {@link BugzillaMetrics} registry calls are recorded in, or null if
+     *         metrics are disabled
+     */
+    public BugzillaMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Holds the shared executor, which is only created once an asynchronous call
+     * is made without an executor of its own.
+     */
+    private static final class DefaultExecutor {
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(DEFAULT_ASYNC_THREADS,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "bugzilla-rpc-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Holds an executor starting a virtual thread per task, looked up reflectively
+     * since this library is compiled for JVMs which predate them.
+     */
+    private static final class VirtualThreadExecutor {
+        /**
+         * The executor, or null if the running JVM has no virtual threads
+         */
+        static final ExecutorService INSTANCE = create();
+
+        private static ExecutorService create() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (Exception e) {
+                // NoSuchMethodException before Java 21
+                return null;
+            }
         }
     }
 }
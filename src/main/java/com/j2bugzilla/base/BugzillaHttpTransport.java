@@ -0,0 +1,314 @@
+package com.j2bugzilla.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcSunHttpTransport;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.apache.xmlrpc.parser.XmlRpcResponseParser;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.j2bugzilla.metrics.BugzillaMetrics;
+
+/**
+ * The {@code BugzillaHttpTransport} overrides the default behavior of the
+ * {@link XmlRpcSunHttpTransport} to properly handle cookies for authentication,
+ * to record {@link BugzillaMetrics}, to compress requests and responses, to
+ * stream {@link BinaryData} in requests and to decode responses for
+ * {@link StreamingBugzillaMethod StreamingBugzillaMethods} and
+ * {@link BinaryResponseMethod BinaryResponseMethods} as they are read.
+ * A new instance is created for every request.
+ */
+class BugzillaHttpTransport extends XmlRpcSunHttpTransport {
+
+    /**
+     * The connector which owns the cookies and metrics for this transport
+     */
+    private final BugzillaConnector connector;
+
+    private URLConnection conn;
+
+    /**
+     * The request currently being sent
+     */
+    private XmlRpcRequest request;
+
+    /**
+     * The body of the response, closed once it has been parsed
+     */
+    private InputStream responseStream;
+
+    /**
+     * Creates a new {@link BugzillaHttpTransport}
+     *
+     * @param client    The client this transport sends requests for
+     * @param connector The connector which owns the cookies and metrics
+     */
+    BugzillaHttpTransport(final XmlRpcClient client, final BugzillaConnector connector) {
+        super(client);
+        this.connector = connector;
+    }
+
+    protected URLConnection newURLConnection(URL pURL) throws IOException {
+        conn = super.newURLConnection(pURL);
+        return conn;
+    }
+
+    public Object sendRequest(final XmlRpcRequest pRequest) throws XmlRpcException {
+        request = pRequest;
+        return super.sendRequest(pRequest);
+    }
+
+    /**
+     * This is the meat of these overrides -- the HTTP header data now includes the
+     * cookies received from the Bugzilla installation on login and will pass them every
+     * time a connection is made to transmit or receive data.
+     */
+    protected void initHttpHeaders(XmlRpcRequest request) throws XmlRpcClientException {
+        super.initHttpHeaders(request);
+        final List<String> cookies = connector.getCookies();
+        if (cookies.size() > 0) {
+            StringBuilder commaSep = new StringBuilder();
+
+            for (String str : cookies) {
+                commaSep.append(str);
+                commaSep.append(",");
+            }
+            setRequestHeader("Cookie", commaSep.toString());
+
+        }
+
+        // A gzip response is recognized by its Content-Encoding and inflated as it is read
+        if (connector.isResponseCompression()) {
+            setRequestHeader("Accept-Encoding", "gzip");
+        }
+    }
+
+    /**
+     * Builds the request body with the {@link RequestSerializer} if the connector
+     * has fast serialization enabled and the request only contains types it
+     * supports, and with the default writer otherwise. Bodies at least as large as
+     * the connector's request compression threshold are gzipped, and sent with a
+     * Content-Length matching the compressed size.
+     * <p/>
+     * Requests containing {@link BinaryData} are always built with the
+     * {@link RequestSerializer}, and are neither buffered nor compressed: the
+     * connection is put in fixed-length streaming mode, so that the content is
+     * sent while it is being encoded.
+     */
+    protected ReqWriter newReqWriter(final XmlRpcRequest pRequest) throws XmlRpcException, IOException, SAXException {
+        final int threshold = connector.getRequestCompressionThreshold();
+        final RequestSerializer serializer = connector.isFastSerialization() || containsBinaryData(pRequest)
+                ? RequestSerializer.serialize(pRequest) : null;
+        if (serializer != null
+                && (serializer.hasBinaryData() || threshold < 0 || serializer.size() < threshold)) {
+            final long size = serializer.size();
+            if (serializer.hasBinaryData()) {
+                if (size > Integer.MAX_VALUE) {
+                    throw new XmlRpcClientException("A request of " + size + " bytes cannot be sent", null);
+                }
+                if (conn instanceof HttpURLConnection) {
+                    // Otherwise the connection buffers the whole body to learn its length
+                    ((HttpURLConnection) conn).setFixedLengthStreamingMode((int) size);
+                }
+            }
+            setContentLength((int) size);
+            return new ReqWriter() {
+                public void write(OutputStream pStream) throws IOException {
+                    try {
+                        serializer.writeTo(pStream);
+                        pStream.close();
+                        pStream = null;
+                    } finally {
+                        if (pStream != null) {
+                            try {
+                                pStream.close();
+                            } catch (Throwable ignore) {
+                            }
+                        }
+                    }
+                }
+            };
+        }
+        if (serializer == null && threshold < 0) {
+            return super.newReqWriter(pRequest);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (serializer != null) {
+            serializer.writeTo(body);
+        } else {
+            // The Content-Length set by the default writer is replaced below
+            super.newReqWriter(pRequest).write(body);
+        }
+        if (body.size() >= threshold) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.size() / 4);
+            final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            body.writeTo(gzip);
+            gzip.close();
+            body = compressed;
+            setRequestHeader("Content-Encoding", "gzip");
+        }
+        setContentLength(body.size());
+        return new BufferedReqWriter(body);
+    }
+
+    /**
+     * Counts the bytes of the request body if metrics are enabled.
+     */
+    protected void writeRequest(final ReqWriter pWriter) throws IOException, XmlRpcException, SAXException {
+        final BugzillaMetrics m = connector.getMetrics();
+        if (m == null) {
+            super.writeRequest(pWriter);
+        } else {
+            pWriter.write(m.countSent(getURLConnection().getOutputStream()));
+        }
+    }
+
+    /**
+     * Counts the bytes of the response body if metrics are enabled.
+     */
+    protected InputStream getInputStream() throws XmlRpcException {
+        responseStream = super.getInputStream();
+        final BugzillaMetrics m = connector.getMetrics();
+        return m == null ? responseStream : m.countReceived(responseStream);
+    }
+
+    /**
+     * Hands the response to a {@link StreamingResponseParser} if the method being
+     * executed asked for one of its members to be streamed, and to the default
+     * parser otherwise.
+     */
+    protected Object readResponse(final XmlRpcStreamRequestConfig pConfig, final InputStream pStream)
+            throws XmlRpcException {
+        if (request instanceof BugzillaRequest) {
+            final BugzillaMethod method = ((BugzillaRequest) request).getMethod();
+            if (method instanceof StreamingBugzillaMethod
+                    && ((StreamingBugzillaMethod) method).getStreamedMember() != null) {
+                return new StreamingResponseParser(pConfig, getClient().getTypeFactory(),
+                        (StreamingBugzillaMethod) method).parse(newXMLReader(), pStream);
+            }
+            if (method instanceof BinaryResponseMethod) {
+                return readResponse(pConfig, pStream, new ChannelTypeFactory(getClient().getTypeFactory(),
+                        ((BinaryResponseMethod) method).getBinaryTarget()));
+            }
+        }
+        return super.readResponse(pConfig, pStream);
+    }
+
+    /**
+     * Parses a response as the default implementation does, but with the given
+     * {@link TypeFactory} in place of the client's.
+     */
+    private Object readResponse(final XmlRpcStreamRequestConfig pConfig, final InputStream pStream,
+            final TypeFactory typeFactory) throws XmlRpcException {
+        final XmlRpcResponseParser parser = new XmlRpcResponseParser(pConfig, typeFactory);
+        final XMLReader reader = newXMLReader();
+        reader.setContentHandler(parser);
+        try {
+            reader.parse(new InputSource(pStream));
+        } catch (SAXException e) {
+            throw new XmlRpcClientException("Failed to parse server's response: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new XmlRpcClientException("Failed to read server's response: " + e.getMessage(), e);
+        }
+        if (parser.isSuccess()) {
+            return parser.getResult();
+        }
+        throw new XmlRpcException(parser.getErrorCode(), parser.getErrorMessage(), parser.getErrorCause());
+    }
+
+    /**
+     * @return true if a parameter of the request is {@link BinaryData}
+     */
+    private static boolean containsBinaryData(final XmlRpcRequest pRequest) {
+        for (int i = 0; i < pRequest.getParameterCount(); i++) {
+            final Object param = pRequest.getParameter(i);
+            if (param instanceof Map) {
+                for (final Object value : ((Map<?, ?>) param).values()) {
+                    if (value instanceof BinaryData) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a request body which has already been built in memory.
+     */
+    private class BufferedReqWriter implements ReqWriter {
+        private final ByteArrayOutputStream body;
+
+        BufferedReqWriter(final ByteArrayOutputStream body) {
+            this.body = body;
+        }
+
+        public void write(OutputStream pStream) throws IOException {
+            try {
+                body.writeTo(pStream);
+                pStream.close();
+                pStream = null;
+            } finally {
+                if (pStream != null) {
+                    try {
+                        pStream.close();
+                    } catch (Throwable ignore) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the response body rather than disconnecting, so that the underlying
+     * socket goes back to the JDK's keep-alive cache and is reused by the next
+     * request to the same installation.
+     */
+    protected void close() throws XmlRpcClientException {
+        if (responseStream != null) {
+            try {
+                responseStream.close();
+            } catch (IOException ignore) {
+                // The connection is simply not reused
+            }
+            responseStream = null;
+        }
+        getCookies(conn);
+    }
+
+    /**
+     * Retrieves cookie values from the HTTP header of Bugzilla responses. Transports
+     * finishing at once may both see no cookies yet, so the check and the adding are
+     * made under the list's lock, and the cookies are added all at once so that
+     * readers never see only some of them.
+     * @param conn
+     */
+    private void getCookies(URLConnection conn) {
+        final List<String> cookies = connector.getCookies();
+        synchronized (cookies) {
+            if (cookies.size() == 0) {
+                Map<String, List<String>> headers = conn.getHeaderFields();
+                if (headers.containsKey("Set-Cookie")) {//avoid NPE
+                    cookies.addAll(headers.get("Set-Cookie"));
+                }
+            }
+        }
+    }
+}
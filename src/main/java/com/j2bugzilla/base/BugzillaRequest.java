@@ -0,0 +1,35 @@
+package com.j2bugzilla.base;
+
+import org.apache.xmlrpc.XmlRpcRequestConfig;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+
+/**
+ * An {@link org.apache.xmlrpc.XmlRpcRequest XmlRpcRequest} which remembers the
+ * {@link BugzillaMethod} it was created for, so that the transport can adapt how
+ * it handles the response to the method being executed.
+ */
+class BugzillaRequest extends XmlRpcClientRequestImpl {
+
+    /**
+     * The method this request was created for
+     */
+    private final BugzillaMethod method;
+
+    /**
+     * Creates a new {@link BugzillaRequest}
+     *
+     * @param config The client configuration
+     * @param method The {@link BugzillaMethod} to execute
+     */
+    BugzillaRequest(final XmlRpcRequestConfig config, final BugzillaMethod method) {
+        super(config, method.getMethodName(), new Object[]{method.getParameterMap()});
+        this.method = method;
+    }
+
+    /**
+     * @return The {@link BugzillaMethod} this request was created for
+     */
+    BugzillaMethod getMethod() {
+        return method;
+    }
+}
@@ -0,0 +1,340 @@
+package com.j2bugzilla.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code ChangeHistory} class holds the changes made to the fields of any number
+ * of {@link Bug Bugs}, as returned by {@code Bug.history}. Each change to a single
+ * field is a row, and the rows are held in parallel arrays, one per column, rather
+ * than as one map per change: when, who, field, the values removed and the values
+ * added. Users and field names, which repeat on almost every row, are interned and
+ * stored as indexes into a dictionary, and short values such as statuses are shared
+ * between rows, so that the history of many thousands of bugs stays small.
+ * <p/>
+ * The rows of a bug are contiguous and in the order the installation returned them,
+ * oldest first. The changes fetched later, such as those made since the latest one
+ * held, are added with {@link #merge(ChangeHistory)}, which keeps them next to the
+ * earlier rows of their bug. A {@code ChangeHistory} is not thread-safe.
+ */
+public class ChangeHistory {
+
+    /**
+     * Values at most this long are shared between rows
+     */
+    private static final int MAX_SHARED_LENGTH = 64;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+
+    private int[] bugIDs = new int[INITIAL_CAPACITY];
+
+    private long[] times = new long[INITIAL_CAPACITY];
+
+    private int[] users = new int[INITIAL_CAPACITY];
+
+    private int[] fields = new int[INITIAL_CAPACITY];
+
+    private String[] removed = new String[INITIAL_CAPACITY];
+
+    private String[] added = new String[INITIAL_CAPACITY];
+
+    private final Dictionary userNames = new Dictionary();
+
+    private final Dictionary fieldNames = new Dictionary();
+
+    private final Map<String, String> values = new HashMap<String, String>();
+
+    /**
+     * The first and last row of each bug, by bug ID, in the order bugs were added
+     */
+    private final Map<Integer, int[]> ranges = new LinkedHashMap<Integer, int[]>();
+
+    /**
+     * Adds a row. The rows of a bug must be added one after the other.
+     *
+     * @param bugID   The ID of the changed bug
+     * @param when    When the change was made
+     * @param who     The login of the user who made it
+     * @param field   The name of the changed field
+     * @param removed The values removed from the field
+     * @param added   The values added to the field
+     */
+    public void add(final int bugID, final Date when, final String who, final String field, final String removed,
+            final String added) {
+        int[] range = ranges.get(bugID);
+        if (range == null) {
+            range = new int[]{size, size};
+            ranges.put(bugID, range);
+        } else if (range[1] != size) {
+            throw new IllegalStateException("The rows of bug " + bugID + " must be added together");
+        }
+        append(bugID, when.getTime(), userNames.intern(who), fieldNames.intern(field), share(removed), share(added));
+        range[1] = size;
+    }
+
+    /**
+     * Adds the rows of a history fetched later, after the rows of the same bug held
+     * already. Rows held already, the same change to the same field by the same user
+     * at the same time, are skipped, so that histories fetched over overlapping
+     * periods can be merged.
+     *
+     * @param newer The history to add the rows of
+     * @return The number of rows added
+     */
+    public int merge(final ChangeHistory newer) {
+        if (newer == this) {
+            return 0;
+        }
+        final int oldSize = size;
+        final long[] oldTimes = times;
+        final int[] oldUsers = users;
+        final int[] oldFields = fields;
+        final String[] oldRemoved = removed;
+        final String[] oldAdded = added;
+        final Map<Integer, int[]> oldRanges = new LinkedHashMap<Integer, int[]>(ranges);
+        for (final Integer bugID : newer.ranges.keySet()) {
+            if (!oldRanges.containsKey(bugID)) {
+                oldRanges.put(bugID, new int[]{0, 0});
+            }
+        }
+        final int capacity = Math.max(INITIAL_CAPACITY, oldSize + newer.size);
+        bugIDs = new int[capacity];
+        times = new long[capacity];
+        users = new int[capacity];
+        fields = new int[capacity];
+        removed = new String[capacity];
+        added = new String[capacity];
+        size = 0;
+        ranges.clear();
+        for (final Map.Entry<Integer, int[]> entry : oldRanges.entrySet()) {
+            final int bugID = entry.getKey();
+            final int[] old = entry.getValue();
+            final int first = size;
+            for (int row = old[0]; row < old[1]; row++) {
+                append(bugID, oldTimes[row], oldUsers[row], oldFields[row], oldRemoved[row], oldAdded[row]);
+            }
+            final int[] fresh = newer.ranges.get(bugID);
+            if (fresh != null) {
+                for (int row = fresh[0]; row < fresh[1]; row++) {
+                    final int user = userNames.intern(newer.getWho(row));
+                    final int field = fieldNames.intern(newer.getField(row));
+                    if (!contains(first, size, newer.times[row], user, field, newer.removed[row], newer.added[row])) {
+                        append(bugID, newer.times[row], user, field, share(newer.removed[row]),
+                                share(newer.added[row]));
+                    }
+                }
+            }
+            if (size > first) {
+                ranges.put(bugID, new int[]{first, size});
+            }
+        }
+        return size - oldSize;
+    }
+
+    /**
+     * @return The number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The IDs of every bug with at least one row, in the order they were added
+     */
+    public List<Integer> getBugIDs() {
+        return new ArrayList<Integer>(ranges.keySet());
+    }
+
+    /**
+     * @param bugID The ID of a bug
+     * @return The index of the first row of the bug, or -1 if it has none
+     */
+    public int getFirstRow(final int bugID) {
+        final int[] range = ranges.get(bugID);
+        return range == null ? -1 : range[0];
+    }
+
+    /**
+     * @param bugID The ID of a bug
+     * @return The number of rows of the bug
+     */
+    public int getRowCount(final int bugID) {
+        final int[] range = ranges.get(bugID);
+        return range == null ? 0 : range[1] - range[0];
+    }
+
+    /**
+     * @param row The index of a row
+     * @return The ID of the bug changed
+     */
+    public int getBugID(final int row) {
+        check(row);
+        return bugIDs[row];
+    }
+
+    /**
+     * @param row The index of a row
+     * @return When the change was made, in milliseconds since the epoch
+     */
+    public long getTime(final int row) {
+        check(row);
+        return times[row];
+    }
+
+    /**
+     * @param row The index of a row
+     * @return The login of the user who made the change
+     */
+    public String getWho(final int row) {
+        check(row);
+        return userNames.get(users[row]);
+    }
+
+    /**
+     * @param row The index of a row
+     * @return The name of the changed field
+     */
+    public String getField(final int row) {
+        check(row);
+        return fieldNames.get(fields[row]);
+    }
+
+    /**
+     * @param row The index of a row
+     * @return The index of the changed field in {@link #getFieldNames()}, for
+     *         comparing fields without comparing strings
+     */
+    public int getFieldIndex(final int row) {
+        check(row);
+        return fields[row];
+    }
+
+    /**
+     * @param row The index of a row
+     * @return The values removed from the field, or an empty {@code String}
+     */
+    public String getRemoved(final int row) {
+        check(row);
+        return removed[row];
+    }
+
+    /**
+     * @param row The index of a row
+     * @return The values added to the field, or an empty {@code String}
+     */
+    public String getAdded(final int row) {
+        check(row);
+        return added[row];
+    }
+
+    /**
+     * @return Every field name occurring in the history, indexed as by
+     *         {@link #getFieldIndex(int)}
+     */
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(fieldNames.names);
+    }
+
+    /**
+     * @return The time of the latest change, in milliseconds since the epoch, or
+     *         {@code Long.MIN_VALUE} if there are no rows
+     */
+    public long getLatestTime() {
+        long latest = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            latest = Math.max(latest, times[i]);
+        }
+        return latest;
+    }
+
+    private void append(final int bugID, final long time, final int user, final int field, final String removedValue,
+            final String addedValue) {
+        if (size == bugIDs.length) {
+            grow();
+        }
+        bugIDs[size] = bugID;
+        times[size] = time;
+        users[size] = user;
+        fields[size] = field;
+        removed[size] = removedValue;
+        added[size] = addedValue;
+        size++;
+    }
+
+    /**
+     * @return true if a row between {@code from} and {@code to} is the same change
+     */
+    private boolean contains(final int from, final int to, final long time, final int user, final int field,
+            final String removedValue, final String addedValue) {
+        for (int row = from; row < to; row++) {
+            if (times[row] == time && users[row] == user && fields[row] == field
+                    && removed[row].equals(removedValue) && added[row].equals(addedValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void check(final int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    private String share(final String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.length() > MAX_SHARED_LENGTH) {
+            return value;
+        }
+        final String shared = values.get(value);
+        if (shared == null) {
+            values.put(value, value);
+            return value;
+        }
+        return shared;
+    }
+
+    private void grow() {
+        final int capacity = bugIDs.length * 2;
+        bugIDs = Arrays.copyOf(bugIDs, capacity);
+        times = Arrays.copyOf(times, capacity);
+        users = Arrays.copyOf(users, capacity);
+        fields = Arrays.copyOf(fields, capacity);
+        removed = Arrays.copyOf(removed, capacity);
+        added = Arrays.copyOf(added, capacity);
+    }
+
+    /**
+     * Assigns each distinct name a small integer code.
+     */
+    private static class Dictionary {
+        final List<String> names = new ArrayList<String>();
+
+        final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+        int intern(final String name) {
+            final String key = name == null ? "" : name;
+            final Integer code = codes.get(key);
+            if (code != null) {
+                return code;
+            }
+            codes.put(key, names.size());
+            names.add(key);
+            return names.size() - 1;
+        }
+
+        String get(final int code) {
+            return names.get(code);
+        }
+    }
+}
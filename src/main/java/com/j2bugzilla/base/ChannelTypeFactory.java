@@ -0,0 +1,124 @@
+package com.j2bugzilla.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.ws.commons.util.Base64;
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.parser.MapParser;
+import org.apache.xmlrpc.parser.ObjectArrayParser;
+import org.apache.xmlrpc.parser.TypeParser;
+import org.apache.xmlrpc.parser.TypeParserImpl;
+import org.apache.xmlrpc.serializer.ByteArraySerializer;
+import org.apache.xmlrpc.serializer.MapSerializer;
+import org.apache.xmlrpc.serializer.ObjectArraySerializer;
+import org.apache.xmlrpc.serializer.TypeSerializer;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A {@link TypeFactory} which decodes base64 values into a channel as they are
+ * read, for a {@link BinaryResponseMethod}. Structs and arrays are decoded with
+ * parsers built on this factory, so that base64 values nested in them are found;
+ * every other type is handled by the client's own factory.
+ */
+class ChannelTypeFactory implements TypeFactory {
+
+    /**
+     * The size of the buffer decoded bytes are collected in before being written
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final TypeFactory delegate;
+
+    private final WritableByteChannel target;
+
+    /**
+     * Creates a new {@link ChannelTypeFactory}
+     *
+     * @param delegate The factory handling every other type
+     * @param target   The channel to write decoded base64 values to
+     */
+    ChannelTypeFactory(final TypeFactory delegate, final WritableByteChannel target) {
+        this.delegate = delegate;
+        this.target = target;
+    }
+
+    public TypeSerializer getSerializer(final XmlRpcStreamConfig pConfig, final Object pObject) throws SAXException {
+        return delegate.getSerializer(pConfig, pObject);
+    }
+
+    public TypeParser getParser(final XmlRpcStreamConfig pConfig, final NamespaceContextImpl pContext,
+            final String pURI, final String pLocalName) {
+        if ("".equals(pURI)) {
+            if (ByteArraySerializer.BASE_64_TAG.equals(pLocalName)) {
+                return new ChannelParser();
+            } else if (MapSerializer.STRUCT_TAG.equals(pLocalName)) {
+                return delegate instanceof CompactTypeFactory
+                        ? ((CompactTypeFactory) delegate).newMapParser(pConfig, pContext, this)
+                        : new MapParser(pConfig, pContext, this);
+            } else if (ObjectArraySerializer.ARRAY_TAG.equals(pLocalName)) {
+                return new ObjectArrayParser(pConfig, pContext, this);
+            }
+        }
+        return delegate.getParser(pConfig, pContext, pURI, pLocalName);
+    }
+
+    /**
+     * Decodes a single base64 value into the target, leaving the number of bytes
+     * written as its result.
+     */
+    private class ChannelParser extends TypeParserImpl {
+        private int level;
+        private long written;
+        private Base64.Decoder decoder;
+
+        public void startDocument() throws SAXException {
+            level = 0;
+        }
+
+        public void startElement(final String uri, final String localName, final String qName,
+                final Attributes attrs) throws SAXException {
+            if (level++ != 0) {
+                throw new SAXParseException("Unexpected start tag in atomic element: " + localName,
+                        getDocumentLocator());
+            }
+            written = 0;
+            decoder = new Base64.Decoder(BUFFER_SIZE) {
+                protected void writeBuffer(final byte[] pBytes, final int pOffset, final int pLen)
+                        throws IOException {
+                    final ByteBuffer buffer = ByteBuffer.wrap(pBytes, pOffset, pLen);
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    written += pLen;
+                }
+            };
+        }
+
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            try {
+                decoder.write(ch, start, length);
+            } catch (IOException e) {
+                throw new SAXParseException("Failed to decode base64 stream.", getDocumentLocator(), e);
+            }
+        }
+
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+            if (--level != 0) {
+                throw new SAXParseException("Unexpected end tag in atomic element: " + localName,
+                        getDocumentLocator());
+            }
+            try {
+                decoder.flush();
+            } catch (IOException e) {
+                throw new SAXParseException("Failed to decode base64 stream.", getDocumentLocator(), e);
+            }
+            setResult(Long.valueOf(written));
+        }
+    }
+}
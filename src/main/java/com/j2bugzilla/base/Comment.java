@@ -1,5 +1,7 @@
 package com.j2bugzilla.base;
 
+import java.util.Date;
+
 /**
  * The {@code Comment} class represents a comment entered for a particular
  * {@link Bug} in a Bugzilla installation. Each comment has a unique ID, and is
@@ -19,6 +21,11 @@ public class Comment {
      */
     private final String text;
 
+    /**
+     * When this {@link Comment} was made, or null if not known
+     */
+    private final Date time;
+
     /**
      * Creates a new {@link Comment} from a Bugzilla installation
      *
@@ -26,8 +33,20 @@ public class Comment {
      * @param text The text content of this comment
      */
     public Comment(final int id, final String text) {
+        this(id, text, null);
+    }
+
+    /**
+     * Creates a new {@link Comment} from a Bugzilla installation
+     *
+     * @param id   The unique ID of this comment
+     * @param text The text content of this comment
+     * @param time When this comment was made
+     */
+    public Comment(final int id, final String text, final Date time) {
         this.id = id;
         this.text = text;
+        this.time = time;
     }
 
     /**
@@ -36,8 +55,7 @@ public class Comment {
      * @param text The text content of this comment
      */
     public Comment(final String text) {
-        this.id = -1;
-        this.text = text;
+        this(-1, text, null);
     }
 
     /**
@@ -54,4 +72,12 @@ public class Comment {
         return text;
     }
 
+    /**
+     * @return When this {@link Comment} was made, or null if it has not been
+     *         submitted or was retrieved without its time
+     */
+    public Date getTime() {
+        return time;
+    }
+
 }
@@ -0,0 +1,277 @@
+package com.j2bugzilla.base;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A {@code Map} holding the fields of a single bug. Fields known to the
+ * {@link BugSchema} are stored in an array slot rather than a hash entry of their
+ * own, and anything else goes into a small overflow map which is only created
+ * when needed. Decoding bugs into this form instead of a {@link HashMap} saves
+ * the per-entry objects and the hash table, which dominate the footprint of a
+ * large set of cached bugs.
+ * <p/>
+ * This class is a drop-in replacement for the {@code HashMap} usually held as
+ * the internal state of a {@link BugBase}, and supports every optional
+ * {@code Map} operation.
+ */
+public class CompactBugMap extends AbstractMap<String, Object> {
+
+    /**
+     * Stands in for a null value, so that a null slot can mean "not present"
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * Values of the schema fields, indexed by {@link BugSchema#indexOf(Object)}
+     */
+    private final Object[] slots;
+
+    /**
+     * Fields that are not part of the schema, or null if there are none
+     */
+    private Map<String, Object> overflow;
+
+    /**
+     * The number of schema fields present
+     */
+    private int slotCount;
+
+    /**
+     * Creates a new, empty {@link CompactBugMap}
+     */
+    public CompactBugMap() {
+        slots = new Object[BugSchema.size()];
+    }
+
+    /**
+     * Creates a new {@link CompactBugMap} holding the same fields as the given map.
+     *
+     * @param state The fields to copy
+     */
+    public CompactBugMap(final Map<String, Object> state) {
+        this();
+        putAll(state);
+    }
+
+    /**
+     * Copy constructor, used by {@link #copy()}.
+     */
+    private CompactBugMap(final CompactBugMap other) {
+        slots = other.slots.clone();
+        slotCount = other.slotCount;
+        overflow = other.overflow == null ? null : new HashMap<String, Object>(other.overflow);
+    }
+
+    /**
+     * Returns an independent copy of this map. This is considerably cheaper than
+     * copying it entry by entry into a new map.
+     *
+     * @return A new {@link CompactBugMap} with the same fields
+     */
+    public CompactBugMap copy() {
+        return new CompactBugMap(this);
+    }
+
+    /**
+     * @return The number of fields held in schema slots
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * @return The number of fields held in the overflow map
+     */
+    public int getOverflowCount() {
+        return overflow == null ? 0 : overflow.size();
+    }
+
+    @Override
+    public int size() {
+        return slotCount + getOverflowCount();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        final int slot = BugSchema.indexOf(key);
+        if (slot >= 0) {
+            return slots[slot] != null;
+        }
+        return overflow != null && overflow.containsKey(key);
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final int slot = BugSchema.indexOf(key);
+        if (slot >= 0) {
+            return unmask(slots[slot]);
+        }
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+        final int slot = BugSchema.indexOf(key);
+        if (slot >= 0) {
+            final Object previous = slots[slot];
+            if (previous == null) {
+                slotCount++;
+            }
+            slots[slot] = value == null ? NULL : value;
+            return unmask(previous);
+        }
+        if (overflow == null) {
+            overflow = new HashMap<String, Object>(4);
+        }
+        return overflow.put(key, value);
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        final int slot = BugSchema.indexOf(key);
+        if (slot >= 0) {
+            final Object previous = slots[slot];
+            if (previous != null) {
+                slots[slot] = null;
+                slotCount--;
+            }
+            return unmask(previous);
+        }
+        return overflow == null ? null : overflow.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+        slotCount = 0;
+        overflow = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactBugMap.this.size();
+            }
+        };
+    }
+
+    private static Object unmask(final Object value) {
+        return value == NULL ? null : value;
+    }
+
+    /**
+     * Iterates over the schema slots in order, then over the overflow map.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int nextSlot = -1;
+        private int lastSlot = -1;
+        private Iterator<Map.Entry<String, Object>> overflowIterator;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            nextSlot++;
+            while (nextSlot < slots.length && slots[nextSlot] == null) {
+                nextSlot++;
+            }
+        }
+
+        public boolean hasNext() {
+            if (nextSlot < slots.length) {
+                return true;
+            }
+            if (overflowIterator == null && overflow != null) {
+                overflowIterator = overflow.entrySet().iterator();
+            }
+            return overflowIterator != null && overflowIterator.hasNext();
+        }
+
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (nextSlot < slots.length) {
+                lastSlot = nextSlot;
+                advance();
+                return new SlotEntry(lastSlot);
+            }
+            lastSlot = -1;
+            return overflowIterator.next();
+        }
+
+        public void remove() {
+            if (lastSlot >= 0) {
+                if (slots[lastSlot] == null) {
+                    throw new IllegalStateException();
+                }
+                slots[lastSlot] = null;
+                slotCount--;
+            } else if (overflowIterator != null) {
+                overflowIterator.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * A live view of a single schema slot.
+     */
+    private class SlotEntry implements Map.Entry<String, Object> {
+        private final int slot;
+
+        SlotEntry(final int slot) {
+            this.slot = slot;
+        }
+
+        public String getKey() {
+            return BugSchema.keyAt(slot);
+        }
+
+        public Object getValue() {
+            return unmask(slots[slot]);
+        }
+
+        public Object setValue(final Object value) {
+            return put(getKey(), value);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            final Object value = getValue();
+            return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            final Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.j2bugzilla.base;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.parser.RecursiveTypeParserImpl;
+import org.apache.xmlrpc.serializer.MapSerializer;
+import org.apache.xmlrpc.serializer.TypeSerializerImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Parses an XML-RPC {@code struct} directly into a {@link CompactBugMap}. Structs
+ * which do not look like bugs, because too few of their members are part of the
+ * {@link BugSchema}, are returned as a plain {@link HashMap} instead, as is every
+ * struct if compact decoding is off. Member names, and the values of the fields a
+ * {@link StringInterner} is given for, are shared through it.
+ */
+class CompactMapParser extends RecursiveTypeParserImpl {
+
+    /**
+     * The number of schema fields a struct needs before it is kept in compact form
+     */
+    private static final int MIN_SCHEMA_FIELDS = 3;
+
+    private final boolean compact;
+
+    private final StringInterner interner;
+
+    private final StringBuilder nameBuffer = new StringBuilder();
+    private int level;
+    private String name;
+    private Map<String, Object> map;
+    private boolean inName;
+    private boolean inValue;
+    private boolean doneValue;
+
+    /**
+     * Creates a new {@link CompactMapParser}
+     *
+     * @param config   The request or response configuration
+     * @param context  The namespace context
+     * @param factory  The factory used to parse member values
+     * @param compact  true to keep structs which look like bugs in compact form
+     * @param interner The table to share strings through, or null
+     */
+    CompactMapParser(final XmlRpcStreamConfig config, final NamespaceContextImpl context, final TypeFactory factory,
+            final boolean compact, final StringInterner interner) {
+        super(config, context, factory);
+        this.compact = compact;
+        this.interner = interner;
+    }
+
+    protected void addResult(final Object pResult) throws SAXException {
+        if (name == null) {
+            throw new SAXParseException("Invalid state: Expected name", getDocumentLocator());
+        }
+        if (map.containsKey(name)) {
+            throw new SAXParseException("Duplicate name: " + name, getDocumentLocator());
+        }
+        map.put(name, interner == null ? pResult : interner.intern(name, pResult));
+    }
+
+    public void startDocument() throws SAXException {
+        super.startDocument();
+        level = 0;
+        map = compact ? new CompactBugMap() : new HashMap<String, Object>();
+        inName = inValue = false;
+    }
+
+    public void characters(final char[] pChars, final int pOffset, final int pLength) throws SAXException {
+        if (inName && !inValue) {
+            nameBuffer.append(pChars, pOffset, pLength);
+        } else {
+            super.characters(pChars, pOffset, pLength);
+        }
+    }
+
+    public void ignorableWhitespace(final char[] pChars, final int pOffset, final int pLength) throws SAXException {
+        if (inName) {
+            characters(pChars, pOffset, pLength);
+        } else {
+            super.ignorableWhitespace(pChars, pOffset, pLength);
+        }
+    }
+
+    public void startElement(final String pURI, final String pLocalName, final String pQName, final Attributes pAttrs)
+            throws SAXException {
+        switch (level++) {
+            case 0:
+                expect(MapSerializer.STRUCT_TAG, pURI, pLocalName);
+                break;
+            case 1:
+                expect(MapSerializer.MEMBER_TAG, pURI, pLocalName);
+                doneValue = inName = inValue = false;
+                name = null;
+                nameBuffer.setLength(0);
+                break;
+            case 2:
+                if (doneValue) {
+                    throw new SAXParseException("Expected /" + MapSerializer.MEMBER_TAG + ", got " + pLocalName,
+                            getDocumentLocator());
+                }
+                if ("".equals(pURI) && MapSerializer.NAME_TAG.equals(pLocalName)) {
+                    inName = true;
+                } else if ("".equals(pURI) && TypeSerializerImpl.VALUE_TAG.equals(pLocalName)) {
+                    if (name == null) {
+                        throw new SAXParseException("Expected " + MapSerializer.NAME_TAG + ", got " + pLocalName,
+                                getDocumentLocator());
+                    }
+                    inValue = true;
+                    startValueTag();
+                } else {
+                    throw new SAXParseException("Unexpected element " + pLocalName, getDocumentLocator());
+                }
+                break;
+            default:
+                super.startElement(pURI, pLocalName, pQName, pAttrs);
+                break;
+        }
+    }
+
+    public void endElement(final String pURI, final String pLocalName, final String pQName) throws SAXException {
+        switch (--level) {
+            case 0:
+                setResult(finish());
+                break;
+            case 1:
+                break;
+            case 2:
+                if (inName) {
+                    inName = false;
+                    name = interner == null ? nameBuffer.toString() : interner.intern(nameBuffer.toString());
+                } else if (inValue) {
+                    endValueTag();
+                    inValue = false;
+                    doneValue = true;
+                }
+                break;
+            default:
+                super.endElement(pURI, pLocalName, pQName);
+                break;
+        }
+    }
+
+    /**
+     * @return The parsed struct, in compact form if it looks like a bug
+     */
+    private Map<String, Object> finish() {
+        if (!compact || ((CompactBugMap) map).getSlotCount() >= MIN_SCHEMA_FIELDS) {
+            return map;
+        }
+        return new HashMap<String, Object>(map);
+    }
+
+    private void expect(final String tag, final String pURI, final String pLocalName) throws SAXException {
+        if (!"".equals(pURI) || !tag.equals(pLocalName)) {
+            throw new SAXParseException("Expected " + tag + ", got " + pLocalName, getDocumentLocator());
+        }
+    }
+}
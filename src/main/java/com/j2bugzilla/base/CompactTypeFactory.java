@@ -0,0 +1,57 @@
+package com.j2bugzilla.base;
+
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.TypeFactoryImpl;
+import org.apache.xmlrpc.common.XmlRpcController;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.parser.TypeParser;
+import org.apache.xmlrpc.serializer.MapSerializer;
+
+/**
+ * A {@link TypeFactoryImpl} which decodes structs with a {@link CompactMapParser},
+ * so that bugs are held as {@link CompactBugMap CompactBugMaps} rather than
+ * {@code HashMaps}, and their strings are shared through a {@link StringInterner}
+ * if one is given. Every other type is handled by the default factory.
+ */
+class CompactTypeFactory extends TypeFactoryImpl {
+
+    private final boolean compact;
+
+    private final StringInterner interner;
+
+    /**
+     * Creates a new {@link CompactTypeFactory}
+     *
+     * @param controller The client which operates this factory
+     * @param compact    true to decode bugs into {@code CompactBugMaps}, false to
+     *                   decode every struct into a {@code HashMap}
+     * @param interner   The table to share strings through, or null
+     */
+    CompactTypeFactory(final XmlRpcController controller, final boolean compact, final StringInterner interner) {
+        super(controller);
+        this.compact = compact;
+        this.interner = interner;
+    }
+
+    public TypeParser getParser(final XmlRpcStreamConfig pConfig, final NamespaceContextImpl pContext,
+            final String pURI, final String pLocalName) {
+        if ("".equals(pURI) && MapSerializer.STRUCT_TAG.equals(pLocalName)) {
+            return newMapParser(pConfig, pContext, this);
+        }
+        return super.getParser(pConfig, pContext, pURI, pLocalName);
+    }
+
+    /**
+     * Creates a struct parser configured like this factory's own.
+     *
+     * @param pConfig  The request or response configuration
+     * @param pContext The namespace context
+     * @param factory  The factory used to parse member values
+     * @return A new parser
+     */
+    CompactMapParser newMapParser(final XmlRpcStreamConfig pConfig, final NamespaceContextImpl pContext,
+            final TypeFactory factory) {
+        return new CompactMapParser(pConfig, pContext, factory, compact, interner);
+    }
+}
@@ -0,0 +1,16 @@
+package com.j2bugzilla.base;
+
+/**
+ * A {@code MethodListener} is told about every {@link BugzillaMethod} a
+ * {@link BugzillaConnector} executes successfully, for instance to invalidate
+ * cached data the method changed.
+ */
+public interface MethodListener {
+
+    /**
+     * Called on the executing thread once the method's results have been set.
+     *
+     * @param method The method executed
+     */
+    void methodExecuted(BugzillaMethod method);
+}
@@ -104,7 +104,7 @@ public class Product {
             final ArrayList<ProductVersion> productVersions = new ArrayList<ProductVersion>();
 
             for (final Object o : versions) {
-                final HashMap<String, Object> versionMap = (HashMap<String, Object>) o;
+                final Map<String, Object> versionMap = (Map<String, Object>) o;
                 final ProductVersion version = new ProductVersion(versionMap);
                 productVersions.add(version);
             }
@@ -121,7 +121,7 @@ public class Product {
             final ArrayList<ProductComponent> productComponents = new ArrayList<ProductComponent>();
 
             for (final Object o : components) {
-                final HashMap<String, Object> componentMap = (HashMap<String, Object>) o;
+                final Map<String, Object> componentMap = (Map<String, Object>) o;
                 final ProductComponent component = new ProductComponent(componentMap);
                 productComponents.add(component);
             }
@@ -138,7 +138,7 @@ public class Product {
             final ArrayList<ProductRelease> productReleases = new ArrayList<ProductRelease>();
 
             for (final Object o : releases) {
-                final HashMap<String, Object> releaseMap = (HashMap<String, Object>) o;
+                final Map<String, Object> releaseMap = (Map<String, Object>) o;
                 final ProductRelease release = new ProductRelease(releaseMap);
                 productReleases.add(release);
             }
@@ -155,7 +155,7 @@ public class Product {
             final ArrayList<ProductMilestone> productMilestones = new ArrayList<ProductMilestone>();
 
             for (final Object o : milestones) {
-                final HashMap<String, Object> milestoneMap = (HashMap<String, Object>) o;
+                final Map<String, Object> milestoneMap = (Map<String, Object>) o;
                 final ProductMilestone milestone = new ProductMilestone(milestoneMap);
                 productMilestones.add(milestone);
             }
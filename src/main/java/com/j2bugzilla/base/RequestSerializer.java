@@ -0,0 +1,404 @@
+package com.j2bugzilla.base;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+
+/**
+ * The {@code RequestSerializer} writes XML-RPC method calls directly as UTF-8
+ * bytes into a pooled buffer, instead of going through the SAX pipeline and
+ * reflective type lookup of the Apache XML-RPC
+ * {@link org.apache.xmlrpc.serializer.XmlRpcWriter XmlRpcWriter}. A buffer goes
+ * back to the pool once the request has been written, so building a request
+ * allocates next to nothing. The pool is shared rather than held in a
+ * {@code ThreadLocal}, so that calls made on short-lived threads, such as one
+ * virtual thread per call, reuse buffers as well.
+ * <p/>
+ * Only the types used by the Bugzilla methods in this library are supported:
+ * {@code String}, {@code Integer}, {@code Boolean}, {@code Date}, {@code Map}
+ * and {@code Object[]}, as well as {@link BinaryData}, whose content is not
+ * buffered but base64 encoded from its source while the request is written. The
+ * output is byte-for-byte identical to what the default writer produces for
+ * those types, binary data being written as it would be for a {@code byte[]},
+ * including its quirks: an empty struct is written as {@code <struct/>}, empty
+ * binary data as {@code <base64/>}, and characters outside the Basic
+ * Multilingual Plane are written as one character reference per surrogate.
+ * Requests containing anything else, or using a configuration which enables
+ * extensions or a different encoding, are rejected so that the caller can fall
+ * back to the default writer.
+ */
+final class RequestSerializer {
+
+    /**
+     * Buffers larger than this are discarded after use rather than kept in the pool
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    /**
+     * The most serializers kept in the pool; any more are left to the garbage collector
+     */
+    private static final int MAX_POOLED = 64;
+
+    private static final ConcurrentLinkedQueue<RequestSerializer> POOL = new ConcurrentLinkedQueue<RequestSerializer>();
+
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes();
+
+    /**
+     * The number of bytes of {@link BinaryData} read and encoded at a time; a
+     * multiple of three, so that only the last chunk needs padding
+     */
+    private static final int BINARY_CHUNK = 3 * 16 * 1024;
+
+    private byte[] buf = new byte[8192];
+    private int count;
+
+    /**
+     * The {@link BinaryData} values of the request, and the offsets in the buffer
+     * where their content belongs
+     */
+    private final List<BinaryData> binaries = new ArrayList<BinaryData>();
+    private final List<Integer> binaryOffsets = new ArrayList<Integer>();
+
+    /**
+     * Reused to format dates, reset to the configured time zone for each request
+     */
+    private Calendar calendar;
+
+    /**
+     * Private constructor, instances are obtained from the pool through
+     * {@link #serialize(XmlRpcRequest)}.
+     */
+    private RequestSerializer() {
+    }
+
+    /**
+     * Serializes a request into a pooled buffer.
+     *
+     * @param request The request to serialize
+     * @return A serializer holding the request, which returns to the pool once
+     *         {@link #writeTo(OutputStream)} has been called, or null if the
+     *         request contains types or configuration this class does not support
+     */
+    static RequestSerializer serialize(final XmlRpcRequest request) {
+        final XmlRpcStreamRequestConfig config = (XmlRpcStreamRequestConfig) request.getConfig();
+        if (config.isEnabledForExtensions()) {
+            return null;
+        }
+        final String encoding = config.getEncoding();
+        if (encoding != null && !XmlRpcStreamConfig.UTF8_ENCODING.equals(encoding)) {
+            return null;
+        }
+
+        RequestSerializer serializer = POOL.poll();
+        if (serializer == null) {
+            serializer = new RequestSerializer();
+        } else {
+            POOLED.decrementAndGet();
+        }
+        if (serializer.write(request, config.getTimeZone())) {
+            return serializer;
+        }
+        serializer.release();
+        return null;
+    }
+
+    /**
+     * @return The length of the serialized request in bytes
+     */
+    long size() {
+        long size = count;
+        for (final BinaryData binary : binaries) {
+            size += binary.getEncodedLength();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if the request contains {@link BinaryData}, which is only read
+     *         when the request is written
+     */
+    boolean hasBinaryData() {
+        return !binaries.isEmpty();
+    }
+
+    /**
+     * Writes the serialized request to the given stream, and returns this
+     * serializer to the pool. It must not be used afterwards.
+     *
+     * @param out The destination
+     * @throws IOException If the destination cannot be written to
+     */
+    void writeTo(final OutputStream out) throws IOException {
+        try {
+            int from = 0;
+            for (int i = 0; i < binaries.size(); i++) {
+                final int offset = binaryOffsets.get(i);
+                out.write(buf, from, offset - from);
+                encode(binaries.get(i), out);
+                from = offset;
+            }
+            out.write(buf, from, count - from);
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        count = 0;
+        binaries.clear();
+        binaryOffsets.clear();
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            buf = new byte[8192];
+        }
+        if (POOLED.incrementAndGet() <= MAX_POOLED) {
+            POOL.offer(this);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+
+    private boolean write(final XmlRpcRequest request, final TimeZone timeZone) {
+        count = 0;
+        binaries.clear();
+        binaryOffsets.clear();
+        if (calendar == null) {
+            calendar = Calendar.getInstance(timeZone);
+        } else {
+            calendar.setTimeZone(timeZone);
+        }
+
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodCall><methodName>");
+        text(request.getMethodName());
+        ascii("</methodName><params>");
+        for (int i = 0; i < request.getParameterCount(); i++) {
+            ascii("<param>");
+            if (!value(request.getParameter(i))) {
+                return false;
+            }
+            ascii("</param>");
+        }
+        ascii("</params></methodCall>");
+        return true;
+    }
+
+    private boolean value(final Object value) {
+        if (value instanceof String) {
+            ascii("<value>");
+            text((String) value);
+            ascii("</value>");
+        } else if (value instanceof Integer) {
+            ascii("<value><i4>");
+            ascii(value.toString());
+            ascii("</i4></value>");
+        } else if (value instanceof Boolean) {
+            ascii(((Boolean) value).booleanValue() ? "<value><boolean>1</boolean></value>"
+                    : "<value><boolean>0</boolean></value>");
+        } else if (value instanceof Date) {
+            ascii("<value><dateTime.iso8601>");
+            date((Date) value);
+            ascii("</dateTime.iso8601></value>");
+        } else if (value instanceof BinaryData) {
+            if (((BinaryData) value).getLength() == 0) {
+                ascii("<value><base64/></value>");
+            } else {
+                ascii("<value><base64>");
+                binaries.add((BinaryData) value);
+                binaryOffsets.add(count);
+                ascii("</base64></value>");
+            }
+        } else if (value instanceof Object[]) {
+            final Object[] array = (Object[]) value;
+            if (array.length == 0) {
+                ascii("<value><array><data/></array></value>");
+            } else {
+                ascii("<value><array><data>");
+                for (final Object element : array) {
+                    if (!value(element)) {
+                        return false;
+                    }
+                }
+                ascii("</data></array></value>");
+            }
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            if (map.isEmpty()) {
+                ascii("<value><struct/></value>");
+            } else {
+                ascii("<value><struct>");
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    ascii("<member><name>");
+                    text(entry.getKey().toString());
+                    ascii("</name>");
+                    if (!value(entry.getValue())) {
+                        return false;
+                    }
+                    ascii("</member>");
+                }
+                ascii("</struct></value>");
+            }
+        } else {
+            // null, or a type handled only by the default writer
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the content of a {@link BinaryData} and writes it base64 encoded,
+     * without line breaks.
+     */
+    private static void encode(final BinaryData binary, final OutputStream out) throws IOException {
+        final long length = binary.getLength();
+        final ByteBuffer src = ByteBuffer.allocate(BINARY_CHUNK);
+        final byte[] dst = new byte[BINARY_CHUNK / 3 * 4];
+        final ReadableByteChannel in = binary.open();
+        try {
+            long total = 0;
+            while (total < length) {
+                if (src.remaining() > length - total) {
+                    src.limit(src.position() + (int) (length - total));
+                }
+                final int n = in.read(src);
+                if (n < 0) {
+                    throw new IOException("Binary data ended after " + total + " of " + length + " bytes");
+                }
+                total += n;
+                if (!src.hasRemaining()) {
+                    out.write(dst, 0, encode(src, dst));
+                }
+            }
+        } finally {
+            if (binary.isOwned()) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Encodes the bytes written to a buffer, padding the last group if it is
+     * incomplete, and clears the buffer.
+     *
+     * @return The number of characters written to {@code dst}
+     */
+    private static int encode(final ByteBuffer src, final byte[] dst) {
+        final byte[] in = src.array();
+        final int length = src.position();
+        int j = 0;
+        for (int i = 0; i < length; i += 3) {
+            final int b0 = in[i] & 0xFF;
+            final int b1 = i + 1 < length ? in[i + 1] & 0xFF : 0;
+            final int b2 = i + 2 < length ? in[i + 2] & 0xFF : 0;
+            dst[j++] = BASE64[b0 >> 2];
+            dst[j++] = BASE64[((b0 & 0x03) << 4) | (b1 >> 4)];
+            dst[j++] = i + 1 < length ? BASE64[((b1 & 0x0F) << 2) | (b2 >> 6)] : (byte) '=';
+            dst[j++] = i + 2 < length ? BASE64[b2 & 0x3F] : (byte) '=';
+        }
+        src.clear();
+        return j;
+    }
+
+    /**
+     * Writes a date in the {@code yyyyMMdd'T'HH:mm:ss} form used by XML-RPC.
+     */
+    private void date(final Date date) {
+        calendar.setTime(date);
+        digits(calendar.get(Calendar.YEAR), 4);
+        digits(calendar.get(Calendar.MONTH) + 1, 2);
+        digits(calendar.get(Calendar.DAY_OF_MONTH), 2);
+        put('T');
+        digits(calendar.get(Calendar.HOUR_OF_DAY), 2);
+        put(':');
+        digits(calendar.get(Calendar.MINUTE), 2);
+        put(':');
+        digits(calendar.get(Calendar.SECOND), 2);
+    }
+
+    private void digits(final int value, final int width) {
+        final String s = Integer.toString(value);
+        for (int i = s.length(); i < width; i++) {
+            put('0');
+        }
+        ascii(s);
+    }
+
+    /**
+     * Appends a string known to contain only ASCII characters that need no escaping.
+     */
+    private void ascii(final String s) {
+        final int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Appends character data, escaping it exactly as the default writer does.
+     */
+    private void text(final String s) {
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    ascii("&amp;");
+                    break;
+                case '<':
+                    ascii("&lt;");
+                    break;
+                case '>':
+                    ascii("&gt;");
+                    break;
+                default:
+                    if (c < 0x80) {
+                        put(c);
+                    } else if (c < 0x800) {
+                        ensureCapacity(2);
+                        buf[count++] = (byte) (0xC0 | (c >> 6));
+                        buf[count++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                        // The default writer cannot encode a lone surrogate, so it
+                        // writes each half as a character reference
+                        ascii("&#");
+                        ascii(Integer.toString(c));
+                        put(';');
+                    } else {
+                        ensureCapacity(3);
+                        buf[count++] = (byte) (0xE0 | (c >> 12));
+                        buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        buf[count++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void put(final char c) {
+        ensureCapacity(1);
+        buf[count++] = (byte) c;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if (count + extra > buf.length) {
+            final byte[] larger = new byte[Math.max(buf.length * 2, count + extra)];
+            System.arraycopy(buf, 0, larger, 0, count);
+            buf = larger;
+        }
+    }
+}
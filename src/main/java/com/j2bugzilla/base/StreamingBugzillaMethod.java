@@ -0,0 +1,32 @@
+package com.j2bugzilla.base;
+
+import java.util.Map;
+
+/**
+ * A {@link BugzillaMethod} whose result contains one very large array, such as the
+ * {@code bugs} returned by {@code Bug.search}. Instead of building the whole
+ * array in memory, the {@link BugzillaConnector} decodes it one element at a time
+ * and passes each element to {@link #handleStreamedElement(Map)} as soon as it
+ * has been read, so that peak memory is bounded by the size of one element.
+ * <p/>
+ * Once the response has been read, {@link #setResultMap(Map)} is called as usual
+ * with every other member of the result; the streamed member is not included.
+ */
+public interface StreamingBugzillaMethod extends BugzillaMethod {
+
+    /**
+     * @return The name of the member of the result struct to stream, for example
+     *         {@code "bugs"}, or null to decode the response normally
+     */
+    String getStreamedMember();
+
+    /**
+     * Called once for every element of the streamed member, in order, while the
+     * response is still being read.
+     *
+     * @param element A {@link Map} decoded from one element of the streamed array
+     * @throws BugzillaException If the element cannot be handled; this aborts the
+     *                           rest of the response
+     */
+    void handleStreamedElement(Map<Object, Object> element) throws BugzillaException;
+}
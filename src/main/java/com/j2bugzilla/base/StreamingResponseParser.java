@@ -0,0 +1,287 @@
+package com.j2bugzilla.base;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.apache.xmlrpc.parser.RecursiveTypeParserImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * The {@code StreamingResponseParser} reads an XML-RPC method response whose
+ * result is a struct, passing each element of one array member to a
+ * {@link StreamingBugzillaMethod} as soon as it has been decoded. Every other
+ * value is decoded by the client's {@link TypeFactory}, exactly as the default
+ * parser would.
+ * <p/>
+ * The response is expected to have the shape
+ * {@code methodResponse/params/param/value/struct/member/value/array/data/value},
+ * with the element depths tracked below.
+ */
+class StreamingResponseParser extends DefaultHandler {
+
+    private static final int METHOD_RESPONSE = 1;
+    private static final int PARAMS_OR_FAULT = 2;
+    private static final int PARAM_OR_FAULT_VALUE = 3;
+    private static final int PARAM_VALUE = 4;
+    private static final int RESULT_STRUCT = 5;
+    private static final int MEMBER = 6;
+    private static final int MEMBER_NAME_OR_VALUE = 7;
+    private static final int STREAMED_ARRAY = 8;
+    private static final int STREAMED_DATA = 9;
+    private static final int STREAMED_VALUE = 10;
+
+    /**
+     * The method receiving streamed elements
+     */
+    private final StreamingBugzillaMethod method;
+
+    /**
+     * The name of the member to stream
+     */
+    private final String streamedMember;
+
+    /**
+     * Decodes individual values using the client's type factory
+     */
+    private final ValueParser valueParser;
+
+    /**
+     * Every member of the result struct except the streamed one
+     */
+    private final Map<Object, Object> result = new HashMap<Object, Object>();
+
+    private final StringBuilder memberName = new StringBuilder();
+
+    private int depth;
+    private boolean fault;
+    private boolean inName;
+    private boolean inStreamedMember;
+    private Object faultValue;
+
+    /**
+     * The depth of the {@code value} element currently handed to
+     * {@link #valueParser}, or -1 if no value is being decoded
+     */
+    private int valueDepth = -1;
+
+    /**
+     * Creates a new {@link StreamingResponseParser}
+     *
+     * @param config      The request configuration
+     * @param typeFactory The factory used to decode values
+     * @param method      The method to pass streamed elements to
+     */
+    StreamingResponseParser(final XmlRpcStreamRequestConfig config, final TypeFactory typeFactory,
+            final StreamingBugzillaMethod method) {
+        this.method = method;
+        this.streamedMember = method.getStreamedMember();
+        this.valueParser = new ValueParser(config, typeFactory);
+    }
+
+    /**
+     * Parses a response.
+     *
+     * @param reader The {@link XMLReader} to parse with
+     * @param stream The response body
+     * @return A {@link Map} of the result members which were not streamed
+     * @throws XmlRpcException If the response is a fault or cannot be parsed
+     */
+    Object parse(final XMLReader reader, final InputStream stream) throws XmlRpcException {
+        reader.setContentHandler(this);
+        try {
+            reader.parse(new InputSource(stream));
+        } catch (SAXException e) {
+            final Exception cause = e.getException();
+            if (cause instanceof XmlRpcException) {
+                throw (XmlRpcException) cause;
+            } else if (cause instanceof BugzillaException) {
+                throw new XmlRpcException(cause.getMessage(), cause);
+            }
+            throw new XmlRpcClientException("Failed to parse server's response: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new XmlRpcClientException("Failed to read server's response: " + e.getMessage(), e);
+        }
+
+        if (fault) {
+            if (!(faultValue instanceof Map)) {
+                throw new XmlRpcClientException("Invalid fault in server's response", null);
+            }
+            final Map<?, ?> faultMap = (Map<?, ?>) faultValue;
+            final Object code = faultMap.get("faultCode");
+            if (!(code instanceof Integer)) {
+                throw new XmlRpcClientException("Missing faultCode in server's response", null);
+            }
+            throw new XmlRpcException((Integer) code, (String) faultMap.get("faultString"));
+        }
+        return result;
+    }
+
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attrs)
+            throws SAXException {
+        depth++;
+        if (valueDepth != -1) {
+            valueParser.startElement(uri, localName, qName, attrs);
+            return;
+        }
+
+        switch (depth) {
+            case METHOD_RESPONSE:
+                expect("methodResponse", localName);
+                break;
+            case PARAMS_OR_FAULT:
+                if ("fault".equals(localName)) {
+                    fault = true;
+                } else {
+                    expect("params", localName);
+                }
+                break;
+            case PARAM_OR_FAULT_VALUE:
+                if (fault) {
+                    expect("value", localName);
+                    startValue();
+                } else {
+                    expect("param", localName);
+                }
+                break;
+            case PARAM_VALUE:
+                expect("value", localName);
+                break;
+            case RESULT_STRUCT:
+                expect("struct", localName);
+                break;
+            case MEMBER:
+                expect("member", localName);
+                memberName.setLength(0);
+                inStreamedMember = false;
+                break;
+            case MEMBER_NAME_OR_VALUE:
+                if ("name".equals(localName)) {
+                    inName = true;
+                } else {
+                    expect("value", localName);
+                    if (streamedMember.equals(memberName.toString())) {
+                        inStreamedMember = true;
+                    } else {
+                        startValue();
+                    }
+                }
+                break;
+            case STREAMED_ARRAY:
+                expect("array", localName);
+                break;
+            case STREAMED_DATA:
+                expect("data", localName);
+                break;
+            case STREAMED_VALUE:
+                expect("value", localName);
+                startValue();
+                break;
+            default:
+                throw new SAXException("Unexpected element " + localName + " in server's response");
+        }
+    }
+
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        if (valueDepth != -1) {
+            if (depth == valueDepth) {
+                endValue();
+            } else {
+                valueParser.endElement(uri, localName, qName);
+            }
+        } else if (depth == MEMBER_NAME_OR_VALUE && inName) {
+            inName = false;
+        }
+        depth--;
+    }
+
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        if (valueDepth != -1) {
+            valueParser.characters(ch, start, length);
+        } else if (inName) {
+            memberName.append(ch, start, length);
+        }
+    }
+
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        valueParser.startPrefixMapping(prefix, uri);
+    }
+
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        valueParser.endPrefixMapping(prefix);
+    }
+
+    private void startValue() throws SAXException {
+        valueDepth = depth;
+        valueParser.startDocument();
+        valueParser.startValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void endValue() throws SAXException {
+        final Object value = valueParser.endValue();
+        valueDepth = -1;
+
+        if (depth == PARAM_OR_FAULT_VALUE) {
+            faultValue = value;
+        } else if (depth == MEMBER_NAME_OR_VALUE) {
+            result.put(memberName.toString(), value);
+        } else if (inStreamedMember) {
+            if (!(value instanceof Map)) {
+                throw new SAXException("Expected a struct in " + streamedMember + ", got " + value);
+            }
+            try {
+                method.handleStreamedElement((Map<Object, Object>) value);
+            } catch (BugzillaException e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+
+    private static void expect(final String expected, final String localName) throws SAXException {
+        if (!expected.equals(localName)) {
+            throw new SAXException("Expected " + expected + " element, got " + localName);
+        }
+    }
+
+    /**
+     * Decodes a single {@code value} element with the client's {@link TypeFactory}.
+     */
+    private static class ValueParser extends RecursiveTypeParserImpl {
+        private Object value;
+
+        ValueParser(final XmlRpcStreamRequestConfig config, final TypeFactory typeFactory) {
+            super(config, new NamespaceContextImpl(), typeFactory);
+        }
+
+        protected void addResult(final Object pResult) {
+            value = pResult;
+        }
+
+        void startValue() throws SAXException {
+            value = null;
+            startValueTag();
+        }
+
+        Object endValue() throws SAXException {
+            endValueTag();
+            final Object result = value;
+            value = null;
+            return result;
+        }
+    }
+}
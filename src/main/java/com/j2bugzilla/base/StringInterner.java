@@ -0,0 +1,217 @@
+package com.j2bugzilla.base;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.j2bugzilla.metrics.BugzillaMetrics;
+import com.j2bugzilla.metrics.Gauge;
+
+/**
+ * A {@code StringInterner} lets decoded bugs share a single copy of the strings
+ * that recur across a result set, such as products, components, statuses and user
+ * names, and of the member names of every struct. Set on a connector with
+ * {@link BugzillaConnector#setStringInterner(StringInterner) setStringInterner()},
+ * it is consulted for each struct member as the response is read, so a search for
+ * many bugs holds a handful of copies of these values instead of one per bug.
+ * <p/>
+ * The table has a fixed number of slots, each holding the last string hashed to it,
+ * so its memory use is bounded however many distinct values pass through it. A
+ * value displaced by another is simply kept as a copy of its own the next time it
+ * is decoded. Lookups take no lock and may be made from any number of threads.
+ * <p/>
+ * Only the values of {@link #setInterned(String, boolean) enabled fields} are
+ * interned, by default those in {@link #DEFAULT_FIELDS}; strings in the arrays of
+ * multi-valued fields such as {@code cc} are interned element by element.
+ */
+public class StringInterner {
+
+    /**
+     * The number of slots unless told otherwise
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The fields whose values are interned unless told otherwise: those which take
+     * few distinct values across the bugs of an installation
+     */
+    public static final Set<String> DEFAULT_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "product", "component", "status", "resolution", "version", "priority", "severity", "op_sys",
+            "platform", "assigned_to", "creator", "qa_contact", "cc", "keywords", "target_milestone",
+            "classification", "groups", "setter", "requestee", "name")));
+
+    private final AtomicReferenceArray<String> table;
+
+    private final int mask;
+
+    private final Set<String> fields = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new {@link StringInterner} with {@link #DEFAULT_CAPACITY} slots.
+     */
+    public StringInterner() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new {@link StringInterner}
+     *
+     * @param capacity The number of slots, rounded up to a power of two; at least a
+     *                 few times the number of distinct values expected
+     */
+    public StringInterner(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30, was " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        table = new AtomicReferenceArray<String>(size);
+        mask = size - 1;
+        fields.addAll(DEFAULT_FIELDS);
+    }
+
+    /**
+     * Returns the copy of a string held in the table, or holds this one if the table
+     * has no equal string.
+     *
+     * @param s A string, or null
+     * @return An equal string, or null if {@code s} is null
+     */
+    public String intern(final String s) {
+        if (s == null) {
+            return null;
+        }
+        int h = s.hashCode();
+        // Spread the upper bits, since short strings differ mostly in the lower ones
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        final int slot = h & mask;
+        final String held = table.get(slot);
+        if (held != null && held.equals(s)) {
+            hits.incrementAndGet();
+            return held;
+        }
+        misses.incrementAndGet();
+        table.set(slot, s);
+        return s;
+    }
+
+    /**
+     * Interns the value of a struct member if its field is enabled.
+     *
+     * @param field The member name
+     * @param value The decoded value; the strings of an {@code Object[]} are
+     *              replaced in place
+     * @return The value to keep
+     */
+    Object intern(final String field, final Object value) {
+        if (!fields.contains(field)) {
+            return value;
+        }
+        if (value instanceof String) {
+            return intern((String) value);
+        }
+        if (value instanceof Object[]) {
+            final Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (array[i] instanceof String) {
+                    array[i] = intern((String) array[i]);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Enables or disables interning of a field's values.
+     *
+     * @param field    A field name, such as {@code product}
+     * @param interned true to intern the field's values
+     */
+    public void setInterned(final String field, final boolean interned) {
+        if (interned) {
+            fields.add(field);
+        } else {
+            fields.remove(field);
+        }
+    }
+
+    /**
+     * @param field A field name
+     * @return true if the field's values are interned
+     */
+    public boolean isInterned(final String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * @return The number of lookups which found an equal string in the table
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups which did not
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The fraction of lookups which found an equal string, or zero before
+     *         the first lookup
+     */
+    public double getHitRate() {
+        final long h = hits.get();
+        final long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Publishes the lookup counts of this table as counters, and its hit rate as a
+     * gauge.
+     *
+     * @param metrics The registry to publish to
+     */
+    public void registerGauges(final BugzillaMetrics metrics) {
+        metrics.registerCounter("bugzilla_intern_hits_total", "String interning lookups which found a shared copy",
+                new Gauge() {
+                    public double getValue() {
+                        return getHits();
+                    }
+                });
+        metrics.registerCounter("bugzilla_intern_misses_total", "String interning lookups which did not",
+                new Gauge() {
+                    public double getValue() {
+                        return getMisses();
+                    }
+                });
+        metrics.registerGauge("bugzilla_intern_hit_ratio", "Fraction of string interning lookups which hit",
+                new Gauge() {
+                    public double getValue() {
+                        return getHitRate();
+                    }
+                });
+    }
+
+    /**
+     * Empties the table. Strings already shared stay shared, and the counts keep
+     * growing, as they are exported as counters.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, null);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.j2bugzilla.base;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The {@code UpdateResult} class describes what a {@code Bug.update} call changed on
+ * a single {@link Bug}: the new values and the values they replaced, for every field
+ * which actually changed.
+ */
+public class UpdateResult {
+
+    /**
+     * The ID of the updated {@link Bug}
+     */
+    private final int id;
+
+    /**
+     * The alias of the updated {@link Bug}, or null if it has none
+     */
+    private final String alias;
+
+    /**
+     * When the {@link Bug} was last changed, after this update
+     */
+    private final Date lastChangeTime;
+
+    /**
+     * The changed fields, keyed by field name
+     */
+    private final Map<String, FieldChange> changes;
+
+    /**
+     * Creates a new {@link UpdateResult}
+     *
+     * @param id             The ID of the updated bug
+     * @param alias          The alias of the updated bug, or null
+     * @param lastChangeTime When the bug was last changed
+     * @param changes        The changed fields, keyed by field name
+     */
+    public UpdateResult(final int id, final String alias, final Date lastChangeTime,
+            final Map<String, FieldChange> changes) {
+        this.id = id;
+        this.alias = alias;
+        this.lastChangeTime = lastChangeTime;
+        this.changes = Collections.unmodifiableMap(changes);
+    }
+
+    /**
+     * @return The ID of the updated {@link Bug}
+     */
+    public int getID() {
+        return id;
+    }
+
+    /**
+     * @return The alias of the updated {@link Bug}, or null if it has none
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return When the {@link Bug} was last changed, or null if the installation did
+     *         not say
+     */
+    public Date getLastChangeTime() {
+        return lastChangeTime;
+    }
+
+    /**
+     * @return The changed fields, keyed by field name. Empty if the update did not
+     *         change anything on this bug.
+     */
+    public Map<String, FieldChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * The values added to and removed from a single field. For fields holding one
+     * value, these are simply the new and old values; for fields holding several,
+     * such as {@code cc} or {@code keywords}, they are comma-separated lists.
+     */
+    public static class FieldChange {
+
+        private final String added;
+
+        private final String removed;
+
+        /**
+         * Creates a new {@link FieldChange}
+         *
+         * @param added   The values added to the field
+         * @param removed The values removed from the field
+         */
+        public FieldChange(final String added, final String removed) {
+            this.added = added;
+            this.removed = removed;
+        }
+
+        /**
+         * @return The values added to the field, or an empty {@code String}
+         */
+        public String getAdded() {
+            return added;
+        }
+
+        /**
+         * @return The values removed from the field, or an empty {@code String}
+         */
+        public String getRemoved() {
+            return removed;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.CompactBugMap;
 
 /**
  * The {@code BugFactory} class allows users of the j2bugzilla API to construct
@@ -36,9 +37,14 @@ public class BugFactory<T extends BugBase> {
      * @throws InstantiationException
      */
     public T createBug(final Map<String, Object> properties) throws InstantiationException, IllegalAccessException {
-        Map<String, Object> copy = new HashMap<String, Object>();
-        for (String key : properties.keySet()) {
-            copy.put(key, properties.get(key));
+        Map<String, Object> copy;
+        if (properties instanceof CompactBugMap) {
+            copy = ((CompactBugMap) properties).copy();
+        } else {
+            copy = new HashMap<String, Object>();
+            for (String key : properties.keySet()) {
+                copy.put(key, properties.get(key));
+            }
         }
         final T bug = bugClass.newInstance();
         bug.setInternalState(copy);
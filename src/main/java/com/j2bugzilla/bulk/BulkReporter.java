@@ -0,0 +1,175 @@
+package com.j2bugzilla.bulk;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.rpc.ReportBug;
+
+/**
+ * The {@code BulkReporter} files a large number of new bugs, keeping a bounded number
+ * of {@link ReportBug} calls in flight at once, for instance to import the bugs of
+ * another tracker. Bugs are read from an {@code Iterable} one at a time as capacity
+ * frees up, so the input may be produced lazily, and the outcome of each is handed to
+ * a {@link ReportHandler} in input order.
+ * <p/>
+ * Calls are made with {@link BugzillaConnector#executeMethodAsync(com.j2bugzilla.base.BugzillaMethod)
+ * executeMethodAsync()}, so the connector's executor must have at least as many
+ * threads as the parallelism asked for; its shared default has
+ * {@link BugzillaConnector#DEFAULT_ASYNC_THREADS}.
+ * <p/>
+ * With a {@link ReportJournal} and a {@link ReportKey}, every bug is journaled under
+ * its key, and a bug the journal shows as filed by an earlier run is not filed again.
+ * A bug with the same key as one before it in the same run is not filed either, and
+ * is reported with a fault saying so.
+ *
+ * @param <T> The type of bug filed
+ */
+public class BulkReporter<T extends BugBase> {
+
+    private final BugzillaConnector connector;
+
+    private final int parallelism;
+
+    private ReportJournal journal;
+
+    private ReportKey<? super T> key;
+
+    /**
+     * Creates a new {@link BulkReporter}
+     *
+     * @param connector   The connector to file bugs through
+     * @param parallelism The most bugs to file at once
+     */
+    public BulkReporter(final BugzillaConnector connector, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive, was " + parallelism);
+        }
+        this.connector = connector;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Makes the import idempotent across runs.
+     *
+     * @param journal The journal recording filed bugs, or null to file every bug
+     * @param key     Derives the key each bug is journaled under
+     */
+    public void setJournal(final ReportJournal journal, final ReportKey<? super T> key) {
+        this.journal = journal;
+        this.key = key;
+    }
+
+    /**
+     * Files every bug. A bug which cannot be filed is reported to the handler with its
+     * fault, and does not stop the others.
+     *
+     * @param bugs    The bugs to file
+     * @param handler Receives the outcome of each bug, on the calling thread
+     * @throws IOException          If the journal cannot be written; bugs in flight
+     *                              are left in doubt
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     *                              for a call to complete
+     */
+    public void report(final Iterable<? extends T> bugs, final ReportHandler<T> handler)
+            throws IOException, InterruptedException {
+        final LinkedList<InFlight> inFlight = new LinkedList<InFlight>();
+        final Set<String> keys = new HashSet<String>();
+        final Iterator<? extends T> it = bugs.iterator();
+        while (it.hasNext() || !inFlight.isEmpty()) {
+            while (it.hasNext() && inFlight.size() < parallelism) {
+                final InFlight f = submit(it.next(), keys);
+                if (f.future == null && inFlight.isEmpty()) {
+                    // Resolved from the journal; nothing ahead of it to wait for
+                    handler.handleResult(f.result);
+                } else {
+                    inFlight.add(f);
+                }
+            }
+            if (!inFlight.isEmpty()) {
+                handler.handleResult(complete(inFlight.removeFirst()));
+            }
+        }
+    }
+
+    /**
+     * @param keys The keys of the bugs submitted so far in this run
+     */
+    private InFlight submit(final T bug, final Set<String> keys) throws IOException {
+        final String k = journal == null ? null : key.getKey(bug);
+        if (k != null) {
+            if (!keys.add(k)) {
+                return new InFlight(bug, null, new ReportResult<T>(bug, -1, new BugzillaException(
+                        "Another bug of this run has the same key, " + k + "; it was not filed"), false));
+            }
+            final Integer id = journal.getID(k);
+            if (id != null) {
+                return new InFlight(bug, k, new ReportResult<T>(bug, id, null, true));
+            }
+            if (journal.isInDoubt(k)) {
+                return new InFlight(bug, k, new ReportResult<T>(bug, -1, new BugzillaException(
+                        "An earlier run sent this bug without learning whether it was filed; check the "
+                                + "installation and forget its key in the journal to file it again"), false));
+            }
+            journal.started(k);
+        }
+        final InFlight f = new InFlight(bug, k, null);
+        f.future = connector.executeMethodAsync(new ReportBug(bug));
+        return f;
+    }
+
+    private ReportResult<T> complete(final InFlight f) throws IOException, InterruptedException {
+        if (f.future == null) {
+            return f.result;
+        }
+        final ReportBug report;
+        try {
+            report = f.future.get();
+        } catch (ExecutionException e) {
+            final BugzillaException fault = e.getCause() instanceof BugzillaException
+                    ? (BugzillaException) e.getCause() : new BugzillaException("Unable to file bug", e.getCause());
+            if (f.key != null && isRejected(fault)) {
+                journal.failed(f.key);
+            }
+            return new ReportResult<T>(f.bug, -1, fault, false);
+        }
+        if (f.key != null) {
+            journal.filed(f.key, report.getID());
+        }
+        return new ReportResult<T>(f.bug, report.getID(), null, false);
+    }
+
+    /**
+     * Tells a fault returned by the installation, which means the bug was not filed and
+     * may be sent again, from a transport failure, after which it may or may not have
+     * been. Only the former carries a fault code.
+     */
+    private static boolean isRejected(final BugzillaException fault) {
+        return fault.getCause() instanceof XmlRpcException && ((XmlRpcException) fault.getCause()).code != 0;
+    }
+
+    /**
+     * A bug being filed, or already resolved from the journal.
+     */
+    private class InFlight {
+        final T bug;
+        final String key;
+        final ReportResult<T> result;
+        Future<ReportBug> future;
+
+        InFlight(final T bug, final String key, final ReportResult<T> result) {
+            this.bug = bug;
+            this.key = key;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.j2bugzilla.bulk;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.UpdateResult;
+
+/**
+ * {@code BulkUpdateException} is thrown when one chunk of a {@link BulkUpdater}
+ * update fails. It reports the bugs which were updated by the chunks before it, and
+ * the bugs which were not, so that the update can be resumed.
+ */
+public class BulkUpdateException extends BugzillaException {
+
+    private static final long serialVersionUID = -3302811207371420468L;
+
+    private final List<UpdateResult> completed;
+
+    private final List<Integer> remaining;
+
+    /**
+     * Creates a new {@link BulkUpdateException}
+     *
+     * @param message   A description of the failed chunk
+     * @param cause     The fault returned for the failed chunk
+     * @param completed The results of the chunks which succeeded
+     * @param remaining The IDs of the failed chunk and every chunk after it
+     */
+    public BulkUpdateException(final String message, final BugzillaException cause,
+            final List<UpdateResult> completed, final List<Integer> remaining) {
+        super(message, cause);
+        this.completed = Collections.unmodifiableList(completed);
+        this.remaining = Collections.unmodifiableList(remaining);
+    }
+
+    /**
+     * @return What was changed on the bugs updated before the failure
+     */
+    public List<UpdateResult> getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return The IDs of the bugs which were not updated
+     */
+    public List<Integer> getRemaining() {
+        return remaining;
+    }
+}
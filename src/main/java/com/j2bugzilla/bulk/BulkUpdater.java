@@ -0,0 +1,81 @@
+package com.j2bugzilla.bulk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.UpdateResult;
+import com.j2bugzilla.rpc.UpdateBugs;
+
+/**
+ * The {@code BulkUpdater} applies one set of changes to any number of bugs, splitting
+ * the ids into chunks of a bounded size and sending one {@link UpdateBugs} call per
+ * chunk. Each chunk is applied atomically by the installation, but the update as a
+ * whole is not: if a chunk fails, the chunks before it remain applied and are
+ * reported by the {@link BulkUpdateException}.
+ */
+public class BulkUpdater {
+
+    /**
+     * The number of bugs updated per call unless told otherwise, small enough to keep
+     * each transaction on the installation short
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final BugzillaConnector connector;
+
+    private final int chunkSize;
+
+    /**
+     * Creates a new {@link BulkUpdater} updating {@link #DEFAULT_CHUNK_SIZE} bugs per call
+     *
+     * @param connector The connector to send updates through
+     */
+    public BulkUpdater(final BugzillaConnector connector) {
+        this(connector, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new {@link BulkUpdater}
+     *
+     * @param connector The connector to send updates through
+     * @param chunkSize The most bugs to update per call
+     */
+    public BulkUpdater(final BugzillaConnector connector, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+        }
+        this.connector = connector;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Applies the changes to every bug.
+     *
+     * @param ids     The IDs of the bugs to update
+     * @param changes The {@code Bug.update} parameters to apply to every bug
+     * @return What was changed on each bug
+     * @throws BulkUpdateException If a chunk fails; earlier chunks remain applied
+     */
+    public List<UpdateResult> update(final Collection<Integer> ids, final Map<String, ?> changes)
+            throws BulkUpdateException {
+        final List<Integer> all = new ArrayList<Integer>(ids);
+        final List<UpdateResult> results = new ArrayList<UpdateResult>(all.size());
+        for (int from = 0; from < all.size(); from += chunkSize) {
+            final List<Integer> chunk = all.subList(from, Math.min(from + chunkSize, all.size()));
+            final UpdateBugs update = new UpdateBugs(chunk, changes);
+            try {
+                connector.executeMethod(update);
+            } catch (BugzillaException e) {
+                throw new BulkUpdateException("Updating bugs " + (from + 1) + " to " + (from + chunk.size())
+                        + " of " + all.size() + " failed", e, results,
+                        new ArrayList<Integer>(all.subList(from, all.size())));
+            }
+            results.addAll(update.getResults());
+        }
+        return results;
+    }
+}
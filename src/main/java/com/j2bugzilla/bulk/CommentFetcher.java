@@ -0,0 +1,136 @@
+package com.j2bugzilla.bulk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.Comment;
+import com.j2bugzilla.rpc.MultiBugComments;
+
+/**
+ * The {@code CommentFetcher} retrieves the comments of any number of bugs, splitting
+ * the ids into chunks of a bounded size and sending one {@link MultiBugComments} call
+ * per chunk.
+ * <p/>
+ * For keeping a local copy of comments up to date, {@link #fetchSince(Map)} takes a
+ * separate time for each bug and returns only the comments made after it. The
+ * installation takes a single time per call, so bugs are sorted by their time before
+ * being chunked, each call asks for the comments since the earliest time in its
+ * chunk, and comments a bug's own time excludes are dropped on arrival.
+ */
+public class CommentFetcher {
+
+    /**
+     * The number of bugs whose comments are retrieved per call unless told otherwise
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /**
+     * Orders times with null, meaning every comment, first
+     */
+    private static final Comparator<Map.Entry<Integer, Date>> BY_TIME = new Comparator<Map.Entry<Integer, Date>>() {
+        public int compare(final Map.Entry<Integer, Date> a, final Map.Entry<Integer, Date> b) {
+            if (a.getValue() == null) {
+                return b.getValue() == null ? 0 : -1;
+            }
+            return b.getValue() == null ? 1 : a.getValue().compareTo(b.getValue());
+        }
+    };
+
+    private final BugzillaConnector connector;
+
+    private final int chunkSize;
+
+    /**
+     * Creates a new {@link CommentFetcher} retrieving the comments of
+     * {@link #DEFAULT_CHUNK_SIZE} bugs per call
+     *
+     * @param connector The connector to retrieve comments through
+     */
+    public CommentFetcher(final BugzillaConnector connector) {
+        this(connector, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new {@link CommentFetcher}
+     *
+     * @param connector The connector to retrieve comments through
+     * @param chunkSize The most bugs whose comments are retrieved per call
+     */
+    public CommentFetcher(final BugzillaConnector connector, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+        }
+        this.connector = connector;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Retrieves every comment of the specified bugs.
+     *
+     * @param ids The IDs of the bugs to retrieve comments for
+     * @return A {@code Map} of every bug ID to its comments, oldest first
+     * @throws BugzillaException If a call fails
+     */
+    public Map<Integer, List<Comment>> fetch(final Collection<Integer> ids) throws BugzillaException {
+        final Map<Integer, Date> since = new LinkedHashMap<Integer, Date>();
+        for (final Integer id : ids) {
+            since.put(id, null);
+        }
+        return fetchSince(since);
+    }
+
+    /**
+     * Retrieves the comments made on each bug after the time given for it.
+     *
+     * @param since The time to retrieve comments after, by bug ID; a null time
+     *              retrieves every comment of that bug
+     * @return A {@code Map} of every bug ID to its new comments, oldest first
+     * @throws BugzillaException If a call fails
+     */
+    public Map<Integer, List<Comment>> fetchSince(final Map<Integer, Date> since) throws BugzillaException {
+        final List<Map.Entry<Integer, Date>> sorted = new ArrayList<Map.Entry<Integer, Date>>(since.entrySet());
+        Collections.sort(sorted, BY_TIME);
+
+        final Map<Integer, List<Comment>> comments = new LinkedHashMap<Integer, List<Comment>>();
+        for (final Integer id : since.keySet()) {
+            comments.put(id, new ArrayList<Comment>());
+        }
+        for (int from = 0; from < sorted.size(); from += chunkSize) {
+            final List<Map.Entry<Integer, Date>> chunk = sorted.subList(from, Math.min(from + chunkSize,
+                    sorted.size()));
+            final List<Integer> ids = new ArrayList<Integer>(chunk.size());
+            for (final Map.Entry<Integer, Date> entry : chunk) {
+                ids.add(entry.getKey());
+            }
+            final MultiBugComments call = new MultiBugComments(ids, chunk.get(0).getValue());
+            connector.executeMethod(call);
+
+            for (final Map.Entry<Integer, List<Comment>> entry : call.getComments().entrySet()) {
+                final List<Comment> list = comments.get(entry.getKey());
+                if (list == null) {
+                    continue;
+                }
+                list.addAll(entry.getValue());
+                final Date after = since.get(entry.getKey());
+                if (after != null) {
+                    for (final Iterator<Comment> it = list.iterator(); it.hasNext();) {
+                        final Date time = it.next().getTime();
+                        if (time != null && !time.after(after)) {
+                            it.remove();
+                        }
+                    }
+                }
+            }
+        }
+        return comments;
+    }
+}
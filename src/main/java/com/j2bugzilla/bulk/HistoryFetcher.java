@@ -0,0 +1,113 @@
+package com.j2bugzilla.bulk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.ChangeHistory;
+import com.j2bugzilla.rpc.BugHistory;
+
+/**
+ * The {@code HistoryFetcher} retrieves the change history of any number of bugs into
+ * a single {@link ChangeHistory}, splitting the ids into chunks of a bounded size and
+ * sending one {@link BugHistory} call per chunk.
+ * <p/>
+ * To keep analytics up to date, {@link #update(ChangeHistory, Collection)} retrieves
+ * only the changes made since the latest one held by an earlier history and merges
+ * them into it. Bugzilla only records change times to the second and returns the
+ * changes made strictly after the time given, so the update asks for the changes
+ * from one second before the latest one held, and the overlap is dropped by
+ * {@link ChangeHistory#merge(ChangeHistory)}.
+ */
+public class HistoryFetcher {
+
+    /**
+     * The number of bugs whose history is retrieved per call unless told otherwise
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /**
+     * How far before the latest change held an update starts, to catch the changes
+     * made in the same second
+     */
+    private static final long TIME_RESOLUTION = 1000;
+
+    private final BugzillaConnector connector;
+
+    private final int chunkSize;
+
+    /**
+     * Creates a new {@link HistoryFetcher} retrieving the history of
+     * {@link #DEFAULT_CHUNK_SIZE} bugs per call
+     *
+     * @param connector The connector to retrieve history through
+     */
+    public HistoryFetcher(final BugzillaConnector connector) {
+        this(connector, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new {@link HistoryFetcher}
+     *
+     * @param connector The connector to retrieve history through
+     * @param chunkSize The most bugs whose history is retrieved per call
+     */
+    public HistoryFetcher(final BugzillaConnector connector, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+        }
+        this.connector = connector;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Retrieves every change made to the specified bugs.
+     *
+     * @param ids The IDs of the bugs to retrieve the history of
+     * @return The changes, grouped by bug
+     * @throws BugzillaException If a call fails
+     */
+    public ChangeHistory fetch(final Collection<Integer> ids) throws BugzillaException {
+        return fetch(ids, null);
+    }
+
+    /**
+     * Retrieves the changes made to the specified bugs after a given time.
+     *
+     * @param ids   The IDs of the bugs to retrieve the history of
+     * @param since Only changes made strictly after this time are retrieved, or null
+     *              for every change
+     * @return The changes, grouped by bug
+     * @throws BugzillaException If a call fails
+     */
+    public ChangeHistory fetch(final Collection<Integer> ids, final Date since) throws BugzillaException {
+        final ChangeHistory history = new ChangeHistory();
+        // A bug's rows must be added together, so it may only appear in one chunk
+        final List<Integer> all = new ArrayList<Integer>(new LinkedHashSet<Integer>(ids));
+        for (int from = 0; from < all.size(); from += chunkSize) {
+            final List<Integer> chunk = all.subList(from, Math.min(from + chunkSize, all.size()));
+            connector.executeMethod(new BugHistory(chunk, since, history));
+        }
+        return history;
+    }
+
+    /**
+     * Retrieves the changes made to the specified bugs since the latest change held
+     * by a history, or every change if it holds none, and merges them into it.
+     *
+     * @param history The history to bring up to date
+     * @param ids     The IDs of the bugs to retrieve the history of
+     * @return The number of rows added to the history
+     * @throws BugzillaException If a call fails, in which case the history is
+     *                           unchanged
+     */
+    public int update(final ChangeHistory history, final Collection<Integer> ids) throws BugzillaException {
+        final long latest = history.getLatestTime();
+        final Date since = latest == Long.MIN_VALUE ? null : new Date(latest - TIME_RESOLUTION);
+        return history.merge(fetch(ids, since));
+    }
+}
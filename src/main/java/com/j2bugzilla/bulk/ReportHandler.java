@@ -0,0 +1,20 @@
+package com.j2bugzilla.bulk;
+
+import com.j2bugzilla.base.BugBase;
+
+/**
+ * A {@code ReportHandler} receives the outcome of each bug filed by a
+ * {@link BulkReporter}, in the order the bugs were supplied.
+ *
+ * @param <T> The type of bug filed
+ */
+public interface ReportHandler<T extends BugBase> {
+
+    /**
+     * Called once for every bug, on the thread which called
+     * {@link BulkReporter#report(Iterable, ReportHandler)}.
+     *
+     * @param result The outcome of filing the bug
+     */
+    void handleResult(ReportResult<T> result);
+}
@@ -0,0 +1,185 @@
+package com.j2bugzilla.bulk;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@code ReportJournal} records which bugs a {@link BulkReporter} has filed, keyed by
+ * their {@link ReportKey idempotency key}, in an append-only file. When an interrupted
+ * import is run again with the same journal, bugs it already filed are reported with
+ * their existing ID instead of being filed a second time.
+ * <p/>
+ * Every bug is journaled twice: once before it is sent, and once with its new ID after
+ * the installation has acknowledged it. Both records are forced to disk before the
+ * import moves on. A bug with only the first record may or may not have been filed,
+ * for instance if the process died while waiting for the response, so it is not filed
+ * again but reported as a fault until someone checks the installation and calls
+ * {@link #forget(String)}.
+ * <p/>
+ * A {@code ReportJournal} is not thread-safe, and a file must only be used by one
+ * journal at a time.
+ */
+public class ReportJournal implements Closeable {
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final char STARTED = 'S';
+
+    private static final char FILED = 'F';
+
+    private static final char FORGOTTEN = 'X';
+
+    private final FileOutputStream out;
+
+    /**
+     * The IDs of filed bugs, by key
+     */
+    private final Map<String, Integer> filed = new HashMap<String, Integer>();
+
+    /**
+     * The keys of bugs which were sent but never acknowledged
+     */
+    private final Set<String> started = new HashSet<String>();
+
+    /**
+     * Opens a journal, reading the records of earlier runs if the file exists.
+     *
+     * @param file The journal file, created if necessary
+     * @throws IOException If the file cannot be read or opened for writing
+     */
+    public ReportJournal(final File file) throws IOException {
+        final boolean torn = file.exists() && load(file);
+        out = new FileOutputStream(file, true);
+        if (torn) {
+            // Terminate the torn record so that it does not swallow the next one
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @param key An idempotency key
+     * @return The ID the bug with this key was filed as, or null if it was not filed
+     */
+    public Integer getID(final String key) {
+        return filed.get(key);
+    }
+
+    /**
+     * @param key An idempotency key
+     * @return true if the bug with this key was sent but its outcome is unknown
+     */
+    public boolean isInDoubt(final String key) {
+        return started.contains(key);
+    }
+
+    /**
+     * Forgets a bug, so that the next import files it again. Use this once a bug
+     * which is {@link #isInDoubt(String) in doubt} turns out not to exist.
+     *
+     * @param key An idempotency key
+     * @throws IOException If the journal cannot be written
+     */
+    public void forget(final String key) throws IOException {
+        append(FORGOTTEN, key, null);
+        filed.remove(key);
+        started.remove(key);
+    }
+
+    /**
+     * Records that a bug is about to be sent.
+     */
+    void started(final String key) throws IOException {
+        append(STARTED, key, null);
+        started.add(key);
+    }
+
+    /**
+     * Records that a bug has been filed.
+     */
+    void filed(final String key, final int id) throws IOException {
+        append(FILED, key, id);
+        started.remove(key);
+        filed.put(key, id);
+    }
+
+    /**
+     * Records that a bug was rejected by the installation, and so may be sent again.
+     */
+    void failed(final String key) throws IOException {
+        forget(key);
+    }
+
+    /**
+     * Closes the journal file.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void append(final char type, final String key, final Integer id) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        line.append(type).append(' ').append(URLEncoder.encode(key, ENCODING));
+        if (id != null) {
+            line.append(' ').append(id);
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(ENCODING));
+        out.getFD().sync();
+    }
+
+    /**
+     * Reads the records of earlier runs.
+     *
+     * @return true if the file ends with a record torn by a crash while it was written
+     */
+    private boolean load(final File file) throws IOException {
+        final byte[] content = new byte[(int) file.length()];
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        final String[] lines = new String(content, ENCODING).split("\n", -1);
+        // The last element follows the last newline, so it is either empty or torn
+        for (int i = 0; i < lines.length - 1; i++) {
+            final String[] parts = lines[i].split(" ");
+            if (parts.length < 2 || parts[0].length() != 1) {
+                continue;
+            }
+            try {
+                final String key = URLDecoder.decode(parts[1], ENCODING);
+                switch (parts[0].charAt(0)) {
+                    case STARTED:
+                        started.add(key);
+                        break;
+                    case FILED:
+                        filed.put(key, Integer.valueOf(parts[2]));
+                        started.remove(key);
+                        break;
+                    case FORGOTTEN:
+                        started.remove(key);
+                        filed.remove(key);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // Not a record written by this class; skip it
+            }
+        }
+        return lines[lines.length - 1].length() > 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.j2bugzilla.bulk;
+
+import com.j2bugzilla.base.BugBase;
+
+/**
+ * A {@code ReportKey} derives the idempotency key of a bug, which identifies it in a
+ * {@link ReportJournal} across runs of an import. Typically this is the ID of the bug
+ * in the tracker it is imported from.
+ *
+ * @param <T> The type of bug filed
+ */
+public interface ReportKey<T extends BugBase> {
+
+    /**
+     * @param bug A bug about to be filed
+     * @return The key identifying the bug, or null to file it without journaling
+     */
+    String getKey(T bug);
+}
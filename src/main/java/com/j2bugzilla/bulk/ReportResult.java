@@ -0,0 +1,72 @@
+package com.j2bugzilla.bulk;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugzillaException;
+
+/**
+ * The outcome of filing a single bug with a {@link BulkReporter}: either the ID of the
+ * new bug, or the fault which prevented it from being filed.
+ *
+ * @param <T> The type of bug filed
+ */
+public class ReportResult<T extends BugBase> {
+
+    private final T bug;
+
+    private final int id;
+
+    private final BugzillaException fault;
+
+    private final boolean journaled;
+
+    /**
+     * Creates a new {@link ReportResult}
+     *
+     * @param bug       The bug which was filed
+     * @param id        The ID of the new bug, or -1 if it was not filed
+     * @param fault     The reason the bug was not filed, or null
+     * @param journaled Whether the ID comes from an earlier run recorded in the journal
+     */
+    ReportResult(final T bug, final int id, final BugzillaException fault, final boolean journaled) {
+        this.bug = bug;
+        this.id = id;
+        this.fault = fault;
+        this.journaled = journaled;
+    }
+
+    /**
+     * @return The bug which was filed, as passed to the {@link BulkReporter}
+     */
+    public T getBug() {
+        return bug;
+    }
+
+    /**
+     * @return The ID of the new bug, or -1 if it could not be filed
+     */
+    public int getID() {
+        return id;
+    }
+
+    /**
+     * @return The reason the bug could not be filed, or null if it was
+     */
+    public BugzillaException getFault() {
+        return fault;
+    }
+
+    /**
+     * @return true if the bug has been filed, in this run or an earlier one
+     */
+    public boolean isFiled() {
+        return fault == null;
+    }
+
+    /**
+     * @return true if the bug was not filed again because the {@link ReportJournal}
+     *         shows an earlier run already filed it
+     */
+    public boolean isJournaled() {
+        return journaled;
+    }
+}
@@ -0,0 +1,255 @@
+package com.j2bugzilla.bulk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.Comment;
+import com.j2bugzilla.base.UpdateResult;
+
+/**
+ * A {@code UnitOfWork} collects changes to any number of bugs and sends them together
+ * on {@link #flush()}, instead of one {@link com.j2bugzilla.rpc.UpdateBug UpdateBug}
+ * and one {@link com.j2bugzilla.rpc.CommentBug CommentBug} call per change.
+ * <p/>
+ * Changes are collected in two ways. Bugs passed to {@link #register(BugBase)} are
+ * compared on flush with the state they had when registered, so that values changed
+ * through their setters are sent; other {@code Bug.update} parameters can be set
+ * explicitly with {@link #set(int, String, Object)}. XML-RPC cannot send null, so a
+ * tracked field cleared to null is sent as an empty string, which is how
+ * {@code Bug.update} clears a field. Comments are sent with the same
+ * call through its {@code comment} parameter. Bugs whose changes turn out identical,
+ * such as a set of bugs all being reassigned with the same comment, are updated
+ * together in a single call.
+ * <p/>
+ * A {@code UnitOfWork} is not thread-safe.
+ */
+public class UnitOfWork {
+
+    /**
+     * The fields compared between a registered bug and its snapshot, the same ones
+     * {@link com.j2bugzilla.rpc.UpdateBug UpdateBug} sends
+     */
+    private static final String[] TRACKED_FIELDS = {"alias", "assigned_to", "component", "op_sys", "platform",
+            "priority", "product", "status", "summary", "version"};
+
+    private final BulkUpdater updater;
+
+    /**
+     * The changes collected so far, by bug ID, in the order the bugs were first touched
+     */
+    private final Map<Integer, Pending> pending = new LinkedHashMap<Integer, Pending>();
+
+    /**
+     * Creates a new {@link UnitOfWork} with no changes
+     *
+     * @param connector The connector to send updates through
+     */
+    public UnitOfWork(final BugzillaConnector connector) {
+        this.updater = new BulkUpdater(connector);
+    }
+
+    /**
+     * Starts tracking a bug. Changes made through its setters from now on are sent
+     * on the next {@link #flush()}.
+     *
+     * @param bug A bug with an ID
+     */
+    public void register(final BugBase bug) {
+        if (bug.getID() == null) {
+            throw new IllegalArgumentException("Only bugs with an ID can be updated");
+        }
+        final Pending p = pending(bug.getID());
+        p.bug = bug;
+        p.snapshot = snapshot(bug);
+    }
+
+    /**
+     * Sets a {@code Bug.update} parameter for a bug.
+     *
+     * @param id    The ID of the bug to update
+     * @param field The name of the {@code Bug.update} parameter
+     * @param value Its new value, not null
+     */
+    public void set(final int id, final String field, final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot send a null " + field + " for bug " + id);
+        }
+        pending(id).fields.put(field, value);
+    }
+
+    /**
+     * Adds a comment to a bug. {@code Bug.update} takes a single comment, so several
+     * comments added to the same bug are sent as one, separated by blank lines.
+     *
+     * @param id   The ID of the bug to comment on
+     * @param text The text of the comment
+     */
+    public void addComment(final int id, final String text) {
+        final Pending p = pending(id);
+        if (p.comment == null) {
+            p.comment = new StringBuilder(text);
+        } else {
+            p.comment.append("\n\n").append(text);
+        }
+    }
+
+    /**
+     * Adds a comment to a bug, as for {@link #addComment(int, String)}.
+     *
+     * @param bug     The bug to comment on
+     * @param comment The comment to add
+     */
+    public void addComment(final BugBase bug, final Comment comment) {
+        addComment(bug.getID(), comment.getText());
+    }
+
+    /**
+     * @return true if flushing would send anything
+     */
+    public boolean hasChanges() {
+        for (final Pending p : pending.values()) {
+            if (!p.changes().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends every collected change, with one {@code Bug.update} call per distinct set
+     * of changes. Afterwards registered bugs stay registered, compared from now on
+     * with their current state, and every other change is forgotten.
+     *
+     * @return What was changed on each updated bug
+     * @throws BulkUpdateException If a call fails. The changes to the bugs it reports
+     *                             as remaining are kept, so flushing again retries them.
+     */
+    public List<UpdateResult> flush() throws BulkUpdateException {
+        final Map<Map<String, Object>, List<Integer>> groups = new LinkedHashMap<Map<String, Object>, List<Integer>>();
+        for (final Map.Entry<Integer, Pending> entry : pending.entrySet()) {
+            final Map<String, Object> changes = entry.getValue().changes();
+            if (changes.isEmpty()) {
+                continue;
+            }
+            List<Integer> ids = groups.get(changes);
+            if (ids == null) {
+                ids = new ArrayList<Integer>();
+                groups.put(changes, ids);
+            }
+            ids.add(entry.getKey());
+        }
+
+        final List<UpdateResult> results = new ArrayList<UpdateResult>();
+        final List<List<Integer>> todo = new ArrayList<List<Integer>>(groups.values());
+        int group = 0;
+        for (final Map.Entry<Map<String, Object>, List<Integer>> entry : groups.entrySet()) {
+            try {
+                results.addAll(updater.update(entry.getValue(), entry.getKey()));
+            } catch (BulkUpdateException e) {
+                final Set<Integer> failed = new HashSet<Integer>(e.getRemaining());
+                for (final Integer id : entry.getValue()) {
+                    if (!failed.contains(id)) {
+                        committed(id);
+                    }
+                }
+                results.addAll(e.getCompleted());
+                final List<Integer> remaining = new ArrayList<Integer>(e.getRemaining());
+                for (final List<Integer> ids : todo.subList(group + 1, todo.size())) {
+                    remaining.addAll(ids);
+                }
+                throw new BulkUpdateException(e.getMessage(), e, results, remaining);
+            }
+            for (final Integer id : entry.getValue()) {
+                committed(id);
+            }
+            group++;
+        }
+        return results;
+    }
+
+    /**
+     * Forgets every collected change and every registered bug.
+     */
+    public void clear() {
+        pending.clear();
+    }
+
+    private Pending pending(final int id) {
+        Pending p = pending.get(id);
+        if (p == null) {
+            p = new Pending();
+            pending.put(id, p);
+        }
+        return p;
+    }
+
+    private void committed(final Integer id) {
+        final Pending p = pending.get(id);
+        if (p.bug == null) {
+            pending.remove(id);
+        } else {
+            p.snapshot = snapshot(p.bug);
+            p.fields.clear();
+            p.comment = null;
+        }
+    }
+
+    private static Map<String, Object> snapshot(final BugBase bug) {
+        final Map<String, Object> state = bug.getInternalState();
+        final Map<String, Object> snapshot = new HashMap<String, Object>();
+        for (final String field : TRACKED_FIELDS) {
+            snapshot.put(field, state.get(field));
+        }
+        return snapshot;
+    }
+
+    /**
+     * The changes collected for a single bug.
+     */
+    private static class Pending {
+        /**
+         * The registered bug, or null if its changes were only set explicitly
+         */
+        BugBase bug;
+
+        /**
+         * The tracked fields of the registered bug when it was registered or last flushed
+         */
+        Map<String, Object> snapshot;
+
+        final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+
+        StringBuilder comment;
+
+        /**
+         * @return The {@code Bug.update} parameters to send for this bug
+         */
+        Map<String, Object> changes() {
+            final Map<String, Object> changes = new HashMap<String, Object>();
+            if (bug != null) {
+                final Map<String, Object> state = bug.getInternalState();
+                for (final String field : TRACKED_FIELDS) {
+                    final Object value = state.get(field);
+                    final Object old = snapshot.get(field);
+                    if (value == null ? old != null : !value.equals(old)) {
+                        changes.put(field, value == null ? "" : value);
+                    }
+                }
+            }
+            changes.putAll(fields);
+            if (comment != null) {
+                final Map<String, Object> c = new HashMap<String, Object>();
+                c.put("body", comment.toString());
+                changes.put("comment", c);
+            }
+            return changes;
+        }
+    }
+}
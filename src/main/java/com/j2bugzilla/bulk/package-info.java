@@ -0,0 +1,22 @@
+/**
+ * <p>This package performs bulk operations on a Bugzilla installation, built on
+ * the methods of {@link com.j2bugzilla.rpc}. A {@link com.j2bugzilla.bulk.BulkUpdater}
+ * applies one set of changes to any number of bugs in as few calls as possible, and a
+ * {@link com.j2bugzilla.bulk.UnitOfWork} collects field changes and comments to many
+ * bugs and sends them together. A {@link com.j2bugzilla.bulk.BulkReporter} files new
+ * bugs in parallel, optionally recording them in a
+ * {@link com.j2bugzilla.bulk.ReportJournal} so that a retried import never files a
+ * bug twice. A {@link com.j2bugzilla.bulk.CommentFetcher} retrieves the comments of
+ * many bugs, or only those made since each was last seen, and a
+ * {@link com.j2bugzilla.bulk.HistoryFetcher} retrieves their change history into a
+ * compact {@link com.j2bugzilla.base.ChangeHistory}.</p>
+ *
+ * <p>
+ * <code>
+ * Map&lt;String, Object&gt; changes = new HashMap&lt;String, Object&gt;();<br />
+ * changes.put("assigned_to", "triage@example.com");<br />
+ * List&lt;UpdateResult&gt; results = new BulkUpdater(conn).update(ids, changes);<br />
+ * </code>
+ * </p>
+ */
+package com.j2bugzilla.bulk;
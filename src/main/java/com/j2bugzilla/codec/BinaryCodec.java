@@ -0,0 +1,502 @@
+package com.j2bugzilla.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugField;
+import com.j2bugzilla.base.Comment;
+import com.j2bugzilla.base.Product;
+import com.j2bugzilla.base.factory.BugFactory;
+
+/**
+ * The {@code BinaryCodec} encodes snapshots of {@link BugBase bugs},
+ * {@link Product Products}, {@link BugField BugFields} and {@link Comment Comments}
+ * in a compact, versioned binary format, far smaller and faster to produce than
+ * Java serialization or JSON of their internal state.
+ * <p/>
+ * A record starts with a magic byte, the format {@link #VERSION} and the kind of
+ * object it holds. Integers, lengths and times are written as variable-length
+ * integers, small magnitudes taking a single byte. Strings are dictionary encoded:
+ * the keys and common values of Bugzilla's fields are known in advance and written
+ * as a one-byte code, and any other string is written once per record and referred
+ * to by a code wherever it occurs again, as users do in {@code cc} lists and flags.
+ * <p/>
+ * Records are written to and read from any {@link ByteBuffer}, heap or direct,
+ * starting at its position, and are independent of its byte order.
+ */
+public final class BinaryCodec {
+
+    /**
+     * The version of the format written by this class
+     */
+    public static final int VERSION = 1;
+
+    private static final byte MAGIC = (byte) 0xB2;
+
+    private static final byte BUG = 1;
+    private static final byte PRODUCT = 2;
+    private static final byte BUG_FIELD = 3;
+    private static final byte COMMENT = 4;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+    private static final byte DATE_SECONDS = 5;
+    private static final byte DATE_MILLIS = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte ARRAY = 8;
+    private static final byte MAP = 9;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The strings every record can refer to without writing them. Part of the
+     * format: entries may only ever be appended, together with a new version.
+     */
+    private static final String[] PRESET = {
+        // Bug fields
+        "id", "alias", "summary", "status", "resolution", "product", "component", "version", "priority",
+        "severity", "op_sys", "platform", "assigned_to", "creator", "qa_contact", "cc", "keywords", "blocks",
+        "depends_on", "creation_time", "last_change_time", "is_open", "is_confirmed", "is_cc_accessible",
+        "is_creator_accessible", "url", "whiteboard", "target_milestone", "classification", "dupe_of", "groups",
+        "flags", "see_also", "deadline", "estimated_time", "remaining_time", "actual_time", "setter",
+        "requestee", "type_id", "creation_date", "modification_date", "assigned_to_detail", "creator_detail",
+        "qa_contact_detail", "cc_detail", "real_name", "email",
+        // Product, field and comment fields
+        "name", "description", "is_active", "versions", "components", "milestones", "releases",
+        "default_assigned_to", "default_qa_contact", "default_milestone", "sort_key", "sortkey",
+        "display_name", "is_mandatory", "is_custom", "type", "values", "visibility_field",
+        "visibility_values", "value_field", "is_on_bug_entry", "can_change_to", "is_visible", "text", "time",
+        "bug_id", "attachment_id", "is_private", "count", "author",
+        // Common values
+        "", "---", "NEW", "UNCONFIRMED", "CONFIRMED", "ASSIGNED", "IN_PROGRESS", "REOPENED", "RESOLVED",
+        "VERIFIED", "CLOSED", "FIXED", "INVALID", "WONTFIX", "DUPLICATE", "WORKSFORME", "MOVED",
+        "NOTABUG", "CURRENTRELEASE", "UPSTREAM", "unspecified", "Unspecified", "All", "Linux", "Windows",
+        "Mac OS", "Other", "PC", "x86_64", "P1", "P2", "P3", "P4", "P5", "blocker", "critical", "major",
+        "normal", "minor", "trivial", "enhancement", "urgent", "high", "medium", "low", "+", "-", "?",
+    };
+
+    private static final Map<String, Integer> PRESET_CODES = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < PRESET.length; i++) {
+            PRESET_CODES.put(PRESET[i], i);
+        }
+    }
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private BinaryCodec() {
+    }
+
+    /**
+     * Encodes a bug.
+     *
+     * @param bug The bug to encode
+     * @param out The buffer to write the record to, from its position
+     * @throws BufferOverflowException If the record does not fit in the buffer
+     */
+    public static void encode(final BugBase bug, final ByteBuffer out) {
+        encodeState(BUG, bug.getInternalState(), out);
+    }
+
+    /**
+     * Encodes a {@link Product}.
+     *
+     * @param product The product to encode
+     * @param out     The buffer to write the record to, from its position
+     * @throws BufferOverflowException If the record does not fit in the buffer
+     */
+    public static void encode(final Product product, final ByteBuffer out) {
+        encodeState(PRODUCT, product.getInternalState(), out);
+    }
+
+    /**
+     * Encodes a {@link BugField}.
+     *
+     * @param field The field to encode
+     * @param out   The buffer to write the record to, from its position
+     * @throws BufferOverflowException If the record does not fit in the buffer
+     */
+    public static void encode(final BugField field, final ByteBuffer out) {
+        encodeState(BUG_FIELD, field.getInternalState(), out);
+    }
+
+    /**
+     * Encodes a {@link Comment}.
+     *
+     * @param comment The comment to encode
+     * @param out     The buffer to write the record to, from its position
+     * @throws BufferOverflowException If the record does not fit in the buffer
+     */
+    public static void encode(final Comment comment, final ByteBuffer out) {
+        final Encoder encoder = new Encoder(out, COMMENT);
+        encoder.varint(zigzag(comment.getID()));
+        encoder.string(comment.getText());
+        encoder.value(comment.getTime());
+    }
+
+    /**
+     * Encodes a bug into a new heap buffer.
+     *
+     * @param bug The bug to encode
+     * @return A buffer holding the record between its position and limit
+     */
+    public static ByteBuffer encode(final BugBase bug) {
+        return encodeState(BUG, bug.getInternalState());
+    }
+
+    /**
+     * Encodes a {@link Product} into a new heap buffer.
+     *
+     * @param product The product to encode
+     * @return A buffer holding the record between its position and limit
+     */
+    public static ByteBuffer encode(final Product product) {
+        return encodeState(PRODUCT, product.getInternalState());
+    }
+
+    /**
+     * Encodes a {@link BugField} into a new heap buffer.
+     *
+     * @param field The field to encode
+     * @return A buffer holding the record between its position and limit
+     */
+    public static ByteBuffer encode(final BugField field) {
+        return encodeState(BUG_FIELD, field.getInternalState());
+    }
+
+    /**
+     * Encodes a {@link Comment} into a new heap buffer.
+     *
+     * @param comment The comment to encode
+     * @return A buffer holding the record between its position and limit
+     */
+    public static ByteBuffer encode(final Comment comment) {
+        int capacity = 64 + (comment.getText() == null ? 0 : comment.getText().length() * 3);
+        while (true) {
+            final ByteBuffer out = ByteBuffer.allocate(capacity);
+            try {
+                encode(comment, out);
+                out.flip();
+                return out;
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * Decodes the internal state of a bug, {@link Product} or {@link BugField}.
+     *
+     * @param in The buffer to read the record from, from its position; afterwards
+     *           positioned after the record
+     * @return The decoded state
+     * @throws IllegalArgumentException If the buffer does not hold such a record
+     */
+    public static Map<String, Object> decodeState(final ByteBuffer in) {
+        final Decoder decoder = new Decoder(in);
+        if (decoder.kind == COMMENT) {
+            throw new IllegalArgumentException("Expected a bug, product or field record, found a comment");
+        }
+        return decoder.state();
+    }
+
+    /**
+     * Decodes a bug.
+     *
+     * @param in       The buffer to read the record from, from its position
+     * @param bugClass The type of bug to create
+     * @param <T>      The type of bug to create
+     * @return The decoded bug
+     * @throws InstantiationException If the bug class cannot be instantiated
+     * @throws IllegalAccessException If the bug class has no accessible constructor
+     */
+    public static <T extends BugBase> T decodeBug(final ByteBuffer in, final Class<T> bugClass)
+            throws InstantiationException, IllegalAccessException {
+        return new BugFactory<T>(bugClass).createBug(new Decoder(in).expect(BUG).state());
+    }
+
+    /**
+     * Decodes a {@link Product}.
+     *
+     * @param in The buffer to read the record from, from its position
+     * @return The decoded product
+     */
+    public static Product decodeProduct(final ByteBuffer in) {
+        return new Product(new Decoder(in).expect(PRODUCT).state());
+    }
+
+    /**
+     * Decodes a {@link BugField}.
+     *
+     * @param in The buffer to read the record from, from its position
+     * @return The decoded field
+     */
+    public static BugField decodeBugField(final ByteBuffer in) {
+        return new BugField(new Decoder(in).expect(BUG_FIELD).state());
+    }
+
+    /**
+     * Decodes a {@link Comment}.
+     *
+     * @param in The buffer to read the record from, from its position
+     * @return The decoded comment
+     */
+    public static Comment decodeComment(final ByteBuffer in) {
+        final Decoder decoder = new Decoder(in).expect(COMMENT);
+        final int id = unzigzag(decoder.varint());
+        final String text = decoder.string();
+        return new Comment(id, text, (Date) decoder.value());
+    }
+
+    private static void encodeState(final byte kind, final Map<String, Object> state, final ByteBuffer out) {
+        final Encoder encoder = new Encoder(out, kind);
+        encoder.varint(state.size());
+        for (final Map.Entry<String, Object> entry : state.entrySet()) {
+            encoder.string(entry.getKey());
+            encoder.value(entry.getValue());
+        }
+    }
+
+    private static ByteBuffer encodeState(final byte kind, final Map<String, Object> state) {
+        int capacity = 256 + state.size() * 16;
+        while (true) {
+            final ByteBuffer out = ByteBuffer.allocate(capacity);
+            try {
+                encodeState(kind, state, out);
+                out.flip();
+                return out;
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    private static long zigzag(final long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static int unzigzag(final long n) {
+        return (int) ((n >>> 1) ^ -(n & 1));
+    }
+
+    /**
+     * Writes a single record, holding the dictionary of the strings written so far.
+     */
+    private static class Encoder {
+        private final ByteBuffer out;
+
+        private Map<String, Integer> dictionary;
+
+        Encoder(final ByteBuffer out, final byte kind) {
+            this.out = out;
+            out.put(MAGIC);
+            varint(VERSION);
+            out.put(kind);
+        }
+
+        void value(final Object value) {
+            if (value == null) {
+                out.put(NULL);
+            } else if (value instanceof String) {
+                out.put(STRING);
+                string((String) value);
+            } else if (value instanceof Integer) {
+                out.put(INTEGER);
+                varint(zigzag((Integer) value));
+            } else if (value instanceof Boolean) {
+                out.put((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Date) {
+                final long time = ((Date) value).getTime();
+                // XML-RPC times have no milliseconds, so most fit in five bytes
+                if (time % 1000 == 0) {
+                    out.put(DATE_SECONDS);
+                    varint(zigzag(time / 1000));
+                } else {
+                    out.put(DATE_MILLIS);
+                    varint(zigzag(time));
+                }
+            } else if (value instanceof Double) {
+                out.put(DOUBLE);
+                final long bits = Double.doubleToLongBits((Double) value);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.put((byte) (bits >>> shift));
+                }
+            } else if (value instanceof Object[]) {
+                final Object[] array = (Object[]) value;
+                out.put(ARRAY);
+                varint(array.length);
+                for (final Object element : array) {
+                    value(element);
+                }
+            } else if (value instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>) value;
+                out.put(MAP);
+                varint(map.size());
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    string(entry.getKey().toString());
+                    value(entry.getValue());
+                }
+            } else {
+                throw new IllegalArgumentException("Cannot encode a value of " + value.getClass());
+            }
+        }
+
+        /**
+         * Writes a string as its code plus one, or as zero followed by its length
+         * and UTF-8 bytes the first time it occurs in the record.
+         */
+        void string(final String s) {
+            if (s == null) {
+                throw new IllegalArgumentException("Cannot encode a null string");
+            }
+            Integer code = PRESET_CODES.get(s);
+            if (code == null && dictionary != null) {
+                code = dictionary.get(s);
+            }
+            if (code != null) {
+                varint(code + 1);
+                return;
+            }
+            if (dictionary == null) {
+                dictionary = new HashMap<String, Integer>();
+            }
+            dictionary.put(s, PRESET.length + dictionary.size());
+            final byte[] bytes = s.getBytes(UTF8);
+            varint(0);
+            varint(bytes.length);
+            out.put(bytes);
+        }
+
+        void varint(final long value) {
+            long v = value;
+            while ((v & ~0x7FL) != 0) {
+                out.put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.put((byte) v);
+        }
+    }
+
+    /**
+     * Reads a single record, collecting the strings defined so far.
+     */
+    private static class Decoder {
+        private final ByteBuffer in;
+
+        private final byte kind;
+
+        private final List<String> dictionary = new ArrayList<String>();
+
+        Decoder(final ByteBuffer in) {
+            this.in = in;
+            if (in.get() != MAGIC) {
+                throw new IllegalArgumentException("Not a record written by " + BinaryCodec.class.getSimpleName());
+            }
+            final long version = varint();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported record version " + version);
+            }
+            kind = in.get();
+        }
+
+        Decoder expect(final byte expected) {
+            if (kind != expected) {
+                throw new IllegalArgumentException("Expected a record of kind " + expected + ", found " + kind);
+            }
+            return this;
+        }
+
+        Map<String, Object> state() {
+            final int size = (int) varint();
+            final Map<String, Object> state = new HashMap<String, Object>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                final String key = string();
+                state.put(key, value());
+            }
+            return state;
+        }
+
+        Object value() {
+            final byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return string();
+                case INTEGER:
+                    return unzigzag(varint());
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case DATE_SECONDS:
+                    return new Date(unzigzagLong(varint()) * 1000);
+                case DATE_MILLIS:
+                    return new Date(unzigzagLong(varint()));
+                case DOUBLE:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (in.get() & 0xFF);
+                    }
+                    return Double.longBitsToDouble(bits);
+                case ARRAY:
+                    final Object[] array = new Object[(int) varint()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = value();
+                    }
+                    return array;
+                case MAP:
+                    final int size = (int) varint();
+                    final Map<Object, Object> map = new HashMap<Object, Object>(size * 4 / 3 + 1);
+                    for (int i = 0; i < size; i++) {
+                        final String key = string();
+                        map.put(key, value());
+                    }
+                    return map;
+                default:
+                    throw new IllegalArgumentException("Unknown value tag " + tag);
+            }
+        }
+
+        String string() {
+            final int code = (int) varint();
+            if (code > 0) {
+                final int index = code - 1;
+                return index < PRESET.length ? PRESET[index] : dictionary.get(index - PRESET.length);
+            }
+            final byte[] bytes = new byte[(int) varint()];
+            in.get(bytes);
+            final String s = new String(bytes, UTF8);
+            dictionary.add(s);
+            return s;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed variable-length integer");
+        }
+
+        private static long unzigzagLong(final long n) {
+            return (n >>> 1) ^ -(n & 1);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * <p>This package encodes snapshots of the objects retrieved from a Bugzilla
+ * installation in compact binary records, for keeping them in files, caches or
+ * off-heap buffers. The {@link com.j2bugzilla.codec.BinaryCodec} writes bugs,
+ * products, fields and comments to any {@link java.nio.ByteBuffer} and reads them
+ * back.</p>
+ *
+ * <p>
+ * <code>
+ * ByteBuffer record = BinaryCodec.encode(bug);<br />
+ * Bug copy = BinaryCodec.decodeBug(record, Bug.class);<br />
+ * </code>
+ * </p>
+ */
+package com.j2bugzilla.codec;
@@ -0,0 +1,242 @@
+package com.j2bugzilla.metrics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code BugzillaMetrics} class is an optional registry of client-side
+ * statistics for a {@link com.j2bugzilla.base.BugzillaConnector}. Once set on a
+ * connector via {@link com.j2bugzilla.base.BugzillaConnector#setMetrics(BugzillaMetrics)
+ * setMetrics()}, it records call counts, latencies, faults by code, bytes
+ * transferred and the number of requests in flight.
+ * <p/>
+ * Every counter is an atomic, so recording never takes a lock and the
+ * {@link PrometheusExporter} can read a snapshot at any time without stalling the
+ * request path. Other components such as caches may publish their own values
+ * through {@link #registerGauge(String, String, Gauge)}, and their own counts
+ * through {@link #registerCounter(String, String, Gauge)}.
+ */
+public class BugzillaMetrics {
+
+    /**
+     * Passed as the fault code for calls that completed successfully
+     */
+    public static final int NO_FAULT = Integer.MIN_VALUE;
+
+    /**
+     * Passed as the fault code for calls that failed without an XML-RPC fault code,
+     * for example because of a runtime exception while decoding the response
+     */
+    public static final int UNKNOWN_FAULT = -1;
+
+    private static final String GAUGE = "gauge";
+
+    private static final String COUNTER = "counter";
+
+    /**
+     * Per-method metrics, created on first use
+     */
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<String, MethodMetrics>();
+
+    /**
+     * Gauges and counters registered by other components
+     */
+    private final List<GaugeRegistration> gauges = new CopyOnWriteArrayList<GaugeRegistration>();
+
+    /**
+     * The number of request body bytes written to the installation
+     */
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * The number of response body bytes read from the installation
+     */
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * The number of calls currently executing
+     */
+    private final AtomicLong inFlight = new AtomicLong();
+
+    /**
+     * Marks the start of a call. Every call to this method must be paired with a
+     * call to {@link #callFinished(String, long, int)}.
+     *
+     * @return A start timestamp to pass back to {@code callFinished}
+     */
+    public long callStarted() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a call started with {@link #callStarted()}.
+     *
+     * @param methodName The XML-RPC method that was called
+     * @param startNanos The value returned by {@code callStarted()}
+     * @param faultCode  The fault code returned by Bugzilla, {@link #NO_FAULT} if the
+     *                   call succeeded, or {@link #UNKNOWN_FAULT}
+     */
+    public void callFinished(final String methodName, final long startNanos, final int faultCode) {
+        final long elapsed = System.nanoTime() - startNanos;
+        inFlight.decrementAndGet();
+        getMethodMetrics(methodName).record(elapsed, faultCode);
+    }
+
+    /**
+     * Returns the metrics for the given method, creating them if needed.
+     *
+     * @param methodName The XML-RPC method name
+     * @return The {@link MethodMetrics} for that method
+     */
+    public MethodMetrics getMethodMetrics(final String methodName) {
+        MethodMetrics result = methods.get(methodName);
+        if (result == null) {
+            final MethodMetrics created = new MethodMetrics(methodName);
+            result = methods.putIfAbsent(methodName, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A read-only view of the metrics recorded for each method
+     */
+    public Collection<MethodMetrics> getAllMethodMetrics() {
+        return Collections.unmodifiableCollection(methods.values());
+    }
+
+    /**
+     * Adds to the count of request bytes sent.
+     *
+     * @param bytes The number of bytes written
+     */
+    public void addBytesSent(final long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    /**
+     * Adds to the count of response bytes received.
+     *
+     * @param bytes The number of bytes read
+     */
+    public void addBytesReceived(final long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    /**
+     * Wraps a request stream so that every byte written to it is counted.
+     *
+     * @param out The stream the request is written to
+     * @return A stream that counts and forwards to {@code out}
+     */
+    public OutputStream countSent(final OutputStream out) {
+        return new CountingOutputStream(out, bytesSent);
+    }
+
+    /**
+     * Wraps a response stream so that every byte read from it is counted.
+     *
+     * @param in The stream the response is read from
+     * @return A stream that counts and forwards to {@code in}
+     */
+    public InputStream countReceived(final InputStream in) {
+        return new CountingInputStream(in, bytesReceived);
+    }
+
+    /**
+     * @return The number of request bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return The number of response bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return The number of calls currently executing
+     */
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Registers a gauge to be included in exported metrics. The name should follow
+     * the Prometheus naming conventions, for example
+     * {@code bugzilla_search_cache_entries}, and must not be registered already.
+     *
+     * @param name  The metric name
+     * @param help  A one-line description of the metric
+     * @param gauge The source of the value
+     * @throws IllegalArgumentException If a metric of that name is already
+     *                                  registered
+     */
+    public void registerGauge(final String name, final String help, final Gauge gauge) {
+        register(new GaugeRegistration(name, help, GAUGE, gauge));
+    }
+
+    /**
+     * Registers a counter to be included in exported metrics, for a value which
+     * only ever grows, such as a number of cache hits. The name should end in
+     * {@code _total}, for example {@code bugzilla_search_cache_hits_total}, and must
+     * not be registered already.
+     *
+     * @param name    The metric name
+     * @param help    A one-line description of the metric
+     * @param counter The source of the value
+     * @throws IllegalArgumentException If a metric of that name is already
+     *                                  registered
+     */
+    public void registerCounter(final String name, final String help, final Gauge counter) {
+        register(new GaugeRegistration(name, help, COUNTER, counter));
+    }
+
+    private synchronized void register(final GaugeRegistration added) {
+        for (final GaugeRegistration registration : gauges) {
+            if (registration.name.equals(added.name)) {
+                throw new IllegalArgumentException("Metric " + added.name + " is already registered");
+            }
+        }
+        gauges.add(added);
+    }
+
+    /**
+     * @return A snapshot of the registered gauges and counters
+     */
+    List<GaugeRegistration> getGauges() {
+        return new ArrayList<GaugeRegistration>(gauges);
+    }
+
+    /**
+     * A named {@link Gauge} with its help text and Prometheus type, {@code gauge} or
+     * {@code counter}.
+     */
+    static final class GaugeRegistration {
+        final String name;
+        final String help;
+        final String type;
+        final Gauge gauge;
+
+        GaugeRegistration(final String name, final String help, final String type, final Gauge gauge) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.gauge = gauge;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.j2bugzilla.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@code InputStream} which adds the number of bytes read to a shared
+ * counter.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private final AtomicLong counter;
+
+    CountingInputStream(final InputStream in, final AtomicLong counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = in.read();
+        if (b != -1) {
+            counter.incrementAndGet();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int n = in.read(b, off, len);
+        if (n > 0) {
+            counter.addAndGet(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = in.skip(n);
+        if (skipped > 0) {
+            counter.addAndGet(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
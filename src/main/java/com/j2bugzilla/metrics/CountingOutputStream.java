@@ -0,0 +1,32 @@
+package com.j2bugzilla.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@code OutputStream} which adds the number of bytes written to a shared
+ * counter.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    private final AtomicLong counter;
+
+    CountingOutputStream(final OutputStream out, final AtomicLong counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        out.write(b);
+        counter.incrementAndGet();
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+        counter.addAndGet(len);
+    }
+}
@@ -0,0 +1,14 @@
+package com.j2bugzilla.metrics;
+
+/**
+ * A {@code Gauge} reports a value that is sampled at scrape time rather than
+ * accumulated, such as the number of entries held in a cache. Implementations
+ * are called from the exporter thread and must not block.
+ */
+public interface Gauge {
+
+    /**
+     * @return The current value of this gauge
+     */
+    double getValue();
+}
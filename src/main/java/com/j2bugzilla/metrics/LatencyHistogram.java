@@ -0,0 +1,79 @@
+package com.j2bugzilla.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code LatencyHistogram} class records call durations into a fixed set of
+ * buckets. Recording and reading are both lock-free, so a scrape never blocks a
+ * request thread; a snapshot taken while calls are completing may be off by the
+ * calls in flight, which is the same guarantee other Prometheus clients give.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The upper bounds of each bucket, in seconds. These match the default buckets
+     * used by the Prometheus client libraries.
+     */
+    static final double[] BUCKET_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0};
+
+    /**
+     * The {@link #BUCKET_BOUNDS} converted to nanoseconds, so that recording does not
+     * need any floating point arithmetic.
+     */
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS[i] * 1000000000L);
+        }
+    }
+
+    /**
+     * Non-cumulative counts for each bucket. The last slot holds observations larger
+     * than the biggest bound.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    /**
+     * The total of all observed durations, in nanoseconds.
+     */
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * Records a single observation.
+     *
+     * @param nanos The duration of the call in nanoseconds
+     */
+    public void observe(final long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Returns the cumulative bucket counts, as Prometheus expects them. The last
+     * element is the {@code +Inf} bucket and therefore the total observation count.
+     *
+     * @return An array one element longer than {@link #BUCKET_BOUNDS}
+     */
+    public long[] getCumulativeCounts() {
+        final long[] cumulative = new long[counts.length()];
+        long running = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            running += counts.get(i);
+            cumulative[i] = running;
+        }
+        return cumulative;
+    }
+
+    /**
+     * @return The total of all observed durations, in seconds
+     */
+    public double getSumSeconds() {
+        return sumNanos.get() / 1e9;
+    }
+}
@@ -0,0 +1,93 @@
+package com.j2bugzilla.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the counters recorded for a single XML-RPC method, such as
+ * {@code Bug.get} or {@code Bug.search}.
+ */
+public class MethodMetrics {
+
+    /**
+     * The name of the XML-RPC method these metrics describe
+     */
+    private final String methodName;
+
+    /**
+     * The number of calls that have completed, whether or not they succeeded
+     */
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * The duration of every completed call
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * The number of faults returned, keyed by the Bugzilla fault code
+     */
+    private final ConcurrentMap<Integer, AtomicLong> faults = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    /**
+     * Creates a new, empty {@link MethodMetrics}
+     *
+     * @param methodName The XML-RPC method name
+     */
+    MethodMetrics(final String methodName) {
+        this.methodName = methodName;
+    }
+
+    /**
+     * Records a completed call.
+     *
+     * @param nanos     The duration of the call
+     * @param faultCode The fault code returned, or {@link BugzillaMetrics#NO_FAULT}
+     */
+    void record(final long nanos, final int faultCode) {
+        calls.incrementAndGet();
+        latency.observe(nanos);
+        if (faultCode != BugzillaMetrics.NO_FAULT) {
+            AtomicLong counter = faults.get(faultCode);
+            if (counter == null) {
+                final AtomicLong created = new AtomicLong();
+                counter = faults.putIfAbsent(faultCode, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The XML-RPC method name
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * @return The number of completed calls
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return The latency histogram for this method
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return A read-only view of the fault counts, keyed by fault code
+     */
+    public Map<Integer, AtomicLong> getFaults() {
+        return Collections.unmodifiableMap(faults);
+    }
+}
@@ -0,0 +1,188 @@
+package com.j2bugzilla.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The {@code PrometheusExporter} renders a {@link BugzillaMetrics} registry in the
+ * Prometheus text exposition format (version 0.0.4). The output can be obtained as
+ * a {@code String} with {@link #render()}, or served over HTTP by calling
+ * {@link #start(InetSocketAddress)}, which uses the {@code com.sun.net.httpserver}
+ * server bundled with the JDK so no extra dependency is needed.
+ * <p/>
+ * Rendering only reads atomic counters and never blocks the threads recording
+ * them.
+ */
+public class PrometheusExporter {
+
+    /**
+     * The content type Prometheus expects for the text format
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The registry to export
+     */
+    private final BugzillaMetrics metrics;
+
+    /**
+     * The embedded server, if {@link #start(InetSocketAddress)} has been called
+     */
+    private HttpServer server;
+
+    /**
+     * Creates a new {@link PrometheusExporter} for the given registry
+     *
+     * @param metrics The registry to export
+     */
+    public PrometheusExporter(final BugzillaMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Renders the current metrics in the Prometheus text format.
+     *
+     * @return The metrics as a {@code String}
+     */
+    public String render() {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        } catch (IOException e) {
+            // StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the current metrics in the Prometheus text format.
+     *
+     * @param writer The destination
+     * @throws IOException If the destination cannot be written to
+     */
+    public void writeTo(final Writer writer) throws IOException {
+        final Collection<MethodMetrics> methods = new ArrayList<MethodMetrics>(metrics.getAllMethodMetrics());
+
+        writeHeader(writer, "bugzilla_client_calls_total", "Completed XML-RPC calls by method", "counter");
+        for (final MethodMetrics m : methods) {
+            writeSample(writer, "bugzilla_client_calls_total", "method", m.getMethodName(), m.getCalls());
+        }
+
+        writeHeader(writer, "bugzilla_client_call_duration_seconds", "XML-RPC call latency by method", "histogram");
+        for (final MethodMetrics m : methods) {
+            final String method = escape(m.getMethodName());
+            final long[] cumulative = m.getLatency().getCumulativeCounts();
+            for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS.length; i++) {
+                writer.write("bugzilla_client_call_duration_seconds_bucket{method=\"" + method + "\",le=\""
+                        + LatencyHistogram.BUCKET_BOUNDS[i] + "\"} " + cumulative[i] + "\n");
+            }
+            final long count = cumulative[cumulative.length - 1];
+            writer.write("bugzilla_client_call_duration_seconds_bucket{method=\"" + method + "\",le=\"+Inf\"} " + count + "\n");
+            writer.write("bugzilla_client_call_duration_seconds_sum{method=\"" + method + "\"} "
+                    + formatDouble(m.getLatency().getSumSeconds()) + "\n");
+            writer.write("bugzilla_client_call_duration_seconds_count{method=\"" + method + "\"} " + count + "\n");
+        }
+
+        writeHeader(writer, "bugzilla_client_faults_total", "Faults returned by the installation, by method and fault code",
+                "counter");
+        for (final MethodMetrics m : methods) {
+            final String method = escape(m.getMethodName());
+            for (final Map.Entry<Integer, AtomicLong> fault : m.getFaults().entrySet()) {
+                writer.write("bugzilla_client_faults_total{method=\"" + method + "\",code=\"" + fault.getKey() + "\"} "
+                        + fault.getValue().get() + "\n");
+            }
+        }
+
+        writeHeader(writer, "bugzilla_client_sent_bytes_total", "Request bytes written to the installation", "counter");
+        writer.write("bugzilla_client_sent_bytes_total " + metrics.getBytesSent() + "\n");
+
+        writeHeader(writer, "bugzilla_client_received_bytes_total", "Response bytes read from the installation", "counter");
+        writer.write("bugzilla_client_received_bytes_total " + metrics.getBytesReceived() + "\n");
+
+        writeHeader(writer, "bugzilla_client_in_flight_requests", "XML-RPC calls currently executing", "gauge");
+        writer.write("bugzilla_client_in_flight_requests " + metrics.getInFlight() + "\n");
+
+        final List<BugzillaMetrics.GaugeRegistration> gauges = metrics.getGauges();
+        for (final BugzillaMetrics.GaugeRegistration g : gauges) {
+            writeHeader(writer, g.name, g.help, g.type);
+            writer.write(g.name + " " + formatDouble(g.gauge.getValue()) + "\n");
+        }
+    }
+
+    /**
+     * Starts an HTTP server which serves the metrics at {@code /metrics}.
+     *
+     * @param address The address to listen on
+     * @throws IOException If the server cannot be bound
+     */
+    public synchronized void start(final InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Exporter is already running!");
+        }
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                final byte[] body = render().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops the HTTP server started by {@link #start(InetSocketAddress)}, if any.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private static void writeHeader(final Writer writer, final String name, final String help, final String type)
+            throws IOException {
+        writer.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void writeSample(final Writer writer, final String name, final String label, final String labelValue,
+            final long value) throws IOException {
+        writer.write(name + "{" + label + "=\"" + escape(labelValue) + "\"} " + value + "\n");
+    }
+
+    /**
+     * Escapes a label value as required by the text format.
+     */
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String formatDouble(final double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+}
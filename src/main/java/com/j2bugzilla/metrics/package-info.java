@@ -0,0 +1,17 @@
+/**
+ * <p>This package provides optional client-side metrics for a
+ * {@link com.j2bugzilla.base.BugzillaConnector}. A {@link com.j2bugzilla.metrics.BugzillaMetrics}
+ * registry records call counts, latency histograms, faults by code, bytes
+ * transferred and in-flight requests, and a
+ * {@link com.j2bugzilla.metrics.PrometheusExporter} renders them in the Prometheus
+ * text format.</p>
+ *
+ * <p>
+ * <code>
+ * BugzillaMetrics metrics = new BugzillaMetrics();<br />
+ * conn.setMetrics(metrics);<br />
+ * new PrometheusExporter(metrics).start(new InetSocketAddress(9404));<br />
+ * </code>
+ * </p>
+ */
+package com.j2bugzilla.metrics;
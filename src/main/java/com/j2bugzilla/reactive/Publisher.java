@@ -0,0 +1,22 @@
+package com.j2bugzilla.reactive;
+
+/**
+ * A {@code Publisher} produces items for any number of {@link Subscriber Subscribers},
+ * each of which receives them at its own pace. This interface has the same shape and
+ * contract as {@code java.util.concurrent.Flow.Publisher} and
+ * {@code org.reactivestreams.Publisher}, so adapting it to either takes a one-line
+ * wrapper.
+ *
+ * @param <T> The type of item published
+ */
+public interface Publisher<T> {
+
+    /**
+     * Adds a subscriber. {@link Subscriber#onSubscribe(Subscription)} is called
+     * before any other signal, and nothing is published until the subscriber
+     * requests items through the {@link Subscription} it receives.
+     *
+     * @param subscriber The subscriber to receive items
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
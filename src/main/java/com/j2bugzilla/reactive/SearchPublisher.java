@@ -0,0 +1,294 @@
+package com.j2bugzilla.reactive;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugHandler;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.rpc.BugSearch;
+
+/**
+ * Publishes the results of a {@link BugSearch} a page at a time, fetching pages only
+ * as subscribers ask for more bugs. Pages are requested with the {@link BugSearch#LIMIT}
+ * and {@link BugSearch#OFFSET} parameters, ordered by bug ID so that they do not
+ * shift between requests. The installation may return fewer bugs per page than asked
+ * for, when the page size exceeds its {@code max_search_results}, so the results
+ * only end at the first empty page.
+ * <p/>
+ * Every subscriber runs its own search. Pages are fetched on the given
+ * {@link Executor}, and each bug is queued for the subscriber as soon as it has been
+ * decoded; the subscriber is signalled by a separate task on the same executor, so
+ * with two or more threads decoding overlaps downstream processing. At most one page
+ * is fetched at a time, and the next one is only started while the subscriber's
+ * outstanding demand exceeds the bugs already queued. Cancelling a subscription
+ * abandons the page being read and stops further fetches.
+ *
+ * @param <T> The type of bug published
+ */
+public class SearchPublisher<T extends BugBase> implements Publisher<T> {
+
+    private static final String ORDER = "order";
+
+    private static final String BUG_ID = "bug_id";
+
+    private final BugzillaConnector connector;
+
+    private final Class<T> bugClass;
+
+    private final int pageSize;
+
+    private final Executor executor;
+
+    /**
+     * The search limits, copied into the {@link BugSearch} for every page
+     */
+    private final Map<String, Object> query = new LinkedHashMap<String, Object>();
+
+    /**
+     * Creates a new {@link SearchPublisher}
+     *
+     * @param connector The connector to search through
+     * @param bugClass  The type of bug to create
+     * @param pageSize  The number of bugs fetched per request
+     * @param executor  Runs page fetches and subscriber signals
+     */
+    public SearchPublisher(final BugzillaConnector connector, final Class<T> bugClass, final int pageSize,
+            final Executor executor) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive, was " + pageSize);
+        }
+        this.connector = connector;
+        this.bugClass = bugClass;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Add a search limit, as for {@link BugSearch#addQueryParam(String, Object)}. Only
+     * affects subscribers added afterwards.
+     *
+     * @param limit What dimension to search bugs by in the Bugzilla installation
+     * @param value What to match fields against
+     */
+    public void addQueryParam(final String limit, final Object value) {
+        query.put(limit, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        new SearchSubscription(subscriber, new LinkedHashMap<String, Object>(query)).start();
+    }
+
+    /**
+     * The state of a single subscriber. Signals are only ever emitted by the drain
+     * task, of which at most one runs at a time.
+     */
+    private class SearchSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super T> subscriber;
+
+        private final Map<String, Object> query;
+
+        /**
+         * Decoded bugs not yet passed to the subscriber
+         */
+        private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<T>();
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        /**
+         * The total demand signalled so far, saturating at {@code Long.MAX_VALUE}
+         */
+        private final AtomicLong requested = new AtomicLong();
+
+        /**
+         * Counts pending drain requests; the one moving it away from zero runs the drain
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+
+        /**
+         * The number of bugs passed to the subscriber, only used by the drain task
+         */
+        private long emitted;
+
+        /**
+         * The offset of the next page, only changed by the fetch task
+         */
+        private volatile int offset;
+
+        private volatile boolean fetching;
+
+        /**
+         * Whether the last page has been fetched
+         */
+        private volatile boolean exhausted;
+
+        private volatile boolean cancelled;
+
+        private volatile Throwable error;
+
+        SearchSubscription(final Subscriber<? super T> subscriber, final Map<String, Object> query) {
+            this.subscriber = subscriber;
+            this.query = query;
+        }
+
+        void start() {
+            // Holds off the drain task until onSubscribe has returned
+            wip.set(1);
+            try {
+                subscriber.onSubscribe(this);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+            if (wip.get() == 1 && wip.compareAndSet(1, 0)) {
+                return;
+            }
+            executor.execute(this);
+        }
+
+        public void request(final long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " items, must be positive"));
+                return;
+            }
+            for (;;) {
+                final long r = requested.get();
+                if (r == Long.MAX_VALUE) {
+                    break;
+                }
+                final long u = r + n < 0 ? Long.MAX_VALUE : r + n;
+                if (requested.compareAndSet(r, u)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void fail(final Throwable t) {
+            if (error == null) {
+                error = t;
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        /**
+         * The drain task, passing queued bugs to the subscriber and starting fetches.
+         */
+        public void run() {
+            int missed = 1;
+            for (;;) {
+                if (cancelled) {
+                    clear();
+                    return;
+                }
+                if (error != null) {
+                    cancelled = true;
+                    clear();
+                    subscriber.onError(error);
+                    return;
+                }
+
+                final long r = requested.get();
+                while (emitted != r && !cancelled) {
+                    final T bug = queue.poll();
+                    if (bug == null) {
+                        break;
+                    }
+                    queued.decrementAndGet();
+                    emitted++;
+                    try {
+                        subscriber.onNext(bug);
+                    } catch (RuntimeException e) {
+                        fail(e);
+                    }
+                }
+
+                if (!cancelled && error == null && !fetching) {
+                    if (exhausted && queue.isEmpty()) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (!exhausted && queued.get() < requested.get() - emitted) {
+                        fetching = true;
+                        executor.execute(new Fetch());
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void clear() {
+            queue.clear();
+            queued.set(0);
+        }
+
+        /**
+         * Fetches the next page, queueing each bug as it is decoded.
+         */
+        private class Fetch implements Runnable, BugHandler<T> {
+            private int count;
+
+            public void run() {
+                final BugSearch<T> search = new BugSearch<T>(bugClass);
+                for (final Map.Entry<String, Object> entry : query.entrySet()) {
+                    search.addQueryParam(entry.getKey(), entry.getValue());
+                }
+                search.addQueryParam(ORDER, BUG_ID);
+                search.addQueryParam(BugSearch.LIMIT, pageSize);
+                search.addQueryParam(BugSearch.OFFSET, offset);
+                search.setBugHandler(this);
+                try {
+                    connector.executeMethod(search);
+                } catch (BugzillaException e) {
+                    if (!cancelled && error == null) {
+                        error = e;
+                    }
+                } catch (RuntimeException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+                offset += count;
+                if (count == 0) {
+                    exhausted = true;
+                }
+                fetching = false;
+                drain();
+            }
+
+            public void handleBug(final T bug) throws BugzillaException {
+                if (cancelled || error != null) {
+                    throw new BugzillaException("Subscription cancelled");
+                }
+                count++;
+                queue.offer(bug);
+                queued.incrementAndGet();
+                drain();
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.j2bugzilla.reactive;
+
+/**
+ * A {@code Subscriber} receives the items of a {@link Publisher}, never more than it
+ * has requested. Its methods are called one at a time, never concurrently, though not
+ * necessarily on the same thread.
+ *
+ * @param <T> The type of item received
+ */
+public interface Subscriber<T> {
+
+    /**
+     * Called once, before any other method.
+     *
+     * @param subscription The subscription used to request items or cancel
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called for each item, in order.
+     *
+     * @param item The next item
+     */
+    void onNext(T item);
+
+    /**
+     * Called at most once if publishing failed. No other method is called afterwards.
+     *
+     * @param throwable The cause of the failure
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called at most once when every item has been published. No other method is
+     * called afterwards.
+     */
+    void onComplete();
+}
@@ -0,0 +1,22 @@
+package com.j2bugzilla.reactive;
+
+/**
+ * Links a {@link Subscriber} to a {@link Publisher}, and carries the subscriber's
+ * demand back to the publisher.
+ */
+public interface Subscription {
+
+    /**
+     * Asks for up to {@code n} more items. Demand accumulates across calls, and
+     * {@code Long.MAX_VALUE} means unbounded. A non-positive {@code n} fails the
+     * subscription with an {@link IllegalArgumentException}.
+     *
+     * @param n The number of additional items wanted
+     */
+    void request(long n);
+
+    /**
+     * Stops publishing to the subscriber. Items already under way may still arrive.
+     */
+    void cancel();
+}
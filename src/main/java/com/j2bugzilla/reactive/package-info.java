@@ -0,0 +1,18 @@
+/**
+ * <p>This package publishes search results to reactive consumers with
+ * backpressure. The {@link com.j2bugzilla.reactive.Publisher},
+ * {@link com.j2bugzilla.reactive.Subscriber} and
+ * {@link com.j2bugzilla.reactive.Subscription} interfaces mirror
+ * {@code java.util.concurrent.Flow} and Reactive Streams, which this library cannot
+ * depend on, and a {@link com.j2bugzilla.reactive.SearchPublisher} fetches pages of
+ * a search only as its subscribers request more bugs.</p>
+ *
+ * <p>
+ * <code>
+ * SearchPublisher&lt;ECSBug&gt; bugs = new SearchPublisher&lt;ECSBug&gt;(conn, ECSBug.class, 500, executor);<br />
+ * bugs.addQueryParam(BugSearch.PRODUCT, "PressGang CCMS");<br />
+ * bugs.subscribe(subscriber);<br />
+ * </code>
+ * </p>
+ */
+package com.j2bugzilla.reactive;
@@ -0,0 +1,114 @@
+package com.j2bugzilla.rpc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.j2bugzilla.base.BinaryData;
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugzillaMethod;
+
+/**
+ * The {@code AddAttachment} class attaches a file to an existing {@link Bug}. The
+ * data is given as {@link BinaryData}, which is read and encoded while the request
+ * is sent, so files of any size can be attached without holding them in memory.
+ */
+public class AddAttachment implements BugzillaMethod {
+
+    /**
+     * The XML-RPC method Bugzilla will use
+     */
+    private static final String METHOD_NAME = "Bug.add_attachment";
+
+    private final Map<Object, Object> params = new HashMap<Object, Object>();
+
+    private Map<Object, Object> hash = new HashMap<Object, Object>();
+
+    /**
+     * Creates a new {@link AddAttachment} object
+     *
+     * @param bug         The {@link Bug} to attach the file to
+     * @param data        The data of the file
+     * @param fileName    The file name to show
+     * @param summary     A short description of the file
+     * @param contentType The MIME type of the file
+     */
+    public AddAttachment(final BugBase bug, final BinaryData data, final String fileName, final String summary,
+            final String contentType) {
+        this(bug.getID(), data, fileName, summary, contentType);
+    }
+
+    /**
+     * Creates a new {@link AddAttachment} object
+     *
+     * @param id          The ID of the {@link Bug} to attach the file to
+     * @param data        The data of the file
+     * @param fileName    The file name to show
+     * @param summary     A short description of the file
+     * @param contentType The MIME type of the file
+     */
+    public AddAttachment(final int id, final BinaryData data, final String fileName, final String summary,
+            final String contentType) {
+        params.put("ids", new Object[]{id});
+        params.put("data", data);
+        params.put("file_name", fileName);
+        params.put("summary", summary);
+        params.put("content_type", contentType);
+    }
+
+    /**
+     * @param comment A comment to add along with the attachment
+     */
+    public void setComment(final String comment) {
+        params.put("comment", comment);
+    }
+
+    /**
+     * @param patch Whether the attachment is a patch, in which case its content type
+     *              is ignored
+     */
+    public void setPatch(final boolean patch) {
+        params.put("is_patch", patch);
+    }
+
+    /**
+     * @param isPrivate Whether the attachment is only visible to the insider group
+     */
+    public void setPrivate(final boolean isPrivate) {
+        params.put("is_private", isPrivate);
+    }
+
+    /**
+     * Returns the ID of the new attachment
+     *
+     * @return The ID of the attachment, or -1 if the installation did not return one
+     */
+    public int getAttachmentID() {
+        final Object[] ids = (Object[]) hash.get("ids");
+        if (ids == null || ids.length == 0) {
+            return -1;
+        }
+        return (Integer) ids[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setResultMap(final Map<Object, Object> hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Object, Object> getParameterMap() {
+        return params;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMethodName() {
+        return METHOD_NAME;
+    }
+}
@@ -0,0 +1,119 @@
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Attachment;
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugzillaMethod;
+
+/**
+ * The {@code BugAttachments} class retrieves the metadata of every {@link Attachment}
+ * of a {@link Bug}, without their data. The data of an attachment is retrieved
+ * separately with {@link GetAttachment}.
+ */
+public class BugAttachments implements BugzillaMethod {
+
+    /**
+     * The XML-RPC method Bugzilla will use
+     */
+    private static final String METHOD_NAME = "Bug.attachments";
+
+    private final Map<Object, Object> params = new HashMap<Object, Object>();
+
+    private final int id;
+
+    private List<Attachment> attachments = Collections.emptyList();
+
+    /**
+     * Creates a new {@link BugAttachments} object for the specified {@link Bug}
+     *
+     * @param bug A {@link Bug} to retrieve attachments for
+     */
+    public BugAttachments(final BugBase bug) {
+        this(bug.getID());
+    }
+
+    /**
+     * Creates a new {@link BugAttachments} object for the specified {@link Bug} ID
+     *
+     * @param id The ID of the {@link Bug} to retrieve attachments for
+     */
+    public BugAttachments(final int id) {
+        this.id = id;
+        params.put("ids", new Object[]{id});
+        params.put("exclude_fields", new Object[]{"data"});
+    }
+
+    /**
+     * @return The {@link Attachment Attachments} of the {@link Bug}, oldest first
+     */
+    public List<Attachment> getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void setResultMap(final Map<Object, Object> hash) {
+        final Map<Object, Object> bugs = (Map<Object, Object>) hash.get("bugs");
+        final Object[] array = bugs == null ? null : (Object[]) bugs.get(String.valueOf(id));
+        if (array == null) {
+            attachments = Collections.emptyList();
+            return;
+        }
+        attachments = new ArrayList<Attachment>(array.length);
+        for (final Object o : array) {
+            attachments.add(parseAttachment((Map<Object, Object>) o, -1));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Object, Object> getParameterMap() {
+        return params;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMethodName() {
+        return METHOD_NAME;
+    }
+
+    /**
+     * Reads an attachment struct of a {@code Bug.attachments} response.
+     *
+     * @param attachment The struct
+     * @param size       The size of its data if it is not in the struct, or -1
+     * @return The {@link Attachment} it describes
+     */
+    static Attachment parseAttachment(final Map<Object, Object> attachment, final long size) {
+        // Bugzilla 4.4 renamed "attacher" to "creator", and only reports the size from 4.4 on
+        String creator = (String) attachment.get("creator");
+        if (creator == null) {
+            creator = (String) attachment.get("attacher");
+        }
+        final Object reported = attachment.get("size");
+        return new Attachment((Integer) attachment.get("id"), (Integer) attachment.get("bug_id"),
+                (String) attachment.get("file_name"), (String) attachment.get("summary"),
+                (String) attachment.get("content_type"),
+                reported instanceof Integer ? ((Integer) reported).longValue() : size, creator,
+                (Date) attachment.get("creation_time"), isSet(attachment.get("is_patch")),
+                isSet(attachment.get("is_obsolete")), isSet(attachment.get("is_private")));
+    }
+
+    /**
+     * Bugzilla reports these flags as booleans or as 0 and 1, depending on the version.
+     */
+    private static boolean isSet(final Object flag) {
+        return Boolean.TRUE.equals(flag) || Integer.valueOf(1).equals(flag);
+    }
+}
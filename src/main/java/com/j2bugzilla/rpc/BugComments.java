@@ -13,7 +13,8 @@ import com.j2bugzilla.base.Comment;
 /**
  * This class allows clients to request a list of all public {@link Comment
  * Comments} made on a specific {@link Bug} in a Bugzilla installation. The
- * {@link Bug} must already exist in the installation.
+ * {@link Bug} must already exist in the installation. To retrieve the comments
+ * of several bugs at once, use {@link MultiBugComments}.
  *
  * @author Tom
  */
@@ -73,8 +74,8 @@ public class BugComments implements BugzillaMethod {
             /*
 			 * Hideous, but it's the structure of the XML that Bugzilla returns.
 			 * Since it's designed to return comments for multiple bugs at a
-			 * time, there's extra nesting we don't need. TODO Allow requests
-			 * for lists of Bugs
+			 * time, there's extra nesting we don't need; MultiBugComments
+			 * handles lists of Bugs
 			 */
             @SuppressWarnings("unchecked")
             final Map<String, Map<String, Map<Object, Object>[]>> m = (Map<String, Map<String, Map<Object, Object>[]>>) hash.get("bugs");
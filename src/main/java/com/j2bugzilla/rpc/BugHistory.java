@@ -0,0 +1,126 @@
+package com.j2bugzilla.rpc;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.ChangeHistory;
+import com.j2bugzilla.base.StreamingBugzillaMethod;
+
+/**
+ * The {@code BugHistory} class retrieves the changes made to the fields of many
+ * {@link Bug Bugs} in a single {@code Bug.history} call. Each bug's history is
+ * decoded into a {@link ChangeHistory} as soon as it has been read, rather than
+ * after the whole response, so that only one bug's history is held as maps at a
+ * time.
+ * <p/>
+ * Given a time, only changes made after it are kept. Installations from Bugzilla 5.0
+ * on only return those changes; older ones return every change and the rest are
+ * dropped as they are read. Very large id lists are better split into several calls,
+ * which {@link com.j2bugzilla.bulk.HistoryFetcher HistoryFetcher} does automatically.
+ */
+public class BugHistory implements StreamingBugzillaMethod {
+
+    /**
+     * The XML-RPC method Bugzilla will use
+     */
+    private static final String METHOD_NAME = "Bug.history";
+
+    private final Map<Object, Object> params = new HashMap<Object, Object>();
+
+    private final ChangeHistory history;
+
+    private final long since;
+
+    /**
+     * Creates a new {@link BugHistory} object retrieving every change to the
+     * specified bugs
+     *
+     * @param ids     The IDs of the bugs to retrieve the history of
+     * @param history The {@link ChangeHistory} to add the changes to
+     */
+    public BugHistory(final Collection<Integer> ids, final ChangeHistory history) {
+        this(ids, null, history);
+    }
+
+    /**
+     * Creates a new {@link BugHistory} object retrieving the changes made to the
+     * specified bugs after a given time
+     *
+     * @param ids      The IDs of the bugs to retrieve the history of
+     * @param newSince Only changes made after this time are retrieved, or null for
+     *                 every change
+     * @param history  The {@link ChangeHistory} to add the changes to
+     */
+    public BugHistory(final Collection<Integer> ids, final Date newSince, final ChangeHistory history) {
+        this.history = history;
+        this.since = newSince == null ? Long.MIN_VALUE : newSince.getTime();
+        params.put("ids", ids.toArray());
+        if (newSince != null) {
+            params.put("new_since", newSince);
+        }
+    }
+
+    /**
+     * @return The {@link ChangeHistory} the changes were added to
+     */
+    public ChangeHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getStreamedMember() {
+        return "bugs";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void handleStreamedElement(final Map<Object, Object> element) throws BugzillaException {
+        final int id = (Integer) element.get("id");
+        final Object[] changeSets = (Object[]) element.get("history");
+        if (changeSets == null) {
+            return;
+        }
+        for (final Object o : changeSets) {
+            final Map<Object, Object> changeSet = (Map<Object, Object>) o;
+            final Date when = (Date) changeSet.get("when");
+            if (when.getTime() <= since) {
+                continue;
+            }
+            final String who = (String) changeSet.get("who");
+            for (final Object c : (Object[]) changeSet.get("changes")) {
+                final Map<Object, Object> change = (Map<Object, Object>) c;
+                history.add(id, when, who, (String) change.get("field_name"), (String) change.get("removed"),
+                        (String) change.get("added"));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setResultMap(final Map<Object, Object> hash) {
+        // Every member but the streamed bugs is ignored
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Object, Object> getParameterMap() {
+        return params;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMethodName() {
+        return METHOD_NAME;
+    }
+}
@@ -7,16 +7,23 @@ import java.util.Map;
 
 import com.j2bugzilla.base.Bug;
 import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugHandler;
+import com.j2bugzilla.base.BugzillaException;
 import com.j2bugzilla.base.factory.BugFactory;
-import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.StreamingBugzillaMethod;
 
 /**
  * This class provides convenience methods for searching for {@link Bug Bugs} on
  * your installation.
+ * <p/>
+ * Large searches can set a {@link BugHandler} with
+ * {@link #setBugHandler(BugHandler)}, in which case each {@link Bug} is handed
+ * over as soon as it has been read from the response instead of being collected
+ * into the {@code List} returned by {@link #getSearchResults()}.
  *
  * @author Tom
  */
-public class BugSearch<T extends BugBase> implements BugzillaMethod {
+public class BugSearch<T extends BugBase> implements StreamingBugzillaMethod {
     private Class<T> bugClass;
 
     /**
@@ -80,6 +87,22 @@ public class BugSearch<T extends BugBase> implements BugzillaMethod {
      */
     public static final String ALIAS = "alias";
 
+    /**
+     * The maximum number of bugs to return
+     */
+    public static final String LIMIT = "limit";
+
+    /**
+     * The number of matching bugs to skip, used together with {@link #LIMIT} to
+     * fetch results a page at a time
+     */
+    public static final String OFFSET = "offset";
+
+    /**
+     * Matches bugs changed at or after the given {@code Date}
+     */
+    public static final String LAST_CHANGE_TIME = "last_change_time";
+
     /**
      * The method Bugzilla will execute via XML-RPC
      */
@@ -96,6 +119,11 @@ public class BugSearch<T extends BugBase> implements BugzillaMethod {
      */
     private final Map<Object, Object> params = new HashMap<Object, Object>();
 
+    /**
+     * Receives each {@link Bug} as it is decoded, if set.
+     */
+    private BugHandler<T> handler;
+
     /**
      * Creates a new {@link BugSearch} object
      */
@@ -152,7 +180,7 @@ public class BugSearch<T extends BugBase> implements BugzillaMethod {
 
             for (final Object o : bugs) {
                 @SuppressWarnings("unchecked")
-                final Map<String, Object> bugMap = (HashMap<String, Object>) o;
+                final Map<String, Object> bugMap = (Map<String, Object>) o;
                 final T bug = new BugFactory<T>(bugClass).createBug(bugMap);
                 results.add(bug);
             }
@@ -160,6 +188,43 @@ public class BugSearch<T extends BugBase> implements BugzillaMethod {
         return results;
     }
 
+    /**
+     * Streams the results of this search to the given {@link BugHandler}. Each
+     * {@link Bug} is passed to the handler while the response is still being read,
+     * so memory use is bounded by the size of a single bug rather than the whole
+     * result set. When a handler is set, {@link #getSearchResults()} returns an
+     * empty {@code List}.
+     *
+     * @param handler A {@code BugHandler} to receive each matching bug, or null to
+     *                collect the results as usual
+     */
+    public void setBugHandler(final BugHandler<T> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getStreamedMember() {
+        return handler == null ? null : "bugs";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void handleStreamedElement(final Map<Object, Object> element) throws BugzillaException {
+        final T bug;
+        try {
+            bug = new BugFactory<T>(bugClass).createBug((Map<String, Object>) (Map<?, ?>) element);
+        } catch (InstantiationException e) {
+            throw new BugzillaException("Unable to create bug", e);
+        } catch (IllegalAccessException e) {
+            throw new BugzillaException("Unable to create bug", e);
+        }
+        handler.handleBug(bug);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,86 @@
+package com.j2bugzilla.rpc;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.j2bugzilla.base.Attachment;
+import com.j2bugzilla.base.BinaryResponseMethod;
+
+/**
+ * The {@code GetAttachment} class retrieves a single {@link Attachment}, writing its
+ * data to a channel while the response is read. The data is never held in memory
+ * as a whole, so attachments of any size can be retrieved.
+ */
+public class GetAttachment implements BinaryResponseMethod {
+
+    /**
+     * The XML-RPC method Bugzilla will use
+     */
+    private static final String METHOD_NAME = "Bug.attachments";
+
+    private final Map<Object, Object> params = new HashMap<Object, Object>();
+
+    private final int id;
+
+    private final WritableByteChannel target;
+
+    private Attachment attachment;
+
+    /**
+     * Creates a new {@link GetAttachment} object
+     *
+     * @param id     The ID of the attachment to retrieve
+     * @param target The channel to write its data to; it is not closed
+     */
+    public GetAttachment(final int id, final WritableByteChannel target) {
+        this.id = id;
+        this.target = target;
+        params.put("attachment_ids", new Object[]{id});
+    }
+
+    /**
+     * @return The metadata of the retrieved {@link Attachment}, or null if the
+     *         installation did not return it
+     */
+    public Attachment getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public WritableByteChannel getBinaryTarget() {
+        return target;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void setResultMap(final Map<Object, Object> hash) {
+        final Map<Object, Object> attachments = (Map<Object, Object>) hash.get("attachments");
+        final Map<Object, Object> a = attachments == null ? null
+                : (Map<Object, Object>) attachments.get(String.valueOf(id));
+        if (a == null) {
+            attachment = null;
+            return;
+        }
+        final Object written = a.get("data");
+        attachment = BugAttachments.parseAttachment(a, written instanceof Long ? (Long) written : -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Object, Object> getParameterMap() {
+        return params;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMethodName() {
+        return METHOD_NAME;
+    }
+}
@@ -76,7 +76,7 @@ public class GetBug<T extends BugBase> implements BugzillaMethod {
             }
 
             for (Object o : bugs) {
-                @SuppressWarnings("unchecked") Map<String, Object> bugMap = (HashMap<String, Object>) o;
+                @SuppressWarnings("unchecked") Map<String, Object> bugMap = (Map<String, Object>) o;
 
                 if (!bugMap.containsKey("version")) {
                     // version required for bugs, but older versions of Bugzilla
@@ -77,7 +77,7 @@ public class GetProduct implements BugzillaMethod {
 
             for (Object o : products) {
                 @SuppressWarnings("unchecked")
-                Map<String, Object> productMap = (HashMap<String, Object>) o;
+                Map<String, Object> productMap = (Map<String, Object>) o;
                 result = new ProductFactory().createProduct(productMap);
             }
         }
@@ -0,0 +1,122 @@
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.Comment;
+
+/**
+ * The {@code MultiBugComments} class retrieves the public {@link Comment Comments} of
+ * many {@link Bug Bugs} in a single {@code Bug.comments} call. Given a time, only the
+ * comments made after it are returned, so that a client which already holds the
+ * older comments only transfers the new ones.
+ * <p/>
+ * The installation accepts a single such time per call. To fetch each bug's comments
+ * since a different time, and to split very large id lists into several calls, use
+ * {@link com.j2bugzilla.bulk.CommentFetcher CommentFetcher}.
+ */
+public class MultiBugComments implements BugzillaMethod {
+
+    /**
+     * The XML-RPC method Bugzilla will use
+     */
+    private static final String METHOD_NAME = "Bug.comments";
+
+    private final Map<Object, Object> params = new HashMap<Object, Object>();
+
+    private Map<Integer, List<Comment>> comments = Collections.emptyMap();
+
+    /**
+     * Creates a new {@link MultiBugComments} object retrieving every comment of the
+     * specified bugs
+     *
+     * @param ids The IDs of the bugs to retrieve comments for
+     */
+    public MultiBugComments(final Collection<Integer> ids) {
+        this(ids, null);
+    }
+
+    /**
+     * Creates a new {@link MultiBugComments} object retrieving the comments made on
+     * the specified bugs after a given time
+     *
+     * @param ids      The IDs of the bugs to retrieve comments for
+     * @param newSince Only comments made after this time are retrieved, or null for
+     *                 every comment
+     */
+    public MultiBugComments(final Collection<Integer> ids, final Date newSince) {
+        params.put("ids", ids.toArray());
+        if (newSince != null) {
+            params.put("new_since", newSince);
+        }
+    }
+
+    /**
+     * Returns the comments retrieved, by bug ID. Every requested bug has an entry,
+     * empty if it has no comments to return.
+     *
+     * @return A {@code Map} of bug IDs to their {@link Comment Comments}, oldest first
+     */
+    public Map<Integer, List<Comment>> getComments() {
+        return comments;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setResultMap(final Map<Object, Object> hash) {
+        comments = parseComments(hash);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Object, Object> getParameterMap() {
+        return params;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMethodName() {
+        return METHOD_NAME;
+    }
+
+    /**
+     * Reads the {@code bugs} map of a {@code Bug.comments} response, which is keyed
+     * by bug ID and holds each bug's {@code comments} array.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<Integer, List<Comment>> parseComments(final Map<Object, Object> hash) {
+        final Map<Object, Object> bugs = (Map<Object, Object>) hash.get("bugs");
+        if (bugs == null) {
+            return Collections.emptyMap();
+        }
+        final Map<Integer, List<Comment>> parsed = new LinkedHashMap<Integer, List<Comment>>();
+        for (final Map.Entry<Object, Object> entry : bugs.entrySet()) {
+            final Object[] array = (Object[]) ((Map<Object, Object>) entry.getValue()).get("comments");
+            final List<Comment> list = new ArrayList<Comment>(array == null ? 0 : array.length);
+            if (array != null) {
+                for (final Object o : array) {
+                    final Map<Object, Object> comment = (Map<Object, Object>) o;
+                    // Bugzilla 4.4 renamed "time" to "creation_time", keeping the old name as well
+                    Date time = (Date) comment.get("creation_time");
+                    if (time == null) {
+                        time = (Date) comment.get("time");
+                    }
+                    list.add(new Comment((Integer) comment.get("id"), (String) comment.get("text"), time));
+                }
+            }
+            parsed.put(Integer.valueOf(entry.getKey().toString()), list);
+        }
+        return parsed;
+    }
+}
@@ -9,8 +9,8 @@ import com.j2bugzilla.base.BugzillaMethod;
 
 /**
  * The {@code UpdateBug} class allows clients to update an existing {@link Bug}
- * on the installation with new values. Currently, this method only allows one
- * bug at a time to be updated.
+ * on the installation with new values. This method updates one bug at a time;
+ * to apply the same changes to many bugs, use {@link UpdateBugs}.
  *
  * @author Tom
  */
@@ -0,0 +1,111 @@
+package com.j2bugzilla.rpc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.Bug;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.UpdateResult;
+
+/**
+ * The {@code UpdateBugs} class applies one set of changes to many {@link Bug Bugs}
+ * in a single {@code Bug.update} call, for instance to reassign every bug of a
+ * component or close out a milestone. The installation applies the changes in one
+ * transaction, so either every bug is updated or none is.
+ * <p/>
+ * The changes are given as {@code Bug.update} parameters, such as
+ * {@code "assigned_to"} or {@code "status"}. Very large id lists are better split
+ * into several calls, which {@link com.j2bugzilla.bulk.BulkUpdater BulkUpdater}
+ * does automatically.
+ */
+public class UpdateBugs implements BugzillaMethod {
+
+    /**
+     * The method name for this webservice operation.
+     */
+    private static final String METHOD_NAME = "Bug.update";
+
+    private final Map<Object, Object> params = new HashMap<Object, Object>();
+
+    private List<UpdateResult> results = Collections.emptyList();
+
+    /**
+     * Creates a new {@link UpdateBugs} object to submit to the Bugzilla webservice.
+     *
+     * @param ids     The IDs of the bugs to update
+     * @param changes The {@code Bug.update} parameters to apply to every bug
+     */
+    public UpdateBugs(final Collection<Integer> ids, final Map<String, ?> changes) {
+        params.putAll(changes);
+        params.put("ids", ids.toArray());
+    }
+
+    /**
+     * Returns what was changed on each bug, in the order the installation reported
+     * them.
+     *
+     * @return A {@code List} of {@link UpdateResult UpdateResults}, one per bug
+     */
+    public List<UpdateResult> getResults() {
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setResultMap(final Map<Object, Object> hash) {
+        results = parseResults(hash);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Object, Object> getParameterMap() {
+        return params;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getMethodName() {
+        return METHOD_NAME;
+    }
+
+    /**
+     * Reads the {@code bugs} array of a {@code Bug.update} response.
+     *
+     * @param hash The response
+     * @return An {@link UpdateResult} for each bug in the response
+     */
+    @SuppressWarnings("unchecked")
+    static List<UpdateResult> parseResults(final Map<Object, Object> hash) {
+        final Object[] bugs = (Object[]) hash.get("bugs");
+        if (bugs == null) {
+            return Collections.emptyList();
+        }
+        final List<UpdateResult> parsed = new ArrayList<UpdateResult>(bugs.length);
+        for (final Object o : bugs) {
+            final Map<Object, Object> bug = (Map<Object, Object>) o;
+            final Map<String, UpdateResult.FieldChange> changes = new LinkedHashMap<String, UpdateResult.FieldChange>();
+            final Map<Object, Object> changed = (Map<Object, Object>) bug.get("changes");
+            if (changed != null) {
+                for (final Map.Entry<Object, Object> entry : changed.entrySet()) {
+                    final Map<Object, Object> change = (Map<Object, Object>) entry.getValue();
+                    changes.put(entry.getKey().toString(), new UpdateResult.FieldChange(
+                            (String) change.get("added"), (String) change.get("removed")));
+                }
+            }
+            final Object alias = bug.get("alias");
+            parsed.add(new UpdateResult((Integer) bug.get("id"),
+                    alias instanceof String && ((String) alias).length() > 0 ? (String) alias : null,
+                    (Date) bug.get("last_change_time"), changes));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,310 @@
+package com.j2bugzilla.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugBase;
+
+/**
+ * A {@code BugIndex} maintains secondary indexes over a local set of bugs, such as
+ * a {@link BugSync} replica or a {@link MappedBugStore}, so that the bugs having
+ * given field values are found without scanning every bug's state. For each
+ * indexed field, every value maps to a {@link CompressedBitmap} of the IDs of the
+ * bugs having it; a multi-valued field such as {@code cc} or {@code keywords} is
+ * indexed under each of its values.
+ * <p/>
+ * Lookups return a copy of the posting list, which the caller combines with
+ * {@link CompressedBitmap#and(CompressedBitmap) and},
+ * {@link CompressedBitmap#or(CompressedBitmap) or} and
+ * {@link CompressedBitmap#andNot(CompressedBitmap) andNot}, or negates against
+ * every indexed bug with {@link #not(CompressedBitmap)}:
+ * <p/>
+ * <code>
+ * CompressedBitmap ids = index.get("product", "Widget")<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;.and(index.get("status", "NEW").or(index.get("status", "ASSIGNED")))<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;.andNot(index.get("assigned_to", "nobody@example.com"));<br />
+ * </code>
+ * <p/>
+ * The index is kept up to date by {@link #update(BugBase) updating} it whenever a
+ * bug is stored or changed and {@link #remove(int) removing} bugs as they are
+ * evicted; added as a {@link SyncListener} to a {@code BugSync}, it follows the
+ * replica by itself. The values each bug was indexed under are remembered, so that
+ * an update only touches the posting lists of the values which changed. A
+ * {@code BugIndex} is thread-safe.
+ */
+public class BugIndex implements SyncListener<BugBase> {
+
+    /**
+     * The fields indexed unless told otherwise
+     */
+    public static final List<String> DEFAULT_FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "product", "component", "status", "resolution", "priority", "severity", "assigned_to"));
+
+    private static final String ID = "id";
+
+    private final String[] fields;
+
+    /**
+     * The posting lists of each field, by value
+     */
+    private final Map<String, Map<String, Posting>> postings = new HashMap<String, Map<String, Posting>>();
+
+    /**
+     * The values each bug is indexed under, by field: null, a single value or, for a
+     * multi-valued field, a {@code String[]}. The values are those of the postings
+     * rather than the bugs' own copies.
+     */
+    private final Map<Integer, Object[]> indexed = new HashMap<Integer, Object[]>();
+
+    private final CompressedBitmap all = new CompressedBitmap();
+
+    /**
+     * Creates a new, empty {@link BugIndex} over the {@link #DEFAULT_FIELDS}.
+     */
+    public BugIndex() {
+        this(DEFAULT_FIELDS.toArray(new String[DEFAULT_FIELDS.size()]));
+    }
+
+    /**
+     * Creates a new, empty {@link BugIndex}
+     *
+     * @param fields The fields to index
+     */
+    public BugIndex(final String... fields) {
+        this.fields = fields.clone();
+        for (final String field : fields) {
+            if (postings.put(field, new HashMap<String, Posting>()) != null) {
+                throw new IllegalArgumentException("Field " + field + " given twice");
+            }
+        }
+    }
+
+    /**
+     * Indexes a bug, or re-indexes it if it was indexed before.
+     *
+     * @param bug A bug with an ID
+     */
+    public void update(final BugBase bug) {
+        update(bug.getInternalState());
+    }
+
+    /**
+     * Indexes a bug from its internal state, as held by a {@link MappedBugStore},
+     * or re-indexes it if it was indexed before.
+     *
+     * @param state The state of a bug with an ID
+     */
+    public synchronized void update(final Map<String, Object> state) {
+        final Object value = state.get(ID);
+        if (!(value instanceof Integer)) {
+            throw new IllegalArgumentException("Only bugs with an ID can be indexed");
+        }
+        final int id = (Integer) value;
+        final Object[] old = indexed.get(id);
+        final Object[] current = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            final Map<String, Posting> lists = postings.get(fields[i]);
+            final String[] values = values(state.get(fields[i]));
+            for (int j = 0; j < values.length; j++) {
+                Posting posting = lists.get(values[j]);
+                if (posting == null) {
+                    posting = new Posting(values[j]);
+                    lists.put(values[j], posting);
+                }
+                posting.ids.add(id);
+                values[j] = posting.value;
+            }
+            current[i] = values.length == 0 ? null : values.length == 1 ? values[0] : values;
+            if (old != null) {
+                for (final String oldValue : values(old[i])) {
+                    if (!Arrays.asList(values).contains(oldValue)) {
+                        unpost(lists, oldValue, id);
+                    }
+                }
+            }
+        }
+        indexed.put(id, current);
+        all.add(id);
+    }
+
+    /**
+     * Indexes every bug, such as the results of a search.
+     *
+     * @param bugs Bugs with IDs
+     */
+    public void addAll(final Iterable<? extends BugBase> bugs) {
+        for (final BugBase bug : bugs) {
+            update(bug);
+        }
+    }
+
+    /**
+     * Indexes every bug held by a store.
+     *
+     * @param store The store to read
+     */
+    public void addAll(final MappedBugStore store) {
+        for (final Integer id : store.getBugIDs()) {
+            final Map<String, Object> state = store.getState(id);
+            if (state != null) {
+                update(state);
+            }
+        }
+    }
+
+    /**
+     * Removes a bug from the index, for instance when it is evicted from the set
+     * indexed.
+     *
+     * @param id The ID of the bug
+     * @return true if the bug was indexed
+     */
+    public synchronized boolean remove(final int id) {
+        final Object[] old = indexed.remove(id);
+        if (old == null) {
+            return false;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            for (final String value : values(old[i])) {
+                unpost(postings.get(fields[i]), value, id);
+            }
+        }
+        all.remove(id);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bugChanged(final BugBase bug, final BugBase previous) {
+        update(bug);
+    }
+
+    /**
+     * @param field An indexed field
+     * @param value A value
+     * @return The IDs of the bugs having the value, in a new bitmap
+     */
+    public synchronized CompressedBitmap get(final String field, final String value) {
+        final Posting posting = lists(field).get(value);
+        return posting == null ? new CompressedBitmap() : posting.ids.copy();
+    }
+
+    /**
+     * @param field An indexed field
+     * @param value A value
+     * @return The number of bugs having the value
+     */
+    public synchronized int count(final String field, final String value) {
+        final Posting posting = lists(field).get(value);
+        return posting == null ? 0 : posting.ids.cardinality();
+    }
+
+    /**
+     * @param field A field name
+     * @return true if the field is indexed
+     */
+    public boolean isIndexed(final String field) {
+        return postings.containsKey(field);
+    }
+
+    /**
+     * @return The IDs of every indexed bug, in a new bitmap
+     */
+    public synchronized CompressedBitmap getAll() {
+        return all.copy();
+    }
+
+    /**
+     * @param ids The IDs of some bugs
+     * @return The IDs of every indexed bug not among them, in a new bitmap
+     */
+    public synchronized CompressedBitmap not(final CompressedBitmap ids) {
+        return all.andNot(ids);
+    }
+
+    /**
+     * @param field An indexed field
+     * @return Every value at least one indexed bug has, in no particular order
+     */
+    public synchronized List<String> getValues(final String field) {
+        return new ArrayList<String>(lists(field).keySet());
+    }
+
+    /**
+     * @return The number of indexed bugs
+     */
+    public synchronized int size() {
+        return indexed.size();
+    }
+
+    /**
+     * @return An estimate of the memory taken by the posting lists, in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        long bytes = all.getSizeInBytes();
+        for (final Map<String, Posting> lists : postings.values()) {
+            for (final Posting posting : lists.values()) {
+                bytes += posting.ids.getSizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private Map<String, Posting> lists(final String field) {
+        final Map<String, Posting> lists = postings.get(field);
+        if (lists == null) {
+            throw new IllegalArgumentException("Field " + field + " is not indexed");
+        }
+        return lists;
+    }
+
+    private static void unpost(final Map<String, Posting> lists, final String value, final int id) {
+        final Posting posting = lists.get(value);
+        if (posting != null) {
+            posting.ids.remove(id);
+            if (posting.ids.isEmpty()) {
+                lists.remove(value);
+            }
+        }
+    }
+
+    /**
+     * @return The distinct values of a field, none for a missing value
+     */
+    private static String[] values(final Object value) {
+        if (value == null) {
+            return new String[0];
+        }
+        if (value instanceof String[]) {
+            return ((String[]) value).clone();
+        }
+        if (value instanceof Object[]) {
+            final List<String> values = new ArrayList<String>();
+            for (final Object element : (Object[]) value) {
+                if (element != null && !values.contains(element.toString())) {
+                    values.add(element.toString());
+                }
+            }
+            return values.toArray(new String[values.size()]);
+        }
+        return new String[]{value.toString()};
+    }
+
+    /**
+     * The IDs of the bugs having one value of a field.
+     */
+    private static class Posting {
+        final String value;
+
+        final CompressedBitmap ids = new CompressedBitmap();
+
+        Posting(final String value) {
+            this.value = value;
+        }
+    }
+}
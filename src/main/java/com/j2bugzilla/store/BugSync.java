@@ -0,0 +1,320 @@
+package com.j2bugzilla.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugHandler;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.rpc.BugSearch;
+
+/**
+ * A {@code BugSync} keeps a local replica of the bugs matching a search, such as
+ * every bug of a product, up to date by polling for the bugs changed since the last
+ * poll. The first {@link #sync()} retrieves every matching bug; later ones only
+ * retrieve bugs whose {@code last_change_time} is at or after a high-water mark, so
+ * that the traffic of a poll is proportional to the number of changed bugs.
+ * <p/>
+ * The high-water mark is the latest {@code last_change_time} seen, taken from the
+ * installation's own clock rather than the local one, so the two need not agree.
+ * Each poll starts an {@link #setOverlap(long) overlap} before the mark, to catch
+ * changes made in the same second as the last one seen and changes whose transaction
+ * committed after a later one; bugs seen again unchanged are not reported twice.
+ * The mark only advances once a poll has retrieved every page, so a failed poll is
+ * simply repeated by the next one.
+ * <p/>
+ * A bug changed so that it no longer matches the search is not seen again, and
+ * stays in the replica as it was; {@link #setHighWaterMark(Date) resetting the mark}
+ * to null retrieves the whole search on the next poll.
+ *
+ * @param <T> The type of bug synchronized
+ */
+public class BugSync<T extends BugBase> {
+
+    /**
+     * How far before the high-water mark a poll starts unless told otherwise
+     */
+    public static final long DEFAULT_OVERLAP = 5 * 60 * 1000L;
+
+    private static final String LAST_CHANGE_TIME = "last_change_time";
+
+    private static final String ORDER = "order";
+
+    private static final String BUG_ID = "bug_id";
+
+    private final BugzillaConnector connector;
+
+    private final Class<T> bugClass;
+
+    private final int pageSize;
+
+    /**
+     * The search limits, copied into the {@link BugSearch} for every page
+     */
+    private final Map<String, Object> query = new LinkedHashMap<String, Object>();
+
+    private final List<SyncListener<? super T>> listeners = new CopyOnWriteArrayList<SyncListener<? super T>>();
+
+    /**
+     * The replica, by bug ID
+     */
+    private final Map<Integer, T> bugs = new HashMap<Integer, T>();
+
+    private long overlap = DEFAULT_OVERLAP;
+
+    private Date highWaterMark;
+
+    /**
+     * When the last poll completed, by the local clock, or 0 before the first
+     */
+    private long lastSyncTime;
+
+    /**
+     * Held for the whole of a poll, so that polls do not overlap, while the replica's
+     * own lock is only held to read the limits and apply the changes
+     */
+    private final Object pollLock = new Object();
+
+    /**
+     * Creates a new {@link BugSync} with an empty replica
+     *
+     * @param connector The connector to poll through
+     * @param bugClass  The type of bug to create
+     * @param pageSize  The number of bugs retrieved per request
+     */
+    public BugSync(final BugzillaConnector connector, final Class<T> bugClass, final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive, was " + pageSize);
+        }
+        this.connector = connector;
+        this.bugClass = bugClass;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Add a search limit, as for {@link BugSearch#addQueryParam(String, Object)}.
+     * Only bugs matching every limit are replicated.
+     *
+     * @param key   The search limit
+     * @param value The value to match
+     */
+    public synchronized void addQueryParam(final String key, final Object value) {
+        query.put(key, value);
+    }
+
+    /**
+     * @return A copy of the search limits, each matched by every replicated bug
+     */
+    public synchronized Map<String, Object> getQueryParams() {
+        return new LinkedHashMap<String, Object>(query);
+    }
+
+    /**
+     * @param listener A listener to tell about every changed bug
+     */
+    public void addListener(final SyncListener<? super T> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener A listener added earlier
+     */
+    public void removeListener(final SyncListener<? super T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param overlap How far before the high-water mark each poll starts, in
+     *                milliseconds; at least the longest transaction on the
+     *                installation
+     */
+    public synchronized void setOverlap(final long overlap) {
+        if (overlap < 0) {
+            throw new IllegalArgumentException("Overlap must not be negative, was " + overlap);
+        }
+        this.overlap = overlap;
+    }
+
+    /**
+     * @return The latest {@code last_change_time} seen, or null before the first
+     *         complete poll
+     */
+    public synchronized Date getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Sets the high-water mark, for instance to resume from a mark saved along with
+     * a persisted replica.
+     *
+     * @param highWaterMark The {@code last_change_time} to poll from, or null to
+     *                      retrieve every matching bug on the next poll
+     */
+    public synchronized void setHighWaterMark(final Date highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return When the last poll completed, by the local clock, or null before the
+     *         first complete poll
+     */
+    public synchronized Date getLastSyncTime() {
+        return lastSyncTime == 0 ? null : new Date(lastSyncTime);
+    }
+
+    /**
+     * @param id The ID of a bug
+     * @return The replicated bug, or null if it is not in the replica
+     */
+    public synchronized T getBug(final int id) {
+        return bugs.get(id);
+    }
+
+    /**
+     * @return Every replicated bug, in no particular order
+     */
+    public synchronized List<T> getBugs() {
+        return new ArrayList<T>(bugs.values());
+    }
+
+    /**
+     * @return The number of replicated bugs
+     */
+    public synchronized int size() {
+        return bugs.size();
+    }
+
+    /**
+     * Polls for changed bugs and, once every page has been retrieved, applies them to
+     * the replica, telling the listeners about each one. The replica stays readable
+     * while the pages are retrieved: only the changes are applied under its lock, and
+     * listeners are told about them once it is released. Polls are serialized, so a
+     * poll started while another runs waits for it.
+     *
+     * @return The number of bugs added or changed
+     * @throws BugzillaException If a page cannot be retrieved, in which case nothing
+     *                           is applied
+     */
+    public int sync() throws BugzillaException {
+        synchronized (pollLock) {
+            final Date since;
+            final Map<String, Object> limits;
+            synchronized (this) {
+                since = highWaterMark == null ? null : new Date(highWaterMark.getTime() - overlap);
+                limits = new LinkedHashMap<String, Object>(query);
+            }
+            final Map<Integer, T> fetched = fetch(limits, since);
+
+            final List<T> changed = new ArrayList<T>();
+            final List<T> previous = new ArrayList<T>();
+            synchronized (this) {
+                for (final T bug : fetched.values()) {
+                    final Date time = lastChangeTime(bug);
+                    if (time != null && (highWaterMark == null || time.after(highWaterMark))) {
+                        highWaterMark = time;
+                    }
+                    final T old = bugs.get(bug.getID());
+                    if (isNewer(bug, old)) {
+                        bugs.put(bug.getID(), bug);
+                        changed.add(bug);
+                        previous.add(old);
+                    }
+                }
+                lastSyncTime = System.currentTimeMillis();
+            }
+
+            for (int i = 0; i < changed.size(); i++) {
+                for (final SyncListener<? super T> listener : listeners) {
+                    listener.bugChanged(changed.get(i), previous.get(i));
+                }
+            }
+            return changed.size();
+        }
+    }
+
+    /**
+     * Retrieves every page of the bugs matching the limits changed since a time,
+     * ordered by bug ID so that the pages do not shift between requests. Paging stops
+     * at the first empty page rather than the first short one, as the installation
+     * may return fewer bugs per page than asked for.
+     *
+     * @return The latest state seen of each bug
+     */
+    private Map<Integer, T> fetch(final Map<String, Object> limits, final Date since) throws BugzillaException {
+        final Map<Integer, T> fetched = new LinkedHashMap<Integer, T>();
+        int offset = 0;
+        while (true) {
+            final List<T> page = new ArrayList<T>(pageSize);
+            final BugSearch<T> search = new BugSearch<T>(bugClass);
+            for (final Map.Entry<String, Object> limit : limits.entrySet()) {
+                search.addQueryParam(limit.getKey(), limit.getValue());
+            }
+            if (since != null) {
+                search.addQueryParam(BugSearch.LAST_CHANGE_TIME, since);
+            }
+            search.addQueryParam(ORDER, BUG_ID);
+            search.addQueryParam(BugSearch.LIMIT, pageSize);
+            search.addQueryParam(BugSearch.OFFSET, offset);
+            search.setBugHandler(new BugHandler<T>() {
+                public void handleBug(final T bug) {
+                    page.add(bug);
+                }
+            });
+            connector.executeMethod(search);
+            if (page.isEmpty()) {
+                return fetched;
+            }
+            for (final T bug : page) {
+                if (isNewer(bug, fetched.get(bug.getID()))) {
+                    fetched.put(bug.getID(), bug);
+                }
+            }
+            offset += page.size();
+        }
+    }
+
+    /**
+     * @return true if {@code bug} is not the state the replica already holds, nor an
+     *         older one seen again because of the overlap
+     */
+    private static boolean isNewer(final BugBase bug, final BugBase old) {
+        if (old == null) {
+            return true;
+        }
+        final Date time = lastChangeTime(bug);
+        final Date oldTime = lastChangeTime(old);
+        if (time != null && oldTime != null && !time.equals(oldTime)) {
+            return time.after(oldTime);
+        }
+        // Times are only kept to the second, so two changes may share one
+        return !sameState(bug.getInternalState(), old.getInternalState());
+    }
+
+    /**
+     * Compares two states, comparing the arrays in multi-valued fields such as
+     * {@code cc} by content.
+     */
+    private static boolean sameState(final Map<String, Object> a, final Map<String, Object> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (final Map.Entry<String, Object> entry : a.entrySet()) {
+            if (!Arrays.deepEquals(new Object[]{entry.getValue()}, new Object[]{b.get(entry.getKey())})) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Date lastChangeTime(final BugBase bug) {
+        final Object time = bug.getInternalState().get(LAST_CHANGE_TIME);
+        return time instanceof Date ? (Date) time : null;
+    }
+}
@@ -0,0 +1,512 @@
+package com.j2bugzilla.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugHandler;
+
+/**
+ * A {@code BugTable} holds a snapshot of many bugs column by column, for counting
+ * and grouping them locally without walking one map per bug. Each bug is a row; IDs
+ * and times are held in primitive arrays, and each categorical field, such as
+ * {@code status} or {@code assigned_to}, in an array of {@code int} codes into a
+ * dictionary of the field's distinct values. A million bugs take a few tens of
+ * megabytes, and counting them by a field is a single pass over one array.
+ * <p/>
+ * Code 0 of every field stands for a bug without a value, so that counts can be
+ * indexed by code directly; the codes of a field are returned by
+ * {@link #getValues(String)}. Rows are selected with {@link BitSet BitSets}, as
+ * returned by {@link #select(String, String)} and
+ * {@link #selectChangedBetween(long, long)}, which can be combined with the
+ * {@code BitSet} operations and passed to {@link #countBy(String, BitSet)}.
+ * <p/>
+ * Bugs are added from search results, directly while a search is read through
+ * {@link #handler()}, or from a {@link MappedBugStore}. Adding a bug already in the
+ * table replaces its row. A {@code BugTable} is not thread-safe.
+ */
+public class BugTable {
+
+    /**
+     * The categorical fields held unless told otherwise
+     */
+    public static final List<String> DEFAULT_FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "status", "resolution", "product", "component", "version", "priority", "severity", "op_sys",
+            "platform", "assigned_to", "creator", "qa_contact", "target_milestone", "classification"));
+
+    /**
+     * The code of a missing value in every field
+     */
+    public static final int NONE = 0;
+
+    private static final String ID = "id";
+
+    private static final String CREATION_TIME = "creation_time";
+
+    private static final String LAST_CHANGE_TIME = "last_change_time";
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String[] fields;
+
+    private final Map<String, Integer> columns = new HashMap<String, Integer>();
+
+    private final Dictionary[] dictionaries;
+
+    private int size;
+
+    private int[] ids = new int[INITIAL_CAPACITY];
+
+    /**
+     * Creation and last change times in milliseconds since the epoch, or
+     * {@code Long.MIN_VALUE} if unknown
+     */
+    private long[] creationTimes = new long[INITIAL_CAPACITY];
+
+    private long[] lastChangeTimes = new long[INITIAL_CAPACITY];
+
+    /**
+     * The codes of each categorical field, by column and row
+     */
+    private final int[][] codes;
+
+    private final RowIndex rows = new RowIndex();
+
+    /**
+     * Creates a new, empty {@link BugTable} holding the {@link #DEFAULT_FIELDS}.
+     */
+    public BugTable() {
+        this(DEFAULT_FIELDS.toArray(new String[DEFAULT_FIELDS.size()]));
+    }
+
+    /**
+     * Creates a new, empty {@link BugTable}
+     *
+     * @param fields The categorical fields to hold, each with string values
+     */
+    public BugTable(final String... fields) {
+        this.fields = fields.clone();
+        dictionaries = new Dictionary[fields.length];
+        codes = new int[fields.length][INITIAL_CAPACITY];
+        for (int i = 0; i < fields.length; i++) {
+            if (columns.put(fields[i], i) != null) {
+                throw new IllegalArgumentException("Field " + fields[i] + " given twice");
+            }
+            dictionaries[i] = new Dictionary();
+        }
+    }
+
+    /**
+     * Adds a bug, or replaces its row if it is already in the table.
+     *
+     * @param bug A bug with an ID
+     */
+    public void add(final BugBase bug) {
+        add(bug.getInternalState());
+    }
+
+    /**
+     * Adds a bug from its internal state, as held by a {@link MappedBugStore}, or
+     * replaces its row if it is already in the table.
+     *
+     * @param state The state of a bug with an ID
+     */
+    public void add(final Map<String, Object> state) {
+        final Object id = state.get(ID);
+        if (!(id instanceof Integer)) {
+            throw new IllegalArgumentException("Only bugs with an ID can be added");
+        }
+        int row = rows.get((Integer) id);
+        if (row < 0) {
+            if (size == ids.length) {
+                grow();
+            }
+            row = size++;
+            rows.put((Integer) id, row);
+        }
+        ids[row] = (Integer) id;
+        creationTimes[row] = time(state.get(CREATION_TIME));
+        lastChangeTimes[row] = time(state.get(LAST_CHANGE_TIME));
+        for (int i = 0; i < fields.length; i++) {
+            final Object value = state.get(fields[i]);
+            codes[i][row] = value == null ? NONE : dictionaries[i].intern(value.toString());
+        }
+    }
+
+    /**
+     * Adds every bug, such as the results of a search.
+     *
+     * @param bugs Bugs with IDs
+     */
+    public void addAll(final Iterable<? extends BugBase> bugs) {
+        for (final BugBase bug : bugs) {
+            add(bug);
+        }
+    }
+
+    /**
+     * Adds every bug held by a store.
+     *
+     * @param store The store to read
+     */
+    public void addAll(final MappedBugStore store) {
+        for (final Integer id : store.getBugIDs()) {
+            final Map<String, Object> state = store.getState(id);
+            if (state != null) {
+                add(state);
+            }
+        }
+    }
+
+    /**
+     * Returns a handler adding each bug it is given to this table, for
+     * {@link com.j2bugzilla.rpc.BugSearch#setBugHandler(BugHandler) streaming} a
+     * search straight into the table without keeping the bugs.
+     *
+     * @param <T> The type of bug searched for
+     * @return A new handler
+     */
+    public <T extends BugBase> BugHandler<T> handler() {
+        return new BugHandler<T>() {
+            public void handleBug(final T bug) {
+                add(bug);
+            }
+        };
+    }
+
+    /**
+     * @return The number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id The ID of a bug
+     * @return The row of the bug, or -1 if it is not in the table
+     */
+    public int getRow(final int id) {
+        return rows.get(id);
+    }
+
+    /**
+     * @param row The index of a row
+     * @return The ID of the bug
+     */
+    public int getID(final int row) {
+        check(row);
+        return ids[row];
+    }
+
+    /**
+     * @param row The index of a row
+     * @return When the bug was created, in milliseconds since the epoch, or
+     *         {@code Long.MIN_VALUE} if unknown
+     */
+    public long getCreationTime(final int row) {
+        check(row);
+        return creationTimes[row];
+    }
+
+    /**
+     * @param row The index of a row
+     * @return When the bug was last changed, in milliseconds since the epoch, or
+     *         {@code Long.MIN_VALUE} if unknown
+     */
+    public long getLastChangeTime(final int row) {
+        check(row);
+        return lastChangeTimes[row];
+    }
+
+    /**
+     * @return The categorical fields held, in column order
+     */
+    public List<String> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    /**
+     * @param field A categorical field
+     * @param row   The index of a row
+     * @return The code of the bug's value, an index into {@link #getValues(String)}
+     */
+    public int getCode(final String field, final int row) {
+        check(row);
+        return codes[column(field)][row];
+    }
+
+    /**
+     * @param field A categorical field
+     * @param row   The index of a row
+     * @return The bug's value, or null if it has none
+     */
+    public String getValue(final String field, final int row) {
+        final int column = column(field);
+        check(row);
+        return dictionaries[column].get(codes[column][row]);
+    }
+
+    /**
+     * @param field A categorical field
+     * @param value A value
+     * @return The code of the value, or -1 if no bug has it
+     */
+    public int getCode(final String field, final String value) {
+        return value == null ? NONE : dictionaries[column(field)].code(value);
+    }
+
+    /**
+     * @param field A categorical field
+     * @return Every value of the field, indexed by code; the value at
+     *         {@link #NONE} is null
+     */
+    public List<String> getValues(final String field) {
+        return Collections.unmodifiableList(dictionaries[column(field)].values);
+    }
+
+    /**
+     * Counts the bugs having each value of a field.
+     *
+     * @param field A categorical field
+     * @return The number of bugs by code
+     */
+    public int[] countBy(final String field) {
+        final int column = column(field);
+        final int[] columnCodes = codes[column];
+        final int[] counts = new int[dictionaries[column].size()];
+        for (int row = 0; row < size; row++) {
+            counts[columnCodes[row]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the selected bugs having each value of a field.
+     *
+     * @param field    A categorical field
+     * @param selected The rows to count
+     * @return The number of selected bugs by code
+     */
+    public int[] countBy(final String field, final BitSet selected) {
+        final int column = column(field);
+        final int[] columnCodes = codes[column];
+        final int[] counts = new int[dictionaries[column].size()];
+        for (int row = selected.nextSetBit(0); row >= 0 && row < size; row = selected.nextSetBit(row + 1)) {
+            counts[columnCodes[row]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the bugs having each combination of values of two fields, such as
+     * {@code component} and {@code status}.
+     *
+     * @param field1 A categorical field
+     * @param field2 Another categorical field
+     * @return The number of bugs by the code of the first field, then that of the
+     *         second
+     */
+    public int[][] countBy(final String field1, final String field2) {
+        final int column1 = column(field1);
+        final int column2 = column(field2);
+        final int[] codes1 = codes[column1];
+        final int[] codes2 = codes[column2];
+        final int width = dictionaries[column2].size();
+        final int[] flat = new int[dictionaries[column1].size() * width];
+        for (int row = 0; row < size; row++) {
+            flat[codes1[row] * width + codes2[row]]++;
+        }
+        final int[][] counts = new int[dictionaries[column1].size()][];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = Arrays.copyOfRange(flat, i * width, (i + 1) * width);
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the bugs having each value of a field, by value.
+     *
+     * @param field A categorical field
+     * @return The number of bugs by value, null standing for bugs without one, in
+     *         code order; values no bug has any more are left out
+     */
+    public Map<String, Integer> countByValue(final String field) {
+        final int[] counts = countBy(field);
+        final List<String> values = getValues(field);
+        final Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(values.get(code), counts[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Selects the bugs having a value of a field.
+     *
+     * @param field A categorical field
+     * @param value The value to match, or null to select bugs without one
+     * @return The matching rows
+     */
+    public BitSet select(final String field, final String value) {
+        final int[] columnCodes = codes[column(field)];
+        final int code = getCode(field, value);
+        final BitSet selected = new BitSet(size);
+        if (code < 0) {
+            return selected;
+        }
+        for (int row = 0; row < size; row++) {
+            if (columnCodes[row] == code) {
+                selected.set(row);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Selects the bugs last changed in a period.
+     *
+     * @param from The start of the period, in milliseconds since the epoch, inclusive
+     * @param to   The end of the period, exclusive
+     * @return The matching rows
+     */
+    public BitSet selectChangedBetween(final long from, final long to) {
+        final BitSet selected = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            final long time = lastChangeTimes[row];
+            if (time >= from && time < to) {
+                selected.set(row);
+            }
+        }
+        return selected;
+    }
+
+    private int column(final String field) {
+        final Integer column = columns.get(field);
+        if (column == null) {
+            throw new IllegalArgumentException("Field " + field + " is not held by this table");
+        }
+        return column;
+    }
+
+    private void check(final int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    private void grow() {
+        final int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        creationTimes = Arrays.copyOf(creationTimes, capacity);
+        lastChangeTimes = Arrays.copyOf(lastChangeTimes, capacity);
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = Arrays.copyOf(codes[i], capacity);
+        }
+    }
+
+    private static long time(final Object value) {
+        return value instanceof Date ? ((Date) value).getTime() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Assigns each distinct value of a field a code, starting at 1.
+     */
+    private static class Dictionary {
+        final List<String> values = new ArrayList<String>(Collections.singletonList((String) null));
+
+        final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+        int intern(final String value) {
+            final Integer code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            codes.put(value, values.size());
+            values.add(value);
+            return values.size() - 1;
+        }
+
+        int code(final String value) {
+            final Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        String get(final int code) {
+            return values.get(code);
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+
+    /**
+     * Maps bug IDs to rows with open addressing, without boxing either.
+     */
+    private static class RowIndex {
+        private int[] keys = new int[INITIAL_CAPACITY * 2];
+
+        private int[] values = new int[INITIAL_CAPACITY * 2];
+
+        private boolean[] used = new boolean[INITIAL_CAPACITY * 2];
+
+        private int count;
+
+        int get(final int key) {
+            final int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(final int key, final int value) {
+            if ((count + 1) * 2 > keys.length) {
+                rehash();
+            }
+            final int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (!used[slot]) {
+                used[slot] = true;
+                count++;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private void rehash() {
+            final int[] oldKeys = keys;
+            final int[] oldValues = values;
+            final boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(final int key) {
+            // Bug IDs are dense, so scramble them before masking
+            final int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.j2bugzilla.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.Comment;
+import com.j2bugzilla.bulk.CommentFetcher;
+
+/**
+ * A {@code CommentStore} keeps a local copy of the comments of any number of bugs.
+ * Comments never change once made, so each bug's comments are held as an append-only
+ * sequence, and {@link #refresh(BugzillaConnector, Collection) refreshing} a bug only
+ * retrieves the comments made after the last one stored.
+ * <p/>
+ * A store opened on a file appends every new comment to it, so that the comments
+ * survive restarts. Each refresh is forced to disk before it returns; a record torn
+ * by a crash is discarded the next time the file is opened.
+ * <p/>
+ * A {@code CommentStore} is thread-safe, but a file must only be used by one store
+ * at a time.
+ */
+public class CommentStore implements Closeable {
+
+    private static final int MAGIC = 0x4A32424D;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The bytes a record takes besides its text: the bug ID, comment ID, time and
+     * text length
+     */
+    private static final int RECORD_OVERHEAD = 4 + 4 + 8 + 4;
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Bugzilla only stores comment times to the second, and asks for comments made
+     * strictly after the time given, so refreshing goes back this far to catch
+     * comments made in the same second as the last one stored
+     */
+    private static final long TIME_RESOLUTION = 1000;
+
+    /**
+     * The file comments are appended to, or null if the store is held in memory only
+     */
+    private final RandomAccessFile file;
+
+    private final Map<Integer, Sequence> sequences = new HashMap<Integer, Sequence>();
+
+    /**
+     * Creates a new {@link CommentStore} held in memory only
+     */
+    public CommentStore() {
+        this.file = null;
+    }
+
+    /**
+     * Opens a {@link CommentStore}, reading the comments stored by earlier runs if
+     * the file exists.
+     *
+     * @param file The file to store comments in, created if necessary
+     * @throws IOException If the file cannot be read or opened for writing, or was not
+     *                     written by a {@link CommentStore}
+     */
+    public CommentStore(final File file) throws IOException {
+        final long valid = file.exists() && file.length() > 0 ? load(file) : -1;
+        this.file = new RandomAccessFile(file, "rw");
+        if (valid < 0) {
+            this.file.setLength(0);
+            this.file.writeInt(MAGIC);
+            this.file.writeInt(VERSION);
+        } else if (valid < this.file.length()) {
+            // Drop the torn record so that the next one is appended after the last whole one
+            this.file.setLength(valid);
+        }
+        this.file.seek(this.file.length());
+    }
+
+    /**
+     * @param id The ID of a bug
+     * @return The stored comments of the bug, oldest first; empty if none are stored
+     */
+    public synchronized List<Comment> getComments(final int id) {
+        final Sequence sequence = sequences.get(id);
+        return sequence == null ? Collections.<Comment>emptyList() : Collections.unmodifiableList(
+                new ArrayList<Comment>(sequence.comments));
+    }
+
+    /**
+     * @param id The ID of a bug
+     * @return The number of bytes the bug's comments take in the store
+     */
+    public synchronized long getStoredBytes(final int id) {
+        final Sequence sequence = sequences.get(id);
+        return sequence == null ? 0 : sequence.bytes;
+    }
+
+    /**
+     * @return The IDs of every bug with stored comments
+     */
+    public synchronized List<Integer> getBugIDs() {
+        return new ArrayList<Integer>(sequences.keySet());
+    }
+
+    /**
+     * Retrieves and stores the comments made on each bug since the last one stored,
+     * or every comment of a bug with none stored.
+     *
+     * @param connector The connector to retrieve comments through
+     * @param ids       The IDs of the bugs to refresh
+     * @return The newly stored comments, by bug ID, oldest first
+     * @throws BugzillaException If the comments cannot be retrieved
+     * @throws IOException       If the comments cannot be written to the file
+     */
+    public Map<Integer, List<Comment>> refresh(final BugzillaConnector connector, final Collection<Integer> ids)
+            throws BugzillaException, IOException {
+        final Map<Integer, Date> since = new LinkedHashMap<Integer, Date>();
+        synchronized (this) {
+            for (final Integer id : ids) {
+                final Sequence sequence = sequences.get(id);
+                final Date last = sequence == null ? null : sequence.lastTime();
+                since.put(id, last == null ? null : new Date(last.getTime() - TIME_RESOLUTION));
+            }
+        }
+        return append(new CommentFetcher(connector).fetchSince(since));
+    }
+
+    /**
+     * Stores comments retrieved elsewhere. Comments whose ID is not greater than that
+     * of the last comment stored for their bug are already stored, and are skipped.
+     *
+     * @param comments Comments by bug ID, oldest first
+     * @return The newly stored comments, by bug ID
+     * @throws IOException If the comments cannot be written to the file
+     */
+    public synchronized Map<Integer, List<Comment>> append(final Map<Integer, List<Comment>> comments)
+            throws IOException {
+        final Map<Integer, List<Comment>> added = new LinkedHashMap<Integer, List<Comment>>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        for (final Map.Entry<Integer, List<Comment>> entry : comments.entrySet()) {
+            final int id = entry.getKey();
+            final Sequence sequence = sequences.get(id);
+            Integer lastID = sequence == null ? null : sequence.lastID();
+            final List<Comment> fresh = new ArrayList<Comment>();
+            for (final Comment comment : entry.getValue()) {
+                if (lastID != null && comment.getID() <= lastID) {
+                    continue;
+                }
+                sizes.add(write(out, id, comment));
+                fresh.add(comment);
+                lastID = comment.getID();
+            }
+            added.put(id, fresh);
+        }
+        if (file != null && buffer.size() > 0) {
+            final long end = file.length();
+            try {
+                file.write(buffer.toByteArray());
+                file.getFD().sync();
+            } catch (IOException e) {
+                // Leave neither a partial record on disk nor the comments in memory
+                file.setLength(end);
+                file.seek(end);
+                throw e;
+            }
+        }
+        int record = 0;
+        for (final Map.Entry<Integer, List<Comment>> entry : added.entrySet()) {
+            for (final Comment comment : entry.getValue()) {
+                add(entry.getKey(), comment, sizes.get(record++));
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Closes the file, if any.
+     *
+     * @throws IOException If the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private void add(final int id, final Comment comment, final int size) {
+        Sequence sequence = sequences.get(id);
+        if (sequence == null) {
+            sequence = new Sequence();
+            sequences.put(id, sequence);
+        }
+        sequence.comments.add(comment);
+        sequence.bytes += size;
+    }
+
+    /**
+     * Writes a record, returning its size.
+     */
+    private static int write(final DataOutputStream out, final int id, final Comment comment) throws IOException {
+        final byte[] text = comment.getText() == null ? new byte[0] : comment.getText().getBytes(ENCODING);
+        out.writeInt(id);
+        out.writeInt(comment.getID());
+        out.writeLong(comment.getTime() == null ? Long.MIN_VALUE : comment.getTime().getTime());
+        out.writeInt(text.length);
+        out.write(text);
+        return RECORD_OVERHEAD + text.length;
+    }
+
+    /**
+     * Reads the records of earlier runs.
+     *
+     * @return The length of the file up to the end of its last whole record, or -1 if
+     *         the file was torn while its header was written
+     */
+    private long load(final File f) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException(f + " is not a comment store");
+                }
+            } catch (EOFException e) {
+                return -1;
+            }
+            long valid = 8;
+            while (true) {
+                final int id;
+                final Comment comment;
+                final int length;
+                try {
+                    id = in.readInt();
+                    final int commentID = in.readInt();
+                    final long time = in.readLong();
+                    length = in.readInt();
+                    if (length < 0 || length > f.length() - valid - RECORD_OVERHEAD) {
+                        // A torn record whose length was not written whole
+                        return valid;
+                    }
+                    final byte[] text = new byte[length];
+                    in.readFully(text);
+                    comment = new Comment(commentID, new String(text, ENCODING),
+                            time == Long.MIN_VALUE ? null : new Date(time));
+                } catch (EOFException e) {
+                    return valid;
+                }
+                add(id, comment, RECORD_OVERHEAD + length);
+                valid += RECORD_OVERHEAD + length;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The stored comments of a single bug.
+     */
+    private static class Sequence {
+        final List<Comment> comments = new ArrayList<Comment>();
+
+        long bytes;
+
+        int lastID() {
+            return comments.get(comments.size() - 1).getID();
+        }
+
+        Date lastTime() {
+            for (int i = comments.size() - 1; i >= 0; i--) {
+                if (comments.get(i).getTime() != null) {
+                    return comments.get(i).getTime();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package com.j2bugzilla.store;
+
+import java.util.Arrays;
+
+/**
+ * A {@code CompressedBitmap} is a set of non-negative {@code int}s, such as bug IDs,
+ * held in a fraction of the memory of a {@link java.util.BitSet} or a set of
+ * {@code Integers}. The values are split into chunks of 65536 by their upper 16 bits,
+ * and each chunk is held either as a sorted array of its lower 16 bits, while it
+ * has at most 4096 values, or as a bitmap of 8 kilobytes once it has more. Sparse
+ * sets therefore take two bytes per value and dense ones an eighth of a byte.
+ * <p/>
+ * {@link #and(CompressedBitmap)}, {@link #or(CompressedBitmap)} and
+ * {@link #andNot(CompressedBitmap)} return a new bitmap, working chunk by chunk
+ * without decompressing either operand. A {@code CompressedBitmap} is not
+ * thread-safe.
+ */
+public final class CompressedBitmap {
+
+    /**
+     * The number of values from which a chunk is held as a bitmap
+     */
+    private static final int MAX_ARRAY = 4096;
+
+    private static final int WORDS = 1024;
+
+    private char[] keys;
+
+    private Container[] containers;
+
+    private int size;
+
+    /**
+     * Creates a new, empty {@link CompressedBitmap}.
+     */
+    public CompressedBitmap() {
+        keys = new char[4];
+        containers = new Container[4];
+    }
+
+    private CompressedBitmap(final int capacity) {
+        keys = new char[Math.max(capacity, 1)];
+        containers = new Container[Math.max(capacity, 1)];
+    }
+
+    /**
+     * @param values Non-negative values
+     * @return A new bitmap holding the values
+     */
+    public static CompressedBitmap of(final int... values) {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        for (final int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value A non-negative value
+     * @return true if the value was not held before
+     */
+    public boolean add(final int value) {
+        check(value);
+        final char key = (char) (value >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, key, new ArrayContainer(4));
+        }
+        final Container container = containers[i];
+        final int before = container.cardinality();
+        containers[i] = container.add((char) value);
+        return containers[i].cardinality() > before;
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param value A value
+     * @return true if the value was held
+     */
+    public boolean remove(final int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        final Container container = containers[i];
+        final int before = container.cardinality();
+        containers[i] = container.remove((char) value);
+        if (containers[i].cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+            return true;
+        }
+        return containers[i].cardinality() < before;
+    }
+
+    /**
+     * @param value A value
+     * @return true if the value is held
+     */
+    public boolean contains(final int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    /**
+     * @return The number of values held
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return true if no value is held
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param other Another bitmap
+     * @return A new bitmap holding the values held by both
+     */
+    public CompressedBitmap and(final CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap(Math.min(size, other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.append(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another bitmap
+     * @return A new bitmap holding the values held by either
+     */
+    public CompressedBitmap or(final CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap(size + other.size);
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || i < size && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another bitmap
+     * @return A new bitmap holding the values held by this one but not the other
+     */
+    public CompressedBitmap andNot(final CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap(size);
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                result.append(keys[i], containers[i].andNot(other.containers[j]));
+            } else {
+                result.append(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return An independent copy of this bitmap
+     */
+    public CompressedBitmap copy() {
+        final CompressedBitmap result = new CompressedBitmap(size);
+        for (int i = 0; i < size; i++) {
+            result.append(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * @return Every value held, in ascending order
+     */
+    public int[] toArray() {
+        final int[] values = new int[cardinality()];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            position = containers[i].fill(values, position, keys[i] << 16);
+        }
+        return values;
+    }
+
+    /**
+     * @return An estimate of the memory taken by the values, in bytes
+     */
+    public long getSizeInBytes() {
+        long bytes = keys.length * 2L + containers.length * 4L;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].getSizeInBytes();
+        }
+        return bytes;
+    }
+
+    public boolean equals(final Object o) {
+        if (!(o instanceof CompressedBitmap)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((CompressedBitmap) o).toArray());
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private static void check(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative, was " + value);
+        }
+    }
+
+    private void insert(final int i, final char key, final Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+    /**
+     * Adds a chunk after every chunk held, unless it is empty.
+     */
+    private void append(final char key, final Container container) {
+        if (container.cardinality() > 0) {
+            insert(size, key, container);
+        }
+    }
+
+    /**
+     * The lower 16 bits of the values in one chunk.
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        /**
+         * @return This container, or the one replacing it
+         */
+        abstract Container add(char value);
+
+        /**
+         * @return This container, or the one replacing it
+         */
+        abstract Container remove(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        /**
+         * Writes the values, with the chunk's upper bits, from a position.
+         *
+         * @return The position after the last value written
+         */
+        abstract int fill(int[] out, int position, int high);
+
+        abstract long getSizeInBytes();
+    }
+
+    /**
+     * A chunk of at most {@link #MAX_ARRAY} values, held as a sorted array.
+     */
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+
+        private int cardinality;
+
+        ArrayContainer(final int capacity) {
+            values = new char[capacity];
+        }
+
+        ArrayContainer(final char[] values, final int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains(final char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        Container add(final char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == MAX_ARRAY) {
+                return toBitmap().add(value);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(Math.max(cardinality * 2, 4), MAX_ARRAY));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        Container remove(final char value) {
+            final int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        Container and(final Container other) {
+            final char[] result = new char[cardinality];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[n++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        Container or(final Container other) {
+            if (!(other instanceof ArrayContainer)) {
+                return other.or(this);
+            }
+            final ArrayContainer array = (ArrayContainer) other;
+            final char[] result = new char[cardinality + array.cardinality];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || i < cardinality && values[i] < array.values[j]) {
+                    result[n++] = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    result[n++] = array.values[j++];
+                } else {
+                    result[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            final ArrayContainer union = new ArrayContainer(result, n);
+            return n > MAX_ARRAY ? union.toBitmap() : union;
+        }
+
+        Container andNot(final Container other) {
+            final char[] result = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) {
+                    result[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        int fill(final int[] out, final int position, final int high) {
+            for (int i = 0; i < cardinality; i++) {
+                out[position + i] = high | values[i];
+            }
+            return position + cardinality;
+        }
+
+        long getSizeInBytes() {
+            return 16 + values.length * 2L;
+        }
+
+        BitmapContainer toBitmap() {
+            final BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+    }
+
+    /**
+     * A chunk of more than {@link #MAX_ARRAY} values, held as a bitmap of all 65536.
+     */
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[WORDS];
+
+        private int cardinality;
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains(final char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        Container add(final char value) {
+            final long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        Container remove(final char value) {
+            final long bit = 1L << value;
+            if ((words[value >>> 6] & bit) != 0) {
+                words[value >>> 6] &= ~bit;
+                cardinality--;
+            }
+            return cardinality < MAX_ARRAY ? toArray() : this;
+        }
+
+        Container and(final Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            final BitmapContainer bitmap = (BitmapContainer) other;
+            final BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < WORDS; i++) {
+                result.words[i] = words[i] & bitmap.words[i];
+            }
+            return result.shrink();
+        }
+
+        Container or(final Container other) {
+            final BitmapContainer result = new BitmapContainer();
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer array = (ArrayContainer) other;
+                System.arraycopy(words, 0, result.words, 0, WORDS);
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.words[array.values[i] >>> 6] |= 1L << array.values[i];
+                }
+            } else {
+                final BitmapContainer bitmap = (BitmapContainer) other;
+                for (int i = 0; i < WORDS; i++) {
+                    result.words[i] = words[i] | bitmap.words[i];
+                }
+            }
+            result.count();
+            return result;
+        }
+
+        Container andNot(final Container other) {
+            final BitmapContainer result = new BitmapContainer();
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer array = (ArrayContainer) other;
+                System.arraycopy(words, 0, result.words, 0, WORDS);
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.words[array.values[i] >>> 6] &= ~(1L << array.values[i]);
+                }
+            } else {
+                final BitmapContainer bitmap = (BitmapContainer) other;
+                for (int i = 0; i < WORDS; i++) {
+                    result.words[i] = words[i] & ~bitmap.words[i];
+                }
+            }
+            return result.shrink();
+        }
+
+        Container copy() {
+            final BitmapContainer result = new BitmapContainer();
+            System.arraycopy(words, 0, result.words, 0, WORDS);
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        int fill(final int[] out, final int position, final int high) {
+            int n = position;
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    out[n++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return n;
+        }
+
+        long getSizeInBytes() {
+            return 16 + WORDS * 8L;
+        }
+
+        private void count() {
+            cardinality = 0;
+            for (int i = 0; i < WORDS; i++) {
+                cardinality += Long.bitCount(words[i]);
+            }
+        }
+
+        /**
+         * @return This container, or an array holding its values if there are few
+         */
+        private Container shrink() {
+            count();
+            return cardinality <= MAX_ARRAY ? toArray() : this;
+        }
+
+        private ArrayContainer toArray() {
+            final char[] values = new char[Math.max(cardinality, 1)];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
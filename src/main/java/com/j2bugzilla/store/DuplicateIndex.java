@@ -0,0 +1,603 @@
+package com.j2bugzilla.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.rpc.ReportBug;
+
+/**
+ * A {@code DuplicateIndex} finds the local bugs whose summary and description are
+ * nearly the same as those of a bug about to be reported, so that duplicates filed
+ * by automated reporters can be caught before a {@link ReportBug} is sent, without
+ * searching the installation.
+ * <p/>
+ * Each bug is reduced to a MinHash signature of the set of words in its summary and
+ * description: the agreement between two signatures estimates the Jaccard
+ * similarity of the two sets. Signatures are split into 32 bands of 3 values, and a
+ * bug is filed under the hash of each band, so that only bugs sharing at least one
+ * band with the report are compared with it. A bug of similarity {@code s} shares a
+ * band with probability {@code 1 - (1 - s^3)^32}: about 0.58 at 0.3, 0.88 at 0.4,
+ * 0.986 at 0.5 and 0.9996 at 0.6, while only 3% of the bugs of similarity 0.1 are
+ * compared. Thresholds below 0.5 therefore miss a growing share of duplicates.
+ * Every indexed bug takes the same small amount of memory, whatever the length of
+ * its text.
+ * <p/>
+ * <code>
+ * DuplicateIndex duplicates = new DuplicateIndex();<br />
+ * sync.addListener(duplicates);<br />
+ * ReportBug report = new ReportBug(bug);<br />
+ * if (duplicates.findDuplicates(report).isEmpty()) {<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;conn.executeMethod(report);<br />
+ * }<br />
+ * </code>
+ * <p/>
+ * A bug's description is only part of its state while it is being reported; bugs
+ * retrieved from the installation are indexed by their summary, unless their
+ * description, the first comment, is {@link #update(int, String, String) given}.
+ * Like is compared with like: a bug indexed with a description is compared with the
+ * summary and description of the report, and one indexed by its summary alone with
+ * the report's summary alone, as a short summary has little in common with the same
+ * summary followed by a long description. A {@code DuplicateIndex} is thread-safe.
+ */
+public class DuplicateIndex implements SyncListener<BugBase> {
+
+    /**
+     * The number of MinHash values in a signature
+     */
+    private static final int HASHES = 96;
+
+    /**
+     * The number of signature values in each band
+     */
+    private static final int ROWS = 3;
+
+    private static final int BANDS = HASHES / ROWS;
+
+    private static final int MIN_BUCKETS = 16;
+
+    private static final int[] SEEDS = new int[HASHES];
+
+    private static final String SUMMARY = "summary";
+
+    private static final String DESCRIPTION = "description";
+
+    /**
+     * The kinds of signature: of the summary alone, and of the summary and
+     * description
+     */
+    private static final int SUMMARY_ONLY = 0;
+
+    private static final int FULL = 1;
+
+    static {
+        int seed = 0x2545F491;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + 0x9E3779B9);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private static final Comparator<Candidate> MOST_SIMILAR_FIRST = new Comparator<Candidate>() {
+        public int compare(final Candidate a, final Candidate b) {
+            if (a.similarity != b.similarity) {
+                return a.similarity > b.similarity ? -1 : 1;
+            }
+            return a.id < b.id ? -1 : a.id == b.id ? 0 : 1;
+        }
+    };
+
+    private final double threshold;
+
+    /**
+     * The slot of each bug, in which its signature and band links are kept
+     */
+    private final Map<Integer, Integer> bugSlots = new HashMap<Integer, Integer>();
+
+    private int[] slotIDs = new int[16];
+
+    private int[] slotSummaryHashes = new int[16];
+
+    private char[] signatures = new char[16 * HASHES];
+
+    /**
+     * The slots whose signature is of a summary and description rather than a
+     * summary alone
+     */
+    private final BitSet described = new BitSet();
+
+    /**
+     * For each slot and band, the next slot plus one in the same bucket, or zero
+     */
+    private int[] next = new int[16 * BANDS];
+
+    /**
+     * The number of slots used, free ones included
+     */
+    private int slots;
+
+    private int[] freeSlots = new int[0];
+
+    private int free;
+
+    /**
+     * The buckets of each band: an open addressing table from band hash to the first
+     * slot plus one, or zero for a bucket emptied since. Each band has its own table,
+     * as a bucket's chain runs through the links of a single band.
+     */
+    private final int[][] bucketKeys = new int[BANDS][MIN_BUCKETS];
+
+    private final int[][] bucketHeads = new int[BANDS][MIN_BUCKETS];
+
+    private final int[] buckets = new int[BANDS];
+
+    /**
+     * Creates a new, empty {@link DuplicateIndex} reporting bugs at least half
+     * similar.
+     */
+    public DuplicateIndex() {
+        this(0.5);
+    }
+
+    /**
+     * Creates a new, empty {@link DuplicateIndex}
+     *
+     * @param threshold The estimated similarity from which a bug is a candidate
+     *                  duplicate, between 0 exclusive and 1
+     */
+    public DuplicateIndex(final double threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be in (0, 1], was " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Indexes a bug by its summary and, if it has one, description, replacing its
+     * earlier signature. A bug without a description whose summary is unchanged
+     * keeps its signature, and with it any description given before.
+     *
+     * @param bug A bug with an ID
+     */
+    public synchronized void update(final BugBase bug) {
+        if (bug.getID() == null) {
+            throw new IllegalArgumentException("Only bugs with an ID can be indexed");
+        }
+        final Object description = bug.getInternalState().get(DESCRIPTION);
+        if (description == null) {
+            final Integer slot = bugSlots.get(bug.getID());
+            if (slot != null && slotSummaryHashes[slot] == hash(bug.getSummary())) {
+                return;
+            }
+        }
+        update(bug.getID(), bug.getSummary(), description == null ? null : description.toString());
+    }
+
+    /**
+     * Indexes a bug, replacing its earlier signature.
+     *
+     * @param id          The ID of the bug
+     * @param summary     Its summary, or null
+     * @param description Its description, which is its first comment, or null
+     */
+    public synchronized void update(final int id, final String summary, final String description) {
+        final char[][] both = signatures(summary, description);
+        final int kind = both[FULL] == null ? SUMMARY_ONLY : FULL;
+        final char[] signature = both[kind];
+        final Integer existing = bugSlots.get(id);
+        if (existing != null) {
+            if (signature != null && kind == kind(existing) && Arrays.equals(signature,
+                    Arrays.copyOfRange(signatures, existing * HASHES, (existing + 1) * HASHES))) {
+                return;
+            }
+            unlink(existing);
+            bugSlots.remove(id);
+            release(existing);
+        }
+        if (signature == null) {
+            return;
+        }
+        final int slot = allocate();
+        slotIDs[slot] = id;
+        slotSummaryHashes[slot] = hash(summary);
+        System.arraycopy(signature, 0, signatures, slot * HASHES, HASHES);
+        described.set(slot, kind == FULL);
+        for (int band = 0; band < BANDS; band++) {
+            final int bucket = bucket(band, bandHash(signature, band, kind), true);
+            next[slot * BANDS + band] = bucketHeads[band][bucket];
+            bucketHeads[band][bucket] = slot + 1;
+        }
+        bugSlots.put(id, slot);
+    }
+
+    /**
+     * Indexes every bug, such as the results of a search.
+     *
+     * @param bugs Bugs with IDs
+     */
+    public void addAll(final Iterable<? extends BugBase> bugs) {
+        for (final BugBase bug : bugs) {
+            update(bug);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bugChanged(final BugBase bug, final BugBase previous) {
+        update(bug);
+    }
+
+    /**
+     * Removes a bug from the index, for instance when it is evicted from the set
+     * indexed.
+     *
+     * @param id The ID of the bug
+     * @return true if the bug was indexed
+     */
+    public synchronized boolean remove(final int id) {
+        final Integer slot = bugSlots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        unlink(slot);
+        release(slot);
+        return true;
+    }
+
+    /**
+     * Finds the likely duplicates of a bug about to be reported.
+     *
+     * @param report The report, not sent yet
+     * @return The indexed bugs at least as similar as the threshold, most similar
+     *         first
+     */
+    public List<Candidate> findDuplicates(final ReportBug report) {
+        final Map<Object, Object> params = report.getParameterMap();
+        final Object summary = params.get(SUMMARY);
+        final Object description = params.get(DESCRIPTION);
+        return findDuplicates(summary == null ? null : summary.toString(),
+                description == null ? null : description.toString());
+    }
+
+    /**
+     * Finds the likely duplicates of a bug, other than the bug itself if it is
+     * indexed.
+     *
+     * @param bug A bug
+     * @return The indexed bugs at least as similar as the threshold, most similar
+     *         first
+     */
+    public List<Candidate> findDuplicates(final BugBase bug) {
+        final Object description = bug.getInternalState().get(DESCRIPTION);
+        final List<Candidate> candidates = findDuplicates(bug.getSummary(),
+                description == null ? null : description.toString());
+        if (bug.getID() != null) {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (candidates.get(i).id == bug.getID()) {
+                    candidates.remove(i);
+                    break;
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Finds the indexed bugs similar to a summary and description.
+     *
+     * @param summary     A summary, or null
+     * @param description A description, or null
+     * @return The indexed bugs at least as similar as the threshold, most similar
+     *         first
+     */
+    public synchronized List<Candidate> findDuplicates(final String summary, final String description) {
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+        final char[][] both = signatures(summary, description);
+        if (both[SUMMARY_ONLY] == null && both[FULL] == null) {
+            return candidates;
+        }
+        // Without one of the texts, compare what there is with either kind
+        if (both[SUMMARY_ONLY] == null) {
+            both[SUMMARY_ONLY] = both[FULL];
+        } else if (both[FULL] == null) {
+            both[FULL] = both[SUMMARY_ONLY];
+        }
+        final int minimum = (int) Math.ceil(threshold * HASHES);
+        final Map<Integer, Boolean> compared = new HashMap<Integer, Boolean>();
+        for (int kind = SUMMARY_ONLY; kind <= FULL; kind++) {
+            final char[] signature = both[kind];
+            for (int band = 0; band < BANDS; band++) {
+                final int bucket = bucket(band, bandHash(signature, band, kind), false);
+                if (bucket < 0) {
+                    continue;
+                }
+                for (int slot = bucketHeads[band][bucket] - 1; slot >= 0; slot = next[slot * BANDS + band] - 1) {
+                    // A bucket may hold slots of the other kind whose band hashes collide
+                    if (kind(slot) == kind && compared.put(slot, Boolean.TRUE) == null) {
+                        final int agreeing = agreeing(signature, slot);
+                        if (agreeing >= minimum) {
+                            candidates.add(new Candidate(slotIDs[slot], (double) agreeing / HASHES));
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(candidates, MOST_SIMILAR_FIRST);
+        return candidates;
+    }
+
+    /**
+     * @return The number of bugs indexed
+     */
+    public synchronized int size() {
+        return bugSlots.size();
+    }
+
+    /**
+     * @return An estimate of the memory taken by the index, in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        long bucketBytes = 0;
+        for (int band = 0; band < BANDS; band++) {
+            bucketBytes += 4L * (bucketKeys[band].length + bucketHeads[band].length);
+        }
+        return 2L * signatures.length + 4L * (2 * slotIDs.length + next.length + freeSlots.length) + bucketBytes
+                + 64L * bugSlots.size();
+    }
+
+    /**
+     * @return The number of values a signature has in common with that of a slot
+     */
+    private int agreeing(final char[] signature, final int slot) {
+        int agreeing = 0;
+        final int offset = slot * HASHES;
+        for (int i = 0; i < HASHES; i++) {
+            if (signatures[offset + i] == signature[i]) {
+                agreeing++;
+            }
+        }
+        return agreeing;
+    }
+
+    private int allocate() {
+        if (free > 0) {
+            return freeSlots[--free];
+        }
+        if (slots == slotIDs.length) {
+            final int capacity = slots * 2;
+            slotIDs = Arrays.copyOf(slotIDs, capacity);
+            slotSummaryHashes = Arrays.copyOf(slotSummaryHashes, capacity);
+            signatures = Arrays.copyOf(signatures, capacity * HASHES);
+            next = Arrays.copyOf(next, capacity * BANDS);
+        }
+        return slots++;
+    }
+
+    /**
+     * @return The kind of signature a slot holds
+     */
+    private int kind(final int slot) {
+        return described.get(slot) ? FULL : SUMMARY_ONLY;
+    }
+
+    private void release(final int slot) {
+        if (free == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(16, free * 2));
+        }
+        freeSlots[free++] = slot;
+    }
+
+    /**
+     * Takes a slot out of the bucket of each of its bands.
+     */
+    private void unlink(final int slot) {
+        final char[] signature = Arrays.copyOfRange(signatures, slot * HASHES, (slot + 1) * HASHES);
+        final int kind = kind(slot);
+        for (int band = 0; band < BANDS; band++) {
+            final int bucket = bucket(band, bandHash(signature, band, kind), false);
+            if (bucket < 0) {
+                continue;
+            }
+            final int[] heads = bucketHeads[band];
+            final int link = slot * BANDS + band;
+            if (heads[bucket] == slot + 1) {
+                heads[bucket] = next[link];
+            } else {
+                for (int previous = heads[bucket] - 1; previous >= 0;
+                        previous = next[previous * BANDS + band] - 1) {
+                    if (next[previous * BANDS + band] == slot + 1) {
+                        next[previous * BANDS + band] = next[link];
+                        break;
+                    }
+                }
+            }
+            next[link] = 0;
+        }
+    }
+
+    /**
+     * @return The position of a band hash in the band's bucket table, or -1 if it
+     *         has none and none is to be created
+     */
+    private int bucket(final int band, final int key, final boolean create) {
+        if (create && (buckets[band] + 1) * 4 > bucketKeys[band].length * 3) {
+            rehash(band);
+        }
+        final int[] keys = bucketKeys[band];
+        final int[] heads = bucketHeads[band];
+        final int mask = keys.length - 1;
+        int position = mix(key) & mask;
+        while (heads[position] != 0 || keys[position] != 0) {
+            if (keys[position] == key) {
+                return position;
+            }
+            position = (position + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+        keys[position] = key;
+        buckets[band]++;
+        return position;
+    }
+
+    /**
+     * Grows the bucket table of a band if needed, dropping emptied buckets.
+     */
+    private void rehash(final int band) {
+        final int[] oldKeys = bucketKeys[band];
+        final int[] oldHeads = bucketHeads[band];
+        int live = 0;
+        for (final int head : oldHeads) {
+            if (head != 0) {
+                live++;
+            }
+        }
+        int capacity = MIN_BUCKETS;
+        while (capacity < (live + 1) * 2) {
+            capacity *= 2;
+        }
+        final int[] keys = new int[capacity];
+        final int[] heads = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != 0) {
+                int position = mix(oldKeys[i]) & mask;
+                while (heads[position] != 0) {
+                    position = (position + 1) & mask;
+                }
+                keys[position] = oldKeys[i];
+                heads[position] = oldHeads[i];
+            }
+        }
+        bucketKeys[band] = keys;
+        bucketHeads[band] = heads;
+        buckets[band] = live;
+    }
+
+    /**
+     * @return The hash of one band of a signature of a kind, never zero as zero marks
+     *         a free bucket
+     */
+    private static int bandHash(final char[] signature, final int band, final int kind) {
+        int hash = band * 2 + kind;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+            hash = mix(hash * 31 + signature[i]);
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * @return The MinHash signatures of the words of a summary alone, or null if it
+     *         has none, and of the summary and description, or null if the
+     *         description has none, by kind. Only the low 16 bits of each minimum are
+     *         kept, which makes unrelated values agree once in 65536 times.
+     */
+    private static char[][] signatures(final String summary, final String description) {
+        final int[] minimums = new int[HASHES];
+        Arrays.fill(minimums, Integer.MAX_VALUE);
+        final char[][] both = new char[2][];
+        if (addWords(minimums, summary)) {
+            both[SUMMARY_ONLY] = signature(minimums);
+        }
+        if (addWords(minimums, description)) {
+            both[FULL] = signature(minimums);
+        }
+        return both;
+    }
+
+    private static char[] signature(final int[] minimums) {
+        final char[] signature = new char[HASHES];
+        for (int i = 0; i < HASHES; i++) {
+            signature[i] = (char) minimums[i];
+        }
+        return signature;
+    }
+
+    private static boolean addWords(final int[] minimums, final String text) {
+        if (text == null) {
+            return false;
+        }
+        boolean any = false;
+        int hash = 0;
+        int length = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            final char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                hash = hash * 31 + Character.toLowerCase(c);
+                length++;
+            } else if (length > 0) {
+                for (int j = 0; j < HASHES; j++) {
+                    final int value = mix(hash ^ SEEDS[j]) & Integer.MAX_VALUE;
+                    if (value < minimums[j]) {
+                        minimums[j] = value;
+                    }
+                }
+                any = true;
+                hash = 0;
+                length = 0;
+            }
+        }
+        return any;
+    }
+
+    private static int hash(final String summary) {
+        return summary == null ? 0 : summary.hashCode();
+    }
+
+    /**
+     * The finalization step of MurmurHash3, spreading every input bit over the
+     * output.
+     */
+    private static int mix(final int value) {
+        int h = value;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * An indexed bug similar to the one looked up.
+     */
+    public static final class Candidate {
+
+        private final int id;
+
+        private final double similarity;
+
+        Candidate(final int id, final double similarity) {
+            this.id = id;
+            this.similarity = similarity;
+        }
+
+        /**
+         * @return The ID of the bug
+         */
+        public int getID() {
+            return id;
+        }
+
+        /**
+         * @return The estimated Jaccard similarity of the words of the two bugs,
+         *         from 0 to 1
+         */
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + similarity;
+        }
+    }
+}
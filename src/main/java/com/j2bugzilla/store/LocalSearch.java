@@ -0,0 +1,386 @@
+package com.j2bugzilla.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.CompactBugMap;
+import com.j2bugzilla.metrics.BugzillaMetrics;
+import com.j2bugzilla.metrics.Gauge;
+import com.j2bugzilla.rpc.BugSearch;
+
+/**
+ * A {@code LocalSearch} answers {@link BugSearch BugSearches} from a {@link BugSync}
+ * replica when it can, and from the installation when it cannot. Executing a search
+ * through {@link #execute(BugSearch)} instead of the connector leaves its results in
+ * the search as usual, either way.
+ * <p/>
+ * A search is answered locally when the replica was synchronized no longer than the
+ * {@link #LocalSearch(BugzillaConnector, BugSync, long) maximum age} ago, every
+ * search limit is one this class can evaluate, and the search is at least as
+ * narrow as the replica's own query, so that every bug it would find on the
+ * installation is in the replica. A bug changed so that it no longer matches the
+ * replica's query stays in the replica as it was, so only a replica whose limits a
+ * bug cannot stop matching can answer searches: one not limited at all, or limited
+ * only by ID, reporter or creator, {@code creation_time}, which never change, or
+ * {@link BugSearch#LAST_CHANGE_TIME}, which only grows. A replica limited by
+ * product, status or any other field a bug can be moved out of never answers
+ * locally, as a bug moved to another product would still be found under the old
+ * one. Limits are evaluated the way {@code Bug.search} does: a bug matches a
+ * limit if its field equals any of the values given, or for
+ * {@link BugSearch#SUMMARY} contains any of them, or for
+ * {@link BugSearch#LAST_CHANGE_TIME} and {@code creation_time} is at or after it;
+ * local results are ordered by bug ID before {@link BugSearch#OFFSET} and
+ * {@link BugSearch#LIMIT} are applied.
+ * <p/>
+ * If a {@link BugIndex} kept up to date with the replica is
+ * {@link #setIndex(BugIndex) given}, the bugs matching its indexed fields are found
+ * through it rather than by scanning the whole replica.
+ *
+ * @param <T> The type of bug searched for
+ */
+public class LocalSearch<T extends BugBase> {
+
+    private static final String ID = "id";
+
+    private static final String CREATION_TIME = "creation_time";
+
+    /**
+     * The search limits a bug, once it matches them, cannot stop matching
+     */
+    private static final List<String> STABLE = Arrays.asList(ID, BugSearch.REPORTER, "creator", CREATION_TIME,
+            BugSearch.LAST_CHANGE_TIME);
+
+    /**
+     * The search limits naming a different field than the one holding the value
+     */
+    private static final Map<String, String> FIELDS = new HashMap<String, String>();
+
+    /**
+     * The search limits matched by equality with the field of the same name
+     */
+    private static final List<String> EXACT = Arrays.asList(BugSearch.OWNER, BugSearch.STATUS,
+            BugSearch.RESOLUTION, BugSearch.PRIORITY, BugSearch.PRODUCT, BugSearch.COMPONENT,
+            BugSearch.OPERATING_SYSTEM, BugSearch.PLATFORM, BugSearch.VERSION, BugSearch.ALIAS, "severity",
+            "qa_contact", "target_milestone", "classification", "creator", ID);
+
+    static {
+        FIELDS.put(BugSearch.REPORTER, "creator");
+    }
+
+    private final BugzillaConnector connector;
+
+    private final BugSync<T> replica;
+
+    private final long maxAge;
+
+    private volatile BugIndex index;
+
+    private final AtomicLong localSearches = new AtomicLong();
+
+    private final AtomicLong remoteSearches = new AtomicLong();
+
+    /**
+     * Creates a new {@link LocalSearch}
+     *
+     * @param connector The connector searching the installation when the replica
+     *                  cannot answer
+     * @param replica   The replica to search, kept up to date by its owner
+     * @param maxAge    How long after its last poll the replica is still fresh
+     *                  enough, in milliseconds
+     */
+    public LocalSearch(final BugzillaConnector connector, final BugSync<T> replica, final long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Maximum age must not be negative, was " + maxAge);
+        }
+        this.connector = connector;
+        this.replica = replica;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param index An index of the replica's bugs, kept up to date with it, or null
+     *              to scan the replica
+     */
+    public void setIndex(final BugIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Executes a search, locally if the replica can answer it and otherwise on the
+     * installation. The results are read from the search as after
+     * {@link BugzillaConnector#executeMethod(com.j2bugzilla.base.BugzillaMethod)
+     * executeMethod()}, or handed to its handler if it has one.
+     *
+     * @param search The search to execute
+     * @return true if the search was answered locally
+     * @throws BugzillaException If the installation has to be searched and the
+     *                           search fails
+     */
+    public boolean execute(final BugSearch<T> search) throws BugzillaException {
+        final List<T> matches = searchReplica(search.getParameterMap());
+        if (matches == null) {
+            connector.executeMethod(search);
+            remoteSearches.incrementAndGet();
+            return false;
+        }
+        if (search.getStreamedMember() != null) {
+            for (final T bug : matches) {
+                search.handleStreamedElement(copy(bug));
+            }
+        } else {
+            final Object[] bugs = new Object[matches.size()];
+            for (int i = 0; i < bugs.length; i++) {
+                bugs[i] = copy(matches.get(i));
+            }
+            final Map<Object, Object> result = new HashMap<Object, Object>();
+            result.put("bugs", bugs);
+            search.setResultMap(result);
+        }
+        localSearches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @param params The parameters of a search
+     * @return true if the replica could answer the search now
+     */
+    public boolean canAnswer(final Map<Object, Object> params) {
+        return isFresh() && isEvaluable(params) && isCovered(params);
+    }
+
+    /**
+     * @return The number of searches answered from the replica
+     */
+    public long getLocalSearches() {
+        return localSearches.get();
+    }
+
+    /**
+     * @return The number of searches sent to the installation
+     */
+    public long getRemoteSearches() {
+        return remoteSearches.get();
+    }
+
+    /**
+     * Publishes the number of searches answered locally and remotely as counters.
+     *
+     * @param metrics The registry to publish to
+     */
+    public void registerGauges(final BugzillaMetrics metrics) {
+        metrics.registerCounter("bugzilla_local_searches_total", "Searches answered from the local replica",
+                new Gauge() {
+                    public double getValue() {
+                        return getLocalSearches();
+                    }
+                });
+        metrics.registerCounter("bugzilla_remote_searches_total", "Searches sent to the installation", new Gauge() {
+            public double getValue() {
+                return getRemoteSearches();
+            }
+        });
+    }
+
+    /**
+     * @return The matching bugs, or null if the replica cannot answer the search
+     */
+    private List<T> searchReplica(final Map<Object, Object> params) {
+        if (!canAnswer(params)) {
+            return null;
+        }
+        final List<T> matches = new ArrayList<T>();
+        final BugIndex currentIndex = index;
+        final CompressedBitmap candidates = currentIndex == null ? null : candidates(currentIndex, params);
+        if (candidates != null) {
+            for (final int id : candidates.toArray()) {
+                final T bug = replica.getBug(id);
+                if (bug != null && matches(bug.getInternalState(), params)) {
+                    matches.add(bug);
+                }
+            }
+        } else {
+            for (final T bug : replica.getBugs()) {
+                if (matches(bug.getInternalState(), params)) {
+                    matches.add(bug);
+                }
+            }
+            Collections.sort(matches, new Comparator<T>() {
+                public int compare(final T a, final T b) {
+                    return a.getID().compareTo(b.getID());
+                }
+            });
+        }
+        final int offset = Math.min(intValue(params.get(BugSearch.OFFSET), 0), matches.size());
+        final int limit = intValue(params.get(BugSearch.LIMIT), 0);
+        final int end = limit > 0 ? Math.min(offset + limit, matches.size()) : matches.size();
+        return matches.subList(offset, end);
+    }
+
+    private boolean isFresh() {
+        final Date lastSync = replica.getLastSyncTime();
+        return lastSync != null && System.currentTimeMillis() - lastSync.getTime() <= maxAge;
+    }
+
+    private static boolean isEvaluable(final Map<Object, Object> params) {
+        for (final Map.Entry<Object, Object> limit : params.entrySet()) {
+            final Object key = limit.getKey();
+            if (BugSearch.LAST_CHANGE_TIME.equals(key) || CREATION_TIME.equals(key)) {
+                if (!(limit.getValue() instanceof Date)) {
+                    return false;
+                }
+            } else if (BugSearch.LIMIT.equals(key) || BugSearch.OFFSET.equals(key)) {
+                if (!(limit.getValue() instanceof Number)) {
+                    return false;
+                }
+            } else if (!BugSearch.SUMMARY.equals(key) && !EXACT.contains(key) && !FIELDS.containsKey(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every limit of the replica is one its bugs cannot stop matching
+     *         and is also a limit of the search, with no value the replica's does
+     *         not allow
+     */
+    private boolean isCovered(final Map<Object, Object> params) {
+        for (final Map.Entry<String, Object> limit : replica.getQueryParams().entrySet()) {
+            if (!STABLE.contains(limit.getKey())) {
+                return false;
+            }
+            final Object value = params.get(limit.getKey());
+            if (value == null) {
+                return false;
+            }
+            if (BugSearch.LAST_CHANGE_TIME.equals(limit.getKey()) || CREATION_TIME.equals(limit.getKey())) {
+                if (!(value instanceof Date) || !(limit.getValue() instanceof Date)
+                        || ((Date) value).before((Date) limit.getValue())) {
+                    return false;
+                }
+            } else if (!values(limit.getValue()).containsAll(values(value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The IDs of the bugs matching the indexed limits, or null if none is
+     *         indexed
+     */
+    private static CompressedBitmap candidates(final BugIndex index, final Map<Object, Object> params) {
+        CompressedBitmap candidates = null;
+        for (final Map.Entry<Object, Object> limit : params.entrySet()) {
+            final String field = field(limit.getKey().toString());
+            if (!EXACT.contains(field) || !index.isIndexed(field)) {
+                continue;
+            }
+            CompressedBitmap matching = new CompressedBitmap();
+            for (final String value : values(limit.getValue())) {
+                matching = matching.or(index.get(field, value));
+            }
+            candidates = candidates == null ? matching : candidates.and(matching);
+        }
+        return candidates;
+    }
+
+    private static boolean matches(final Map<String, Object> state, final Map<Object, Object> params) {
+        for (final Map.Entry<Object, Object> limit : params.entrySet()) {
+            final String key = limit.getKey().toString();
+            if (BugSearch.LIMIT.equals(key) || BugSearch.OFFSET.equals(key)) {
+                continue;
+            }
+            final Object actual = state.get(field(key));
+            if (BugSearch.LAST_CHANGE_TIME.equals(key) || CREATION_TIME.equals(key)) {
+                if (!(actual instanceof Date) || ((Date) actual).before((Date) limit.getValue())) {
+                    return false;
+                }
+            } else if (BugSearch.SUMMARY.equals(key)) {
+                if (!containsAny(actual, values(limit.getValue()))) {
+                    return false;
+                }
+            } else if (!equalsAny(actual, values(limit.getValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsAny(final Object actual, final List<String> values) {
+        if (actual instanceof Object[]) {
+            for (final Object element : (Object[]) actual) {
+                if (element != null && values.contains(element.toString())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return actual != null && values.contains(actual.toString());
+    }
+
+    private static boolean containsAny(final Object actual, final List<String> values) {
+        if (actual == null) {
+            return false;
+        }
+        final String text = actual.toString().toLowerCase();
+        for (final String value : values) {
+            if (text.contains(value.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String field(final String key) {
+        final String field = FIELDS.get(key);
+        return field == null ? key : field;
+    }
+
+    /**
+     * @return The values of a search limit, which may be a single value, an array or
+     *         a collection, as strings
+     */
+    private static List<String> values(final Object value) {
+        final List<String> values = new ArrayList<String>();
+        if (value instanceof Object[]) {
+            for (final Object element : (Object[]) value) {
+                values.add(String.valueOf(element));
+            }
+        } else if (value instanceof Collection) {
+            for (final Object element : (Collection<?>) value) {
+                values.add(String.valueOf(element));
+            }
+        } else if (value != null) {
+            values.add(value.toString());
+        }
+        return values;
+    }
+
+    private static int intValue(final Object value, final int defaultValue) {
+        return value == null ? defaultValue : ((Number) value).intValue();
+    }
+
+    /**
+     * @return A copy of a bug's state, so that the search's bugs are independent of
+     *         the replica's
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> copy(final BugBase bug) {
+        final Map<String, Object> state = bug.getInternalState();
+        final Map<String, Object> copy = state instanceof CompactBugMap ? ((CompactBugMap) state).copy()
+                : new HashMap<String, Object>(state);
+        return (Map<Object, Object>) (Map<?, ?>) copy;
+    }
+}
@@ -0,0 +1,346 @@
+package com.j2bugzilla.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.codec.BinaryCodec;
+
+/**
+ * A {@code MappedBugStore} persists the state of any number of bugs in a directory of
+ * memory-mapped segment files, so that a restarted process can serve bugs as soon as
+ * the files are mapped rather than after downloading them again.
+ * <p/>
+ * Every {@link #put(BugBase)} appends a record to the current segment, the state
+ * encoded by the {@link BinaryCodec}, and a
+ * new segment is started once it is full. An index from bug ID to the latest record
+ * is built when the store is opened, by checking the checksum of every record, and
+ * kept up to date as bugs are stored; the state itself is only decoded when a bug is
+ * read. The pages of a mapping reach the disk in no particular order, so after a crash
+ * a segment is read up to its first record that fails its checksum, and later records
+ * are written over it.
+ * Superseded records are not reclaimed, so a store that is rewritten often should be
+ * rebuilt from time to time.
+ * <p/>
+ * To reconcile the store with the installation after a restart, give a
+ * {@link BugSync} the store's {@link #getHighWaterMark() high-water mark} and store
+ * every bug it reports as changed.
+ * <p/>
+ * Reads may be made from any number of threads, concurrently with writes; writes
+ * are serialized. A directory must only be used by one store at a time.
+ */
+public class MappedBugStore implements Closeable {
+
+    /**
+     * The size of a segment file unless told otherwise
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4A32424E;
+
+    private static final int VERSION = 3;
+
+    private static final int SEGMENT_HEADER = 8;
+
+    /**
+     * The bytes a record takes besides its state: a tag holding the state's length
+     * plus one, or -1 for a removal, a CRC-32 of the rest of the record, the bug ID and
+     * the bug's last change time. A zero tag marks the end of the records in a segment.
+     */
+    private static final int RECORD_HEADER = 4 + 4 + 4 + 8;
+
+    private static final int REMOVED = -1;
+
+    private static final String LAST_CHANGE_TIME = "last_change_time";
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    /**
+     * The mapped segments, replaced by a longer copy whenever a segment is added
+     */
+    private volatile MappedByteBuffer[] segments;
+
+    /**
+     * The location of the latest record of each bug: its segment in the upper 32
+     * bits, and its offset in the lower
+     */
+    private final Map<Integer, Long> index = new ConcurrentHashMap<Integer, Long>();
+
+    /**
+     * The offset in the last segment at which the next record is written
+     */
+    private int position;
+
+    private long highWaterMark = Long.MIN_VALUE;
+
+    /**
+     * Opens a {@link MappedBugStore} with segments of {@link #DEFAULT_SEGMENT_SIZE}
+     * bytes.
+     *
+     * @param directory The directory holding the segment files, created if necessary
+     * @throws IOException If the segments cannot be mapped
+     */
+    public MappedBugStore(final File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a {@link MappedBugStore}, mapping and indexing the segments written by
+     * earlier runs.
+     *
+     * @param directory   The directory holding the segment files, created if necessary
+     * @param segmentSize The size of a new segment file, which bounds the size of a
+     *                    single bug's record
+     * @throws IOException If the segments cannot be mapped, or were not written by a
+     *                     {@link MappedBugStore}
+     */
+    public MappedBugStore(final File directory, final int segmentSize) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("Segment size too small, was " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        final List<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+        for (int i = 0; segmentFile(i).exists(); i++) {
+            final MappedByteBuffer segment = map(segmentFile(i), segmentFile(i).length());
+            if (segment.getInt(0) != MAGIC) {
+                throw new IOException(segmentFile(i) + " is not a bug store segment");
+            }
+            if (segment.getInt(4) != VERSION) {
+                throw new IOException(segmentFile(i) + " was written by an incompatible version, "
+                        + segment.getInt(4));
+            }
+            position = scan(i, segment);
+            mapped.add(segment);
+        }
+        segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+        if (segments.length == 0) {
+            addSegment();
+        }
+    }
+
+    /**
+     * Stores the current state of a bug, replacing any state stored before.
+     *
+     * @param bug A bug with an ID
+     * @throws IOException If a new segment is needed and cannot be mapped
+     */
+    public synchronized void put(final BugBase bug) throws IOException {
+        if (bug.getID() == null) {
+            throw new IllegalArgumentException("Only bugs with an ID can be stored");
+        }
+        final ByteBuffer state = BinaryCodec.encode(bug);
+        final Object time = bug.getInternalState().get(LAST_CHANGE_TIME);
+        append(bug.getID(), state.remaining() + 1, time instanceof Date ? ((Date) time).getTime() : Long.MIN_VALUE,
+                state);
+    }
+
+    /**
+     * Removes a bug from the store.
+     *
+     * @param id The ID of the bug
+     * @throws IOException If a new segment is needed and cannot be mapped
+     */
+    public synchronized void remove(final int id) throws IOException {
+        if (index.containsKey(id)) {
+            append(id, REMOVED, Long.MIN_VALUE, ByteBuffer.allocate(0));
+        }
+    }
+
+    /**
+     * @param id The ID of a bug
+     * @return The stored state of the bug, or null if it is not stored
+     */
+    public Map<String, Object> getState(final int id) {
+        final ByteBuffer record = record(id);
+        return record == null ? null : BinaryCodec.decodeState(record);
+    }
+
+    /**
+     * @param id       The ID of a bug
+     * @param bugClass The type of bug to create
+     * @param <T>      The type of bug to create
+     * @return The stored bug, or null if it is not stored
+     * @throws InstantiationException If the bug class cannot be instantiated
+     * @throws IllegalAccessException If the bug class has no accessible constructor
+     */
+    public <T extends BugBase> T getBug(final int id, final Class<T> bugClass)
+            throws InstantiationException, IllegalAccessException {
+        final ByteBuffer record = record(id);
+        return record == null ? null : BinaryCodec.decodeBug(record, bugClass);
+    }
+
+    /**
+     * @return The IDs of every stored bug, in no particular order
+     */
+    public List<Integer> getBugIDs() {
+        return new ArrayList<Integer>(index.keySet());
+    }
+
+    /**
+     * @return The number of stored bugs
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return The latest {@code last_change_time} of any bug stored, or null if none
+     *         has one
+     */
+    public synchronized Date getHighWaterMark() {
+        return highWaterMark == Long.MIN_VALUE ? null : new Date(highWaterMark);
+    }
+
+    /**
+     * Forces every record written so far to disk.
+     */
+    public synchronized void flush() {
+        for (final MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Flushes the store. The segments stay mapped until they are garbage collected,
+     * and the store must not be used afterwards.
+     */
+    public synchronized void close() {
+        flush();
+    }
+
+    /**
+     * @return A view of the segment holding a bug's latest record, positioned at its
+     *         state, or null if the bug is not stored
+     */
+    private ByteBuffer record(final int id) {
+        final Long location = index.get(id);
+        if (location == null) {
+            return null;
+        }
+        final ByteBuffer record = segments[(int) (location >>> 32)].duplicate();
+        record.position((int) location.longValue() + RECORD_HEADER);
+        return record;
+    }
+
+    private void append(final int id, final int tag, final long time, final ByteBuffer state) throws IOException {
+        final int length = RECORD_HEADER + state.remaining();
+        if (SEGMENT_HEADER + length + 4 > segmentSize) {
+            throw new IllegalArgumentException("The state of bug " + id + " takes " + state.remaining()
+                    + " bytes, more than a segment can hold");
+        }
+        // Leave room for the zero tag marking the end of the records
+        if (position + length + 4 > segments[segments.length - 1].capacity()) {
+            addSegment();
+        }
+        final int segment = segments.length - 1;
+        final ByteBuffer out = segments[segment].duplicate();
+        // After a crash the next record may be written over a torn one, so end the
+        // records explicitly rather than trusting the rest of the segment to be zero
+        out.putInt(position + length, 0);
+        out.position(position + 8);
+        out.putInt(id);
+        out.putLong(time);
+        out.put(state);
+        out.putInt(position + 4, checksum(out, position + 8, position + length));
+        out.putInt(position, tag);
+
+        if (tag == REMOVED) {
+            index.remove(id);
+        } else {
+            index.put(id, ((long) segment << 32) | position);
+            highWaterMark = Math.max(highWaterMark, time);
+        }
+        position += length;
+    }
+
+    /**
+     * Indexes the records of a segment, up to the first zero tag or the first record
+     * that is torn or corrupt.
+     *
+     * @return The offset after the last valid record
+     */
+    private int scan(final int segment, final ByteBuffer buffer) {
+        int offset = SEGMENT_HEADER;
+        while (offset + RECORD_HEADER <= buffer.capacity()) {
+            final int tag = buffer.getInt(offset);
+            if (tag == 0 || tag < REMOVED) {
+                break;
+            }
+            final long end = (long) offset + RECORD_HEADER + (tag == REMOVED ? 0 : tag - 1);
+            if (end > buffer.capacity() || buffer.getInt(offset + 4) != checksum(buffer, offset + 8, (int) end)) {
+                break;
+            }
+            final int id = buffer.getInt(offset + 8);
+            if (tag == REMOVED) {
+                index.remove(id);
+            } else {
+                index.put(id, ((long) segment << 32) | offset);
+                highWaterMark = Math.max(highWaterMark, buffer.getLong(offset + 12));
+            }
+            offset = (int) end;
+        }
+        return offset;
+    }
+
+    /**
+     * @return The CRC-32 of a range of a buffer
+     */
+    private static int checksum(final ByteBuffer buffer, final int from, final int to) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer range = buffer.duplicate();
+        range.limit(to);
+        range.position(from);
+        final byte[] chunk = new byte[Math.min(to - from, 8192)];
+        while (range.hasRemaining()) {
+            final int n = Math.min(chunk.length, range.remaining());
+            range.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    private void addSegment() throws IOException {
+        final int number = segments == null ? 0 : segments.length;
+        final MappedByteBuffer segment = map(segmentFile(number), segmentSize);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        final MappedByteBuffer[] larger = segments == null ? new MappedByteBuffer[1]
+                : Arrays.copyOf(segments, number + 1);
+        larger[number] = segment;
+        segments = larger;
+        position = SEGMENT_HEADER;
+    }
+
+    private File segmentFile(final int number) {
+        return new File(directory, String.format("segment-%05d.dat", number));
+    }
+
+    private static MappedByteBuffer map(final File file, final long size) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // The mapping stays valid once the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+}
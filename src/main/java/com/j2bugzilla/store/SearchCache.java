@@ -0,0 +1,446 @@
+package com.j2bugzilla.store;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.CompactBugMap;
+import com.j2bugzilla.base.MethodListener;
+import com.j2bugzilla.metrics.BugzillaMetrics;
+import com.j2bugzilla.metrics.Gauge;
+import com.j2bugzilla.rpc.BugSearch;
+
+/**
+ * A {@code SearchCache} keeps the results of recent {@link BugSearch BugSearches},
+ * so that a search made again shortly afterwards, by the same or another user, is
+ * answered without a call to the installation. Executing a search through
+ * {@link #execute(BugSearch)} instead of the connector leaves its results in the
+ * search as usual, either way.
+ * <p/>
+ * Searches are cached by a canonical form of their parameters: the order in which
+ * limits were added does not matter, nor that of the values of a limit, and a
+ * single value is the same as an array or collection holding only it. Numbers,
+ * strings and booleans are compared by their text, so that a limit of
+ * {@code 5} and one of {@code "5"} are the same search.
+ * <p/>
+ * Results expire a fixed time after they were retrieved, and the least recently
+ * used are evicted once the estimated memory taken by all cached bugs exceeds a
+ * limit. The cache listens to its connector, and drops every result containing a
+ * bug as soon as that bug is updated, commented on or given an attachment through
+ * the connector; an update to an attachment, which names the attachment rather than
+ * its bug, drops every result. A result retrieved while a bug was changed through
+ * the connector may not show the change, so it is not cached. Changes made
+ * elsewhere, and changes which make a bug match a search it did not match before,
+ * are only seen once the result expires. Searches with a
+ * {@link com.j2bugzilla.base.BugHandler BugHandler} are not cached.
+ * <p/>
+ * A {@code SearchCache} is thread-safe.
+ *
+ * @param <T> The type of bug searched for
+ */
+public class SearchCache<T extends BugBase> implements MethodListener {
+
+    /**
+     * The methods changing the bugs given by their {@code ids} or {@code id}
+     * parameter
+     */
+    private static final Set<String> UPDATES = new HashSet<String>(Arrays.asList("Bug.update",
+            "Bug.add_comment", "Bug.add_attachment", "Bug.update_see_also", "Bug.update_tags"));
+
+    /**
+     * The methods changing bugs given only by the IDs of their attachments
+     */
+    private static final Set<String> ATTACHMENT_UPDATES = new HashSet<String>(Arrays.asList(
+            "Bug.update_attachment"));
+
+    private final BugzillaConnector connector;
+
+    private final long timeToLive;
+
+    private final long maxWeight;
+
+    /**
+     * The cached results by canonical parameters, least recently used first
+     */
+    private final LinkedHashMap<Map<String, SortedSet<String>>, Entry> entries =
+            new LinkedHashMap<Map<String, SortedSet<String>>, Entry>(16, 0.75f, true);
+
+    private long weight;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long invalidations;
+
+    /**
+     * Incremented whenever bugs change or the cache is cleared, so that a search
+     * retrieved meanwhile is not cached
+     */
+    private long generation;
+
+    /**
+     * Creates a new {@link SearchCache} and registers it with the connector.
+     *
+     * @param connector  The connector to search through, and to listen to for changes
+     * @param timeToLive How long results are kept, in milliseconds
+     * @param maxWeight  The estimated number of bytes all cached bugs may take
+     */
+    public SearchCache(final BugzillaConnector connector, final long timeToLive, final long maxWeight) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive, was " + timeToLive);
+        }
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive, was " + maxWeight);
+        }
+        this.connector = connector;
+        this.timeToLive = timeToLive;
+        this.maxWeight = maxWeight;
+        connector.addMethodListener(this);
+    }
+
+    /**
+     * Executes a search, answering it from the cache if it holds a live result for
+     * the same parameters, and otherwise on the installation, caching the result.
+     *
+     * @param search The search to execute
+     * @return true if the search was answered from the cache
+     * @throws BugzillaException If the installation has to be searched and the
+     *                           search fails
+     */
+    public boolean execute(final BugSearch<T> search) throws BugzillaException {
+        if (search.getStreamedMember() != null) {
+            connector.executeMethod(search);
+            return false;
+        }
+        final Map<String, SortedSet<String>> key = canonicalize(search.getParameterMap());
+        final Object[] cached = get(key);
+        if (cached != null) {
+            final Object[] bugs = new Object[cached.length];
+            for (int i = 0; i < bugs.length; i++) {
+                bugs[i] = copy(cached[i]);
+            }
+            final Map<Object, Object> result = new HashMap<Object, Object>();
+            result.put("bugs", bugs);
+            search.setResultMap(result);
+            return true;
+        }
+
+        final long retrieved = System.currentTimeMillis();
+        final long started = getGeneration();
+        connector.executeMethod(search);
+        final List<T> results;
+        try {
+            results = search.getSearchResults();
+        } catch (InstantiationException e) {
+            throw new BugzillaException("Unable to create bug", e);
+        } catch (IllegalAccessException e) {
+            throw new BugzillaException("Unable to create bug", e);
+        }
+        final Object[] states = new Object[results.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = copy(results.get(i).getInternalState());
+        }
+        put(key, new Entry(states, retrieved), started);
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void methodExecuted(final BugzillaMethod method) {
+        if (ATTACHMENT_UPDATES.contains(method.getMethodName())) {
+            invalidate(new HashSet<Integer>(), true);
+            return;
+        }
+        if (!UPDATES.contains(method.getMethodName())) {
+            return;
+        }
+        final Map<Object, Object> params = method.getParameterMap();
+        final Set<Integer> ids = new HashSet<Integer>();
+        boolean all = !params.containsKey("ids") && !params.containsKey("id");
+        for (final Object value : Arrays.asList(params.get("ids"), params.get("id"))) {
+            for (final Object id : elements(value)) {
+                if (id instanceof Integer) {
+                    ids.add((Integer) id);
+                } else {
+                    // A bug given by its alias could be in any result
+                    all = true;
+                }
+            }
+        }
+        invalidate(ids, all);
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * @return The number of cached results, including any which expired but have not
+     *         been evicted yet
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The estimated number of bytes taken by the cached bugs
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return The number of searches answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of searches sent to the installation
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of results evicted to stay under the maximum weight
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of results dropped because a bug in them changed
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Publishes the size and weight of this cache as gauges, and its hit counts as
+     * counters.
+     *
+     * @param metrics The registry to publish to
+     */
+    public void registerGauges(final BugzillaMetrics metrics) {
+        metrics.registerGauge("bugzilla_search_cache_entries", "Search results held by the cache", new Gauge() {
+            public double getValue() {
+                return size();
+            }
+        });
+        metrics.registerGauge("bugzilla_search_cache_bytes", "Estimated memory taken by cached search results",
+                new Gauge() {
+                    public double getValue() {
+                        return getWeight();
+                    }
+                });
+        metrics.registerCounter("bugzilla_search_cache_hits_total", "Searches answered from the cache", new Gauge() {
+            public double getValue() {
+                return getHits();
+            }
+        });
+        metrics.registerCounter("bugzilla_search_cache_misses_total", "Searches sent to the installation", new Gauge() {
+            public double getValue() {
+                return getMisses();
+            }
+        });
+    }
+
+    private synchronized Object[] get(final Map<String, SortedSet<String>> key) {
+        final Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.retrieved < timeToLive) {
+            hits++;
+            return entry.states;
+        }
+        if (entry != null) {
+            remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a result, unless it is too heavy or bugs changed since the search was
+     * sent, in which case the result may predate the change.
+     */
+    private synchronized void put(final Map<String, SortedSet<String>> key, final Entry entry, final long started) {
+        if (entry.weight > maxWeight || generation != started) {
+            return;
+        }
+        remove(key);
+        entries.put(key, entry);
+        weight += entry.weight;
+        final Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > maxWeight) {
+            final Entry evicted = eldest.next();
+            eldest.remove();
+            weight -= evicted.weight;
+            evictions++;
+        }
+    }
+
+    private synchronized void invalidate(final Set<Integer> ids, final boolean all) {
+        generation++;
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (all || entry.containsAny(ids)) {
+                iterator.remove();
+                weight -= entry.weight;
+                invalidations++;
+            }
+        }
+    }
+
+    private void remove(final Map<String, SortedSet<String>> key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    /**
+     * @return The parameters by name, each with the sorted, distinct text of its
+     *         values
+     */
+    private static Map<String, SortedSet<String>> canonicalize(final Map<Object, Object> params) {
+        final Map<String, SortedSet<String>> canonical = new TreeMap<String, SortedSet<String>>();
+        for (final Map.Entry<Object, Object> param : params.entrySet()) {
+            final SortedSet<String> values = new TreeSet<String>();
+            for (final Object value : elements(param.getValue())) {
+                values.add(text(value));
+            }
+            canonical.put(param.getKey().toString(), values);
+        }
+        return canonical;
+    }
+
+    private static String text(final Object value) {
+        if (value instanceof Date) {
+            return "@" + ((Date) value).getTime();
+        }
+        if (value instanceof Double || value instanceof Float) {
+            final double d = ((Number) value).doubleValue();
+            return d == Math.rint(d) && !Double.isInfinite(d) ? Long.toString((long) d) : Double.toString(d);
+        }
+        return String.valueOf(value).trim();
+    }
+
+    /**
+     * @return The values of a parameter, which may be a single value, an array or a
+     *         collection
+     */
+    private static Collection<?> elements(final Object value) {
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        }
+        return value == null ? Arrays.asList() : Arrays.asList(value);
+    }
+
+    /**
+     * @return A copy of a bug's state, so that cached states are independent of the
+     *         bugs handed out
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> copy(final Object state) {
+        final Map<String, Object> copy = state instanceof CompactBugMap ? ((CompactBugMap) state).copy()
+                : new HashMap<String, Object>((Map<String, Object>) state);
+        return (Map<Object, Object>) (Map<?, ?>) copy;
+    }
+
+    /**
+     * @return An estimate of the bytes taken by a decoded value
+     */
+    private static long weigh(final Object value) {
+        if (value instanceof String) {
+            return 40 + ((String) value).length() * 2L;
+        }
+        if (value instanceof Object[]) {
+            long bytes = 16 + ((Object[]) value).length * 4L;
+            for (final Object element : (Object[]) value) {
+                bytes += weigh(element);
+            }
+            return bytes;
+        }
+        if (value instanceof Map) {
+            long bytes = 48;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                bytes += 32 + weigh(entry.getValue());
+            }
+            return bytes;
+        }
+        return value == null ? 0 : 24;
+    }
+
+    /**
+     * A cached result: the states of the bugs found, sorted IDs for invalidation,
+     * and when the result was retrieved.
+     */
+    private static class Entry {
+        final Object[] states;
+
+        final int[] ids;
+
+        final long retrieved;
+
+        final long weight;
+
+        Entry(final Object[] states, final long retrieved) {
+            this.states = states;
+            this.retrieved = retrieved;
+            final int[] found = new int[states.length];
+            long bytes = 64 + states.length * 8L;
+            int n = 0;
+            for (final Object state : states) {
+                final Object id = ((Map<?, ?>) state).get("id");
+                if (id instanceof Integer) {
+                    found[n++] = (Integer) id;
+                }
+                bytes += weigh(state);
+            }
+            ids = Arrays.copyOf(found, n);
+            Arrays.sort(ids);
+            weight = bytes;
+        }
+
+        boolean containsAny(final Set<Integer> changed) {
+            for (final Integer id : changed) {
+                if (Arrays.binarySearch(ids, id) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
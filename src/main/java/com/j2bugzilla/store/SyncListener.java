@@ -0,0 +1,21 @@
+package com.j2bugzilla.store;
+
+import com.j2bugzilla.base.BugBase;
+
+/**
+ * A {@code SyncListener} is told about every bug a {@link BugSync} adds to or
+ * changes in its replica.
+ *
+ * @param <T> The type of bug synchronized
+ */
+public interface SyncListener<T extends BugBase> {
+
+    /**
+     * Called once the replica holds the new state of a bug.
+     *
+     * @param bug      The bug as it is now
+     * @param previous The bug as the replica held it before, or null if it is new
+     *                 to the replica
+     */
+    void bugChanged(T bug, T previous);
+}
@@ -0,0 +1,640 @@
+package com.j2bugzilla.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.j2bugzilla.base.BugBase;
+import com.j2bugzilla.base.Comment;
+
+/**
+ * A {@code TextIndex} is an inverted index over the summaries and comments of a
+ * local set of bugs, so that keyword searches are answered without sending a
+ * {@code Bug.search} for a summary substring to the installation. Text is split into
+ * lower case runs of letters and digits; a search returns the bugs containing any
+ * of its words, best first, ranked by BM25 with words in the summary weighing more
+ * than words in comments.
+ * <p/>
+ * Summaries are indexed by {@link #update(BugBase) updating} the index with each bug
+ * as it is stored or changed, which, added as a {@link SyncListener} to a
+ * {@link BugSync}, it does by itself. Comments are indexed by
+ * {@link #addComments(Map) adding} those returned by
+ * {@link CommentStore#refresh(com.j2bugzilla.base.BugzillaConnector, java.util.Collection)
+ * CommentStore.refresh()}, or every comment of a store; comments already indexed for
+ * a bug are recognized by their IDs and skipped.
+ * <p/>
+ * <code>
+ * TextIndex index = new TextIndex();<br />
+ * sync.addListener(index);<br />
+ * index.addComments(comments.refresh(conn, ids));<br />
+ * List&lt;TextIndex.Hit&gt; hits = index.search("crash on startup", 20);<br />
+ * </code>
+ * <p/>
+ * The summary and each comment are indexed as separate documents, appended to the
+ * posting lists of their words as gap and frequency varints. A changed summary or a
+ * removed bug leaves its documents in place, marked deleted, until they make up
+ * half the index and it is compacted. A {@code TextIndex} is thread-safe.
+ */
+public class TextIndex implements SyncListener<BugBase> {
+
+    /**
+     * Words longer than this are not indexed
+     */
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private static final float K1 = 1.2f;
+
+    private static final float B = 0.75f;
+
+    private static final float SUMMARY_WEIGHT = 2.0f;
+
+    private static final int SUMMARY = 0;
+
+    private static final int COMMENT = 1;
+
+    /**
+     * How many documents have to be deleted before the index is compacted, at least
+     */
+    private static final int MIN_DELETED = 1024;
+
+    private static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+        public int compare(final Hit a, final Hit b) {
+            if (a.score != b.score) {
+                return a.score < b.score ? -1 : 1;
+            }
+            return a.id < b.id ? 1 : a.id == b.id ? 0 : -1;
+        }
+    };
+
+    private final Map<String, Postings> postings = new HashMap<String, Postings>();
+
+    /**
+     * The number of documents, deleted ones included
+     */
+    private int docs;
+
+    private int[] docSlots = new int[16];
+
+    private int[] docLengths = new int[16];
+
+    private BitSet commentDocs = new BitSet();
+
+    private BitSet deletedDocs = new BitSet();
+
+    /**
+     * The number of deleted documents, those of removed bugs included
+     */
+    private int deleted;
+
+    /**
+     * The number of words and documents of each kind which are not deleted
+     */
+    private final long[] fieldLengths = new long[2];
+
+    private final int[] fieldDocs = new int[2];
+
+    /**
+     * The slot of each bug, under which its documents are scored
+     */
+    private final Map<Integer, Integer> bugSlots = new HashMap<Integer, Integer>();
+
+    /**
+     * The number of slots, removed ones included
+     */
+    private int slots;
+
+    private int[] slotIDs = new int[16];
+
+    private String[] slotSummaries = new String[16];
+
+    private int[] slotSummaryDocs = new int[16];
+
+    private int[] slotLastComments = new int[16];
+
+    private int[] slotCommentDocs = new int[16];
+
+    private int[] slotCommentLengths = new int[16];
+
+    private BitSet removedSlots = new BitSet();
+
+    /**
+     * The score of each slot during a search, zero between searches
+     */
+    private float[] scores = new float[0];
+
+    private int[] touched = new int[0];
+
+    /**
+     * Indexes the summary of a bug, replacing the one indexed before.
+     *
+     * @param bug A bug with an ID
+     */
+    public void update(final BugBase bug) {
+        if (bug.getID() == null) {
+            throw new IllegalArgumentException("Only bugs with an ID can be indexed");
+        }
+        setSummary(bug.getID(), bug.getSummary());
+    }
+
+    /**
+     * Indexes the summary of every bug, such as the results of a search.
+     *
+     * @param bugs Bugs with IDs
+     */
+    public void addAll(final Iterable<? extends BugBase> bugs) {
+        for (final BugBase bug : bugs) {
+            update(bug);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bugChanged(final BugBase bug, final BugBase previous) {
+        update(bug);
+    }
+
+    /**
+     * Indexes the summary of a bug, replacing the one indexed before.
+     *
+     * @param id      The ID of the bug
+     * @param summary Its summary, or null if it has none
+     */
+    public synchronized void setSummary(final int id, final String summary) {
+        final int slot = slot(id);
+        final String old = slotSummaries[slot];
+        if (old == null ? summary == null : old.equals(summary)) {
+            return;
+        }
+        if (slotSummaryDocs[slot] >= 0) {
+            delete(slotSummaryDocs[slot]);
+        }
+        slotSummaries[slot] = summary;
+        slotSummaryDocs[slot] = summary == null ? -1 : add(slot, SUMMARY, summary);
+        compactIfNeeded();
+    }
+
+    /**
+     * Indexes the comments of a bug not indexed yet. Comments are expected in the
+     * order they were made, as retrieved from the installation; those with an ID no
+     * greater than the last one indexed for the bug are skipped.
+     *
+     * @param id       The ID of the bug
+     * @param comments Its comments
+     */
+    public synchronized void addComments(final int id, final List<Comment> comments) {
+        final int slot = slot(id);
+        for (final Comment comment : comments) {
+            if (comment.getID() > 0) {
+                if (comment.getID() <= slotLastComments[slot]) {
+                    continue;
+                }
+                slotLastComments[slot] = comment.getID();
+            }
+            if (comment.getText() != null) {
+                final int doc = add(slot, COMMENT, comment.getText());
+                if (doc >= 0) {
+                    slotCommentDocs[slot]++;
+                    slotCommentLengths[slot] += docLengths[doc];
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the comments of many bugs not indexed yet, such as those returned by
+     * {@link CommentStore#refresh(com.j2bugzilla.base.BugzillaConnector, java.util.Collection)
+     * CommentStore.refresh()}.
+     *
+     * @param comments The comments of each bug, by bug ID
+     */
+    public void addComments(final Map<Integer, List<Comment>> comments) {
+        for (final Map.Entry<Integer, List<Comment>> entry : comments.entrySet()) {
+            addComments(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Indexes every comment held by a store not indexed yet.
+     *
+     * @param store The store to read
+     */
+    public void addComments(final CommentStore store) {
+        for (final Integer id : store.getBugIDs()) {
+            addComments(id, store.getComments(id));
+        }
+    }
+
+    /**
+     * Removes the summary and comments of a bug from the index, for instance when it
+     * is evicted from the set indexed.
+     *
+     * @param id The ID of the bug
+     * @return true if the bug was indexed
+     */
+    public synchronized boolean remove(final int id) {
+        final Integer slot = bugSlots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        if (slotSummaryDocs[slot] >= 0) {
+            delete(slotSummaryDocs[slot]);
+        }
+        fieldDocs[COMMENT] -= slotCommentDocs[slot];
+        fieldLengths[COMMENT] -= slotCommentLengths[slot];
+        deleted += slotCommentDocs[slot];
+        slotSummaries[slot] = null;
+        removedSlots.set(slot);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Finds the bugs whose summary or comments contain any word of a query, best
+     * match first.
+     *
+     * @param query The words to search for
+     * @param limit How many bugs to return at most
+     * @return The best matching bugs, no more than the limit
+     */
+    public synchronized List<Hit> search(final String query, final int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive, was " + limit);
+        }
+        final int liveDocs = fieldDocs[SUMMARY] + fieldDocs[COMMENT];
+        if (liveDocs == 0) {
+            return new ArrayList<Hit>();
+        }
+        final float[] averageLengths = new float[2];
+        for (int field = 0; field < 2; field++) {
+            averageLengths[field] = fieldDocs[field] == 0 ? 1 : (float) fieldLengths[field] / fieldDocs[field];
+        }
+        if (scores.length < slots) {
+            scores = new float[slots];
+            touched = new int[slots];
+        }
+        int matched = 0;
+        for (final String word : new LinkedHashSet<String>(words(query))) {
+            final Postings list = postings.get(word);
+            if (list == null) {
+                continue;
+            }
+            final int df = Math.min(list.count, liveDocs);
+            final float idf = (float) Math.log(1 + (liveDocs - df + 0.5) / (df + 0.5));
+            final byte[] data = list.data;
+            int doc = -1;
+            int pos = 0;
+            while (pos < list.size) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                int tf = 0;
+                shift = 0;
+                do {
+                    b = data[pos++];
+                    tf |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += gap + 1;
+                final int slot = docSlots[doc];
+                if (deletedDocs.get(doc) || removedSlots.get(slot)) {
+                    continue;
+                }
+                final int field = commentDocs.get(doc) ? COMMENT : SUMMARY;
+                final float norm = K1 * (1 - B + B * docLengths[doc] / averageLengths[field]);
+                float score = idf * tf * (K1 + 1) / (tf + norm);
+                if (field == SUMMARY) {
+                    score *= SUMMARY_WEIGHT;
+                }
+                if (scores[slot] == 0) {
+                    touched[matched++] = slot;
+                }
+                scores[slot] += score;
+            }
+        }
+        final PriorityQueue<Hit> best = new PriorityQueue<Hit>(Math.min(limit, Math.max(matched, 1)), WORST_FIRST);
+        for (int i = 0; i < matched; i++) {
+            final int slot = touched[i];
+            final float score = scores[slot];
+            scores[slot] = 0;
+            if (best.size() < limit) {
+                best.add(new Hit(slotIDs[slot], score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Hit(slotIDs[slot], score));
+            }
+        }
+        final List<Hit> hits = new ArrayList<Hit>(best);
+        Collections.sort(hits, Collections.reverseOrder(WORST_FIRST));
+        return hits;
+    }
+
+    /**
+     * @return The number of bugs indexed
+     */
+    public synchronized int size() {
+        return bugSlots.size();
+    }
+
+    /**
+     * @return The number of distinct words indexed
+     */
+    public synchronized int getWordCount() {
+        return postings.size();
+    }
+
+    /**
+     * @return An estimate of the memory taken by the index, in bytes, excluding the
+     *         summaries which are shared with the bugs
+     */
+    public synchronized long getSizeInBytes() {
+        long bytes = 4L * 2 * docSlots.length + 4L * 6 * slotIDs.length + (commentDocs.size() + deletedDocs.size()) / 8;
+        for (final Map.Entry<String, Postings> entry : postings.entrySet()) {
+            bytes += 64 + 2 * entry.getKey().length() + entry.getValue().data.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The slot of a bug, assigning a new one if it has none
+     */
+    private int slot(final int id) {
+        final Integer slot = bugSlots.get(id);
+        if (slot != null) {
+            return slot;
+        }
+        if (slots == slotIDs.length) {
+            final int capacity = slots * 2;
+            slotIDs = Arrays.copyOf(slotIDs, capacity);
+            slotSummaries = Arrays.copyOf(slotSummaries, capacity);
+            slotSummaryDocs = Arrays.copyOf(slotSummaryDocs, capacity);
+            slotLastComments = Arrays.copyOf(slotLastComments, capacity);
+            slotCommentDocs = Arrays.copyOf(slotCommentDocs, capacity);
+            slotCommentLengths = Arrays.copyOf(slotCommentLengths, capacity);
+        }
+        slotIDs[slots] = id;
+        slotSummaries[slots] = null;
+        slotSummaryDocs[slots] = -1;
+        slotLastComments[slots] = 0;
+        slotCommentDocs[slots] = 0;
+        slotCommentLengths[slots] = 0;
+        bugSlots.put(id, slots);
+        return slots++;
+    }
+
+    /**
+     * Appends a document to the posting lists of its words.
+     *
+     * @return The new document, or -1 if the text has no words
+     */
+    private int add(final int slot, final int field, final String text) {
+        final List<String> words = words(text);
+        if (words.isEmpty()) {
+            return -1;
+        }
+        final Map<String, int[]> frequencies = new HashMap<String, int[]>();
+        for (final String word : words) {
+            final int[] frequency = frequencies.get(word);
+            if (frequency == null) {
+                frequencies.put(word, new int[]{1});
+            } else {
+                frequency[0]++;
+            }
+        }
+        if (docs == docSlots.length) {
+            docSlots = Arrays.copyOf(docSlots, docs * 2);
+            docLengths = Arrays.copyOf(docLengths, docs * 2);
+        }
+        final int doc = docs++;
+        docSlots[doc] = slot;
+        docLengths[doc] = words.size();
+        if (field == COMMENT) {
+            commentDocs.set(doc);
+        }
+        for (final Map.Entry<String, int[]> entry : frequencies.entrySet()) {
+            Postings list = postings.get(entry.getKey());
+            if (list == null) {
+                list = new Postings();
+                postings.put(entry.getKey(), list);
+            }
+            list.add(doc, entry.getValue()[0]);
+        }
+        fieldDocs[field]++;
+        fieldLengths[field] += words.size();
+        return doc;
+    }
+
+    private void delete(final int doc) {
+        final int field = commentDocs.get(doc) ? COMMENT : SUMMARY;
+        deletedDocs.set(doc);
+        deleted++;
+        fieldDocs[field]--;
+        fieldLengths[field] -= docLengths[doc];
+    }
+
+    private void compactIfNeeded() {
+        if (deleted >= MIN_DELETED && deleted * 2 >= docs) {
+            compact();
+        }
+    }
+
+    /**
+     * Drops deleted documents and removed bugs, renumbering those left in order.
+     */
+    private void compact() {
+        final int[] slotMap = new int[slots];
+        int liveSlots = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (removedSlots.get(slot)) {
+                slotMap[slot] = -1;
+            } else {
+                slotMap[slot] = liveSlots;
+                slotIDs[liveSlots] = slotIDs[slot];
+                slotSummaries[liveSlots] = slotSummaries[slot];
+                slotSummaryDocs[liveSlots] = slotSummaryDocs[slot];
+                slotLastComments[liveSlots] = slotLastComments[slot];
+                slotCommentDocs[liveSlots] = slotCommentDocs[slot];
+                slotCommentLengths[liveSlots] = slotCommentLengths[slot];
+                bugSlots.put(slotIDs[liveSlots], liveSlots);
+                liveSlots++;
+            }
+        }
+        Arrays.fill(slotSummaries, liveSlots, slots, null);
+        final int[] docMap = new int[docs];
+        final BitSet liveCommentDocs = new BitSet();
+        int liveDocs = 0;
+        for (int doc = 0; doc < docs; doc++) {
+            final int slot = slotMap[docSlots[doc]];
+            if (deletedDocs.get(doc) || slot < 0) {
+                docMap[doc] = -1;
+            } else {
+                docMap[doc] = liveDocs;
+                docSlots[liveDocs] = slot;
+                docLengths[liveDocs] = docLengths[doc];
+                if (commentDocs.get(doc)) {
+                    liveCommentDocs.set(liveDocs);
+                }
+                liveDocs++;
+            }
+        }
+        for (int slot = 0; slot < liveSlots; slot++) {
+            if (slotSummaryDocs[slot] >= 0) {
+                slotSummaryDocs[slot] = docMap[slotSummaryDocs[slot]];
+            }
+        }
+        for (final Iterator<Postings> it = postings.values().iterator(); it.hasNext();) {
+            final Postings list = it.next();
+            list.compact(docMap);
+            if (list.count == 0) {
+                it.remove();
+            }
+        }
+        docs = liveDocs;
+        slots = liveSlots;
+        commentDocs = liveCommentDocs;
+        deletedDocs = new BitSet();
+        removedSlots = new BitSet();
+        deleted = 0;
+    }
+
+    /**
+     * @return The words of a text, in order and lower case
+     */
+    private static List<String> words(final String text) {
+        final List<String> words = new ArrayList<String>();
+        final StringBuilder word = new StringBuilder();
+        final int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            final char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                if (word.length() <= MAX_WORD_LENGTH) {
+                    words.add(word.toString());
+                }
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * A bug matching a search, with its score.
+     */
+    public static final class Hit {
+
+        private final int id;
+
+        private final float score;
+
+        Hit(final int id, final float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        /**
+         * @return The ID of the bug
+         */
+        public int getID() {
+            return id;
+        }
+
+        /**
+         * @return How well the bug matches, higher being better; scores are only
+         *         comparable within one search
+         */
+        public float getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + score;
+        }
+    }
+
+    /**
+     * The documents containing one word, as the varint gap to each from the one
+     * before followed by the varint number of times it contains the word.
+     */
+    private static final class Postings {
+
+        byte[] data = new byte[4];
+
+        int size;
+
+        int count;
+
+        int lastDoc = -1;
+
+        void add(final int doc, final int frequency) {
+            if (data.length - size < 10) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + 10));
+            }
+            write(doc - lastDoc - 1);
+            write(frequency);
+            lastDoc = doc;
+            count++;
+        }
+
+        /**
+         * Rewrites the list with documents renumbered, dropping those mapped to -1.
+         */
+        void compact(final int[] docMap) {
+            final byte[] old = data;
+            final int oldSize = size;
+            data = new byte[Math.max(4, oldSize)];
+            size = 0;
+            count = 0;
+            lastDoc = -1;
+            int doc = -1;
+            int pos = 0;
+            while (pos < oldSize) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = old[pos++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                int frequency = 0;
+                shift = 0;
+                do {
+                    b = old[pos++];
+                    frequency |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += gap + 1;
+                if (docMap[doc] >= 0) {
+                    add(docMap[doc], frequency);
+                }
+            }
+            if (data.length > size + size / 4 + 10) {
+                data = Arrays.copyOf(data, size);
+            }
+        }
+
+        private void write(final int value) {
+            int v = value;
+            while ((v & ~0x7F) != 0) {
+                data[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            data[size++] = (byte) v;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * <p>This package keeps local copies of data retrieved from a Bugzilla installation,
+ * so that it only has to be retrieved once. A {@link com.j2bugzilla.store.CommentStore}
+ * holds the comments of many bugs, optionally in a file, and refreshes them by
+ * retrieving only the comments made since the last one stored. A
+ * {@link com.j2bugzilla.store.BugSync} replicates the bugs matching a search, polling
+ * only for those changed since its last poll and telling
+ * {@link com.j2bugzilla.store.SyncListener SyncListeners} about each one, and a
+ * {@link com.j2bugzilla.store.MappedBugStore} persists bugs in memory-mapped files
+ * that can be read as soon as a restarted process has mapped them. A
+ * {@link com.j2bugzilla.store.BugTable} holds bugs column by column, for counting
+ * and grouping many of them locally, and a {@link com.j2bugzilla.store.BugIndex}
+ * finds the bugs having given field values through compressed bitmaps of their
+ * IDs, kept up to date as bugs change. A {@link com.j2bugzilla.store.LocalSearch}
+ * answers searches from a fresh enough replica, and from the installation
+ * otherwise, and a {@link com.j2bugzilla.store.SearchCache} keeps recent search
+ * results until they expire or a bug in them is changed. A
+ * {@link com.j2bugzilla.store.TextIndex} ranks local bugs by the words in their
+ * summaries and comments, for keyword searches, and a
+ * {@link com.j2bugzilla.store.DuplicateIndex} finds the local bugs nearly the same
+ * as one about to be reported.</p>
+ *
+ * <p>
+ * <code>
+ * CommentStore store = new CommentStore(new File("comments.db"));<br />
+ * store.refresh(conn, ids);<br />
+ * List&lt;Comment&gt; comments = store.getComments(id);<br />
+ * </code>
+ * </p>
+ */
+package com.j2bugzilla.store;
@@ -0,0 +1,86 @@
+package com.j2bugzilla.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.j2bugzilla.rpc.GetBug;
+
+/**
+ * Compares fetching bugs one call after another with fetching them through
+ * {@link BugzillaConnector#executeMethodAsync(BugzillaMethod)}, on the shared default
+ * pool and on a larger executor. Not a unit test: run its main method by hand, on the
+ * test classpath, optionally passing the number of bugs. Each round fetches every bug
+ * from a local {@link StubInstallation} which takes a few milliseconds per call, and
+ * reports the time taken and the connections opened; the first rounds warm up the JIT.
+ */
+public final class AsyncBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private static final long DELAY = 5;
+
+    private static final int THREADS = 32;
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private AsyncBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        final StubInstallation installation = new StubInstallation(StubInstallation.search(1), DELAY);
+        try {
+            final BugzillaConnector connector = new BugzillaConnector();
+            connector.connectTo(installation.getURL());
+            for (int round = 1; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int id = 1; id <= count; id++) {
+                    final GetBug<ECSBug> get = new GetBug<ECSBug>(ECSBug.class, id);
+                    connector.executeMethod(get);
+                    check(get);
+                }
+                report(round, "blocking", start, installation);
+
+                start = System.nanoTime();
+                fetchAsync(connector, count);
+                report(round, "async, default pool", start, installation);
+
+                final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+                connector.setExecutor(executor);
+                start = System.nanoTime();
+                fetchAsync(connector, count);
+                report(round, "async, " + THREADS + " threads", start, installation);
+                connector.setExecutor(null);
+                executor.shutdown();
+            }
+        } finally {
+            installation.stop();
+        }
+    }
+
+    private static void fetchAsync(final BugzillaConnector connector, final int count) throws Exception {
+        final List<Future<GetBug<ECSBug>>> futures = new ArrayList<Future<GetBug<ECSBug>>>(count);
+        for (int id = 1; id <= count; id++) {
+            futures.add(connector.executeMethodAsync(new GetBug<ECSBug>(ECSBug.class, id)));
+        }
+        for (final Future<GetBug<ECSBug>> future : futures) {
+            check(future.get());
+        }
+    }
+
+    private static void check(final GetBug<ECSBug> get) throws Exception {
+        if (get.getBug() == null) {
+            throw new IllegalStateException("No bug was returned");
+        }
+    }
+
+    private static void report(final int round, final String mode, final long start,
+                               final StubInstallation installation) {
+        System.out.printf("round %d: %s %.0f ms, %d connections%n", round, mode, (System.nanoTime() - start) / 1e6,
+                installation.takeConnections());
+    }
+}
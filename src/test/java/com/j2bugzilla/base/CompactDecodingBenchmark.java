@@ -0,0 +1,67 @@
+package com.j2bugzilla.base;
+
+import java.util.List;
+
+import com.j2bugzilla.rpc.BugSearch;
+
+/**
+ * Compares the heap held by the results of a large search decoded into compact bug
+ * states with the heap held by the same results decoded into hash maps. Not a unit
+ * test: run its main method by hand, on the test classpath, optionally passing the
+ * number of bugs. Each round searches a local {@link StubInstallation} once with
+ * compact decoding and once without, and reports the heap still in use per bug once
+ * the search itself is unreachable; the first rounds warm up the JIT.
+ */
+public final class CompactDecodingBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private CompactDecodingBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        final StubInstallation installation = new StubInstallation(StubInstallation.search(count), 0);
+        try {
+            for (int round = 1; round <= ROUNDS; round++) {
+                final long compact = bytesPerBug(installation, count, true);
+                final long plain = bytesPerBug(installation, count, false);
+                System.out.printf("round %d: compact %d B/bug, hash maps %d B/bug (%.0f%% saved)%n",
+                        round, compact, plain, 100.0 * (plain - compact) / plain);
+            }
+        } finally {
+            installation.stop();
+        }
+    }
+
+    private static long bytesPerBug(final StubInstallation installation, final int count, final boolean compact)
+            throws Exception {
+        final BugzillaConnector connector = new BugzillaConnector();
+        connector.connectTo(installation.getURL());
+        connector.setCompactDecoding(compact);
+        final BugSearch<ECSBug> search = new BugSearch<ECSBug>(ECSBug.class, BugSearch.PRODUCT, "Widgets");
+        final long before = usedMemory();
+        connector.executeMethod(search);
+        final List<ECSBug> bugs = search.getSearchResults();
+        if (bugs.size() != count) {
+            throw new IllegalStateException("Expected " + count + " bugs, got " + bugs.size());
+        }
+        final long used = usedMemory() - before;
+        // Keeps the results reachable until they have been measured
+        if (!("Crash " + count + " when saving a file").equals(bugs.get(count - 1).getSummary())) {
+            throw new IllegalStateException("Bug " + count + " was decoded wrongly");
+        }
+        return used / count;
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
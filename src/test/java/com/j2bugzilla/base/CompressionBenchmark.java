@@ -0,0 +1,104 @@
+package com.j2bugzilla.base;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.j2bugzilla.metrics.BugzillaMetrics;
+import com.j2bugzilla.rpc.BugSearch;
+
+/**
+ * Compares searches with and without gzipped responses, and the size of large
+ * requests with and without gzipped requests. Not a unit test: run its main method
+ * by hand, on the test classpath, optionally passing the number of bugs each search
+ * returns. Each round times a number of searches of a local {@link StubInstallation}
+ * with response compression on and off and counts the bytes received, then sends a
+ * long description below and above the request compression threshold; the first
+ * rounds warm up the JIT. Over the loopback interface the time saved in transfer is
+ * small, so the bytes are the figure to watch.
+ */
+public final class CompressionBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private static final int SEARCHES = 40;
+
+    private static final int THRESHOLD = 1024;
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private CompressionBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final StubInstallation installation = new StubInstallation(StubInstallation.search(count), 0);
+        try {
+            final int[] response = installation.getResponseBytes();
+            System.out.printf("response: %d B, %d B gzipped%n", response[0], response[1]);
+            for (int round = 1; round <= ROUNDS; round++) {
+                for (final boolean compression : new boolean[]{false, true}) {
+                    final BugzillaConnector connector = new BugzillaConnector();
+                    connector.connectTo(installation.getURL());
+                    final BugzillaMetrics metrics = new BugzillaMetrics();
+                    connector.setMetrics(metrics);
+                    connector.setResponseCompression(compression);
+                    final long start = System.nanoTime();
+                    for (int i = 0; i < SEARCHES; i++) {
+                        final BugSearch<ECSBug> search = new BugSearch<ECSBug>(ECSBug.class, BugSearch.PRODUCT,
+                                "Widgets");
+                        connector.executeMethod(search);
+                        if (search.getSearchResults().size() != count) {
+                            throw new IllegalStateException("Expected " + count + " bugs, got "
+                                    + search.getSearchResults().size());
+                        }
+                    }
+                    final long nanos = System.nanoTime() - start;
+                    System.out.printf("round %d: response compression %s %.2f ms/search, %d B received/search%n",
+                            round, compression ? "on " : "off", nanos / 1e6 / SEARCHES,
+                            metrics.getBytesReceived() / SEARCHES);
+                }
+            }
+
+            final BugzillaConnector connector = new BugzillaConnector();
+            connector.connectTo(installation.getURL());
+            connector.setRequestCompressionThreshold(THRESHOLD);
+            final StringBuilder description = new StringBuilder();
+            while (description.length() < 32 * 1024) {
+                description.append("Steps to reproduce: open the settings dialog and change the proxy port. ");
+            }
+            for (final String text : new String[]{"Crashes on startup", description.toString()}) {
+                connector.executeMethod(create(text));
+                if (!installation.getLastRequest().contains(text)) {
+                    throw new IllegalStateException("The installation did not receive the description");
+                }
+                System.out.printf("request: %d B sent for %d B of XML (threshold %d B)%n",
+                        installation.getLastRequestBytes(), installation.getLastRequest().length(), THRESHOLD);
+            }
+        } finally {
+            installation.stop();
+        }
+    }
+
+    /**
+     * @return A {@code Bug.create} call with the description given, ignoring its result
+     */
+    private static BugzillaMethod create(final String description) {
+        final Map<Object, Object> params = new HashMap<Object, Object>();
+        params.put("product", "Widgets");
+        params.put("summary", "Crash");
+        params.put("description", description);
+        return new BugzillaMethod() {
+            public void setResultMap(final Map<Object, Object> results) {
+            }
+
+            public Map<Object, Object> getParameterMap() {
+                return params;
+            }
+
+            public String getMethodName() {
+                return "Bug.create";
+            }
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package com.j2bugzilla.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.j2bugzilla.rpc.GetBug;
+
+/**
+ * Measures how long a large number of concurrent
+ * {@link BugzillaConnector#executeMethodAsync(BugzillaMethod)} calls take on the
+ * shared default pool, on large fixed pools and, where the JVM has them, on virtual
+ * threads. Not a unit test: run its main method by hand, on the test classpath,
+ * optionally passing the number of calls. Each round makes every call to a local
+ * {@link StubInstallation} which takes 20 ms per call, and reports the time taken and
+ * the calls completed per second; the first rounds warm up the JIT.
+ */
+public final class ConcurrencyBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private static final long DELAY = 20;
+
+    private static final int[] THREADS = {200, 1000};
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private ConcurrencyBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final StubInstallation installation = new StubInstallation(StubInstallation.search(1), DELAY);
+        try {
+            final BugzillaConnector connector = new BugzillaConnector();
+            connector.connectTo(installation.getURL());
+            connector.setFastSerialization(true);
+            for (int round = 1; round <= ROUNDS; round++) {
+                run(round, "default pool", connector, count);
+                for (final int threads : THREADS) {
+                    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+                    connector.setExecutor(executor);
+                    run(round, threads + " threads", connector, count);
+                    connector.setExecutor(null);
+                    executor.shutdown();
+                }
+                try {
+                    connector.setVirtualThreads(true);
+                } catch (IllegalStateException e) {
+                    System.out.printf("round %d: virtual threads skipped, %s%n", round, e.getMessage());
+                    continue;
+                }
+                run(round, "virtual threads", connector, count);
+                connector.setVirtualThreads(false);
+            }
+        } finally {
+            installation.stop();
+        }
+    }
+
+    private static void run(final int round, final String mode, final BugzillaConnector connector, final int count)
+            throws Exception {
+        final long start = System.nanoTime();
+        final List<Future<GetBug<ECSBug>>> futures = new ArrayList<Future<GetBug<ECSBug>>>(count);
+        for (int id = 1; id <= count; id++) {
+            futures.add(connector.executeMethodAsync(new GetBug<ECSBug>(ECSBug.class, id)));
+        }
+        for (final Future<GetBug<ECSBug>> future : futures) {
+            if (future.get().getBug() == null) {
+                throw new IllegalStateException("No bug was returned");
+            }
+        }
+        final long nanos = System.nanoTime() - start;
+        System.out.printf("round %d: %s %.0f ms, %.0f calls/s%n", round, mode, nanos / 1e6, count * 1e9 / nanos);
+    }
+}
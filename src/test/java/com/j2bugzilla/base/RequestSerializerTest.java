@@ -0,0 +1,167 @@
+package com.j2bugzilla.base;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcClientRequestImpl;
+import org.apache.xmlrpc.serializer.XmlRpcWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.ContentHandler;
+
+/**
+ * Checks that the {@link RequestSerializer} writes the same bytes as the Apache
+ * XML-RPC {@link XmlRpcWriter} for every type it supports.
+ */
+public class RequestSerializerTest {
+
+    private XmlRpcClient client;
+
+    private XmlRpcClientConfigImpl config;
+
+    @Before
+    public void setUp() {
+        config = new XmlRpcClientConfigImpl();
+        client = new XmlRpcClient();
+        client.setConfig(config);
+    }
+
+    @Test
+    public void escapesMarkup() throws Exception {
+        assertConforms(params("summary", "a & b <c> \"q\" 'x' ]]> &amp; end"));
+    }
+
+    @Test
+    public void keepsWhitespace() throws Exception {
+        assertConforms(params("comment", "tab\there\r\nline\rcarriage\nfeed  "));
+    }
+
+    @Test
+    public void encodesNonAsciiAndSupplementaryCharacters() throws Exception {
+        assertConforms(params("summary", "é ß € 中文 😀 𐍈 end"));
+    }
+
+    @Test
+    public void writesDatesInConfiguredTimeZone() throws Exception {
+        assertConforms(params("last_change_time", new Date(1330000000123L)));
+        config.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+        assertConforms(params("creation_time", new Date(0L), "when", new Date(1700000000000L)));
+    }
+
+    @Test
+    public void writesScalars() throws Exception {
+        assertConforms(params("id", 5, "min", Integer.MIN_VALUE, "max", Integer.MAX_VALUE, "is_open", Boolean.TRUE,
+                "is_private", Boolean.FALSE, "empty", ""));
+    }
+
+    @Test
+    public void writesNestedArraysAndStructs() throws Exception {
+        final Map<Object, Object> cc = new LinkedHashMap<Object, Object>();
+        cc.put("add", new Object[]{"a@example.com", "b@example.com"});
+        cc.put("remove", new Object[0]);
+        cc.put("nested", params("deeper", new Object[]{new Object[]{1, 2}, params("x", "y"), new HashMap<Object, Object>()}));
+        assertConforms(params("ids", new Object[]{1, 2, -3}, "cc", cc, "none", new HashMap<Object, Object>()));
+    }
+
+    @Test
+    public void writesEmptyParameters() throws Exception {
+        assertConforms(new HashMap<Object, Object>());
+    }
+
+    @Test
+    public void growsBufferForLargeValues() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append("é<x😀");
+        }
+        assertConforms(params("description", text.toString()));
+    }
+
+    @Test
+    public void encodesBinaryDataAsByteArray() throws Exception {
+        for (final int length : new int[]{0, 1, 2, 3, 4, 5, 1000, 3 * 16 * 1024, 3 * 16 * 1024 + 1, 200001}) {
+            final byte[] content = new byte[length];
+            for (int i = 0; i < length; i++) {
+                content[i] = (byte) (i * 31 + 7);
+            }
+            final BinaryData data = new BinaryData(Channels.newChannel(new ByteArrayInputStream(content)),
+                    length);
+            assertArrayEquals("length " + length, reference(params("data", content, "file_name", "a.bin")),
+                    serialized(params("data", data, "file_name", "a.bin")));
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedTypes() throws Exception {
+        assertNull(RequestSerializer.serialize(request(params("d", 1.5d))));
+        assertNull(RequestSerializer.serialize(request(params("l", 1L))));
+        assertNull(RequestSerializer.serialize(request(params("nested", new Object[]{ByteBuffer.allocate(1)}))));
+    }
+
+    @Test
+    public void rejectsExtensionsAndOtherEncodings() throws Exception {
+        config.setEnabledForExtensions(true);
+        assertNull(RequestSerializer.serialize(request(params("id", 1))));
+        config.setEnabledForExtensions(false);
+        config.setEncoding("ISO-8859-1");
+        assertNull(RequestSerializer.serialize(request(params("id", 1))));
+    }
+
+    @Test
+    public void reusesPooledBuffers() throws Exception {
+        final Map<Object, Object> large = params("description", new String(new char[300000]).replace('\0', 'x'));
+        assertConforms(large);
+        for (int i = 0; i < 3; i++) {
+            assertConforms(params("id", i));
+            assertConforms(large);
+        }
+    }
+
+    private void assertConforms(final Map<Object, Object> params) throws Exception {
+        final byte[] expected = reference(params);
+        final byte[] actual = serialized(params);
+        assertEquals(new String(expected, "UTF-8"), new String(actual, "UTF-8"));
+        assertArrayEquals(expected, actual);
+    }
+
+    private byte[] reference(final Map<Object, Object> params) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ContentHandler handler = client.getXmlWriterFactory().getXmlWriter(config, out);
+        new XmlRpcWriter(config, handler, client.getTypeFactory()).write(request(params));
+        return out.toByteArray();
+    }
+
+    private byte[] serialized(final Map<Object, Object> params) throws Exception {
+        final RequestSerializer serializer = RequestSerializer.serialize(request(params));
+        assertNotNull("Request should be supported", serializer);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private XmlRpcClientRequestImpl request(final Map<Object, Object> params) {
+        return new XmlRpcClientRequestImpl(config, "Bug.create", new Object[]{params});
+    }
+
+    private static Map<Object, Object> params(final Object... keysAndValues) {
+        final Map<Object, Object> params = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+}
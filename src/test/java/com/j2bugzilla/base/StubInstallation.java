@@ -0,0 +1,188 @@
+package com.j2bugzilla.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for a Bugzilla installation in the hand-run
+ * benchmarks. Every call is answered with the same XML-RPC response, after an
+ * optional delay standing for the installation's own work; the response is gzipped
+ * when the client accepts it, and gzipped requests are inflated. The remote ports
+ * seen tell how many connections the client opened.
+ */
+final class StubInstallation {
+
+    static {
+        // Otherwise small responses wait on delayed acknowledgements, about 40 ms a call
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final byte[] response;
+
+    private final byte[] gzippedResponse;
+
+    private final long delay;
+
+    private final Set<Integer> ports = Collections.synchronizedSet(new HashSet<Integer>());
+
+    private volatile int lastRequestBytes;
+
+    private volatile String lastRequest;
+
+    /**
+     * Starts an installation on a free local port.
+     *
+     * @param response The XML-RPC response to every call
+     * @param delay    How long each call takes, in milliseconds
+     */
+    StubInstallation(final String response, final long delay) throws IOException {
+        this.response = response.getBytes("UTF-8");
+        this.gzippedResponse = gzip(this.response);
+        this.delay = delay;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        server.setExecutor(executor);
+        server.createContext("/xmlrpc.cgi", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                answer(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return The URL to connect to
+     */
+    String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return The number of connections seen since the last call, and forgets them
+     */
+    int takeConnections() {
+        synchronized (ports) {
+            final int connections = ports.size();
+            ports.clear();
+            return connections;
+        }
+    }
+
+    /**
+     * @return The bytes of the last request body, as sent
+     */
+    int getLastRequestBytes() {
+        return lastRequestBytes;
+    }
+
+    /**
+     * @return The last request body, inflated
+     */
+    String getLastRequest() {
+        return lastRequest;
+    }
+
+    /**
+     * @return The size of the response, uncompressed and gzipped
+     */
+    int[] getResponseBytes() {
+        return new int[]{response.length, gzippedResponse.length};
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * @return A search response holding a number of bugs with eight fields each
+     */
+    static String search(final int bugs) {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?><methodResponse><params><param>"
+                + "<value><struct><member><name>bugs</name><value><array><data>");
+        for (int id = 1; id <= bugs; id++) {
+            xml.append("<value><struct>")
+                    .append(member("id", "<int>" + id + "</int>"))
+                    .append(member("summary", "<string>Crash " + id + " when saving a file</string>"))
+                    .append(member("product", "<string>Widgets</string>"))
+                    .append(member("component", "<string>UI</string>"))
+                    .append(member("version", "<string>unspecified</string>"))
+                    .append(member("status", "<string>NEW</string>"))
+                    .append(member("last_change_time", "<dateTime.iso8601>20120101T10:00:00</dateTime.iso8601>"))
+                    .append(member("cc", "<array><data><value><string>qa@example.com</string></value>"
+                            + "</data></array>"))
+                    .append("</struct></value>");
+        }
+        return xml.append("</data></array></value></member></struct></value></param></params></methodResponse>")
+                .toString();
+    }
+
+    private void answer(final HttpExchange exchange) throws IOException {
+        ports.add(exchange.getRemoteAddress().getPort());
+        final byte[] request = read(exchange.getRequestBody());
+        lastRequestBytes = request.length;
+        lastRequest = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                ? text(read(new GZIPInputStream(new ByteArrayInputStream(request)))) : text(request);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        final boolean gzip = accepted != null && accepted.contains("gzip");
+        if (gzip) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        final byte[] body = gzip ? gzippedResponse : response;
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static String member(final String name, final String value) {
+        return "<member><name>" + name + "</name><value>" + value + "</value></member>";
+    }
+
+    private static String text(final byte[] bytes) throws UnsupportedEncodingException {
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+}
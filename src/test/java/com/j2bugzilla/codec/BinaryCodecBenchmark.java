@@ -0,0 +1,76 @@
+package com.j2bugzilla.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j2bugzilla.base.ECSBug;
+
+/**
+ * Compares the size and speed of {@link BinaryCodec} records with Java serialization
+ * of the same bug states. Not a unit test: run its main method by hand, on the test
+ * classpath, optionally passing the number of bugs. Each round encodes every bug
+ * into a direct buffer and decodes it again, then does the same through
+ * {@code ObjectOutputStream} and {@code ObjectInputStream}; the first rounds warm up
+ * the JIT.
+ */
+public final class BinaryCodecBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * Private constructor, all methods are static.
+     */
+    private BinaryCodecBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final List<ECSBug> bugs = new ArrayList<ECSBug>(count);
+        for (int id = 1; id <= count; id++) {
+            bugs.add(BinaryCodecTest.bug(id));
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024 * 1024);
+        for (int round = 1; round <= ROUNDS; round++) {
+            final long codecStart = System.nanoTime();
+            buffer.clear();
+            for (final ECSBug bug : bugs) {
+                BinaryCodec.encode(bug, buffer);
+            }
+            final int codecBytes = buffer.position();
+            buffer.flip();
+            for (int i = 0; i < count; i++) {
+                BinaryCodec.decodeBug(buffer, ECSBug.class);
+            }
+            final long codecNanos = System.nanoTime() - codecStart;
+
+            final long javaStart = System.nanoTime();
+            long javaBytes = 0;
+            for (final ECSBug bug : bugs) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(new HashMap<String, Object>(bug.getInternalState()));
+                out.close();
+                javaBytes += bytes.size();
+                final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> state = (Map<String, Object>) in.readObject();
+                in.close();
+                if (state.size() != bug.getInternalState().size()) {
+                    throw new IllegalStateException("Java serialization lost entries of bug " + bug.getID());
+                }
+            }
+            final long javaNanos = System.nanoTime() - javaStart;
+
+            System.out.printf("round %d: BinaryCodec %d B/bug %.2f us/bug, Java serialization %d B/bug %.2f us/bug%n",
+                    round, codecBytes / count, codecNanos / 1000.0 / count, javaBytes / count,
+                    javaNanos / 1000.0 / count);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.j2bugzilla.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.ECSBug;
+import com.j2bugzilla.base.BugField;
+import com.j2bugzilla.base.Comment;
+import com.j2bugzilla.base.Product;
+import com.j2bugzilla.base.factory.BugFactory;
+
+/**
+ * Checks that every kind of record the {@link BinaryCodec} writes reads back as the
+ * same state, through heap and direct buffers of either byte order.
+ */
+public class BinaryCodecTest {
+
+    @Test
+    public void roundTripsBugs() throws Exception {
+        final ECSBug bug = bug(42);
+        for (final ByteBuffer buffer : buffers()) {
+            BinaryCodec.encode(bug, buffer);
+            buffer.flip();
+            final ECSBug copy = BinaryCodec.decodeBug(buffer, ECSBug.class);
+            assertFalse(buffer.hasRemaining());
+            assertEquals(normalize(bug.getInternalState()), normalize(copy.getInternalState()));
+        }
+        assertEquals(normalize(bug.getInternalState()),
+                normalize(BinaryCodec.decodeState(BinaryCodec.encode(bug))));
+    }
+
+    @Test
+    public void roundTripsProducts() {
+        final Map<String, Object> state = new HashMap<String, Object>();
+        state.put("id", 3);
+        state.put("name", "Widgets");
+        state.put("description", "Everything about <widgets> & gadgets");
+        state.put("is_active", Boolean.TRUE);
+        state.put("components", new Object[]{
+            map("id", 10, "name", "UI", "default_assigned_to", "ui@example.com", "is_active", Boolean.TRUE),
+            map("id", 11, "name", "Backend", "default_assigned_to", "be@example.com", "is_active", Boolean.FALSE),
+        });
+        state.put("versions", new Object[]{map("id", 1, "name", "unspecified", "sort_key", 0)});
+        state.put("milestones", new Object[0]);
+        final Product product = new Product(state);
+        for (final ByteBuffer buffer : buffers()) {
+            BinaryCodec.encode(product, buffer);
+            buffer.flip();
+            final Product copy = BinaryCodec.decodeProduct(buffer);
+            assertFalse(buffer.hasRemaining());
+            assertEquals(normalize(state), normalize(copy.getInternalState()));
+        }
+        assertEquals(normalize(state), normalize(BinaryCodec.decodeProduct(BinaryCodec.encode(product))
+                .getInternalState()));
+    }
+
+    @Test
+    public void roundTripsBugFields() {
+        final Map<String, Object> state = new HashMap<String, Object>();
+        state.put("id", 2);
+        state.put("name", "bug_status");
+        state.put("display_name", "Status");
+        state.put("type", 2);
+        state.put("is_mandatory", Boolean.FALSE);
+        state.put("is_custom", Boolean.FALSE);
+        state.put("values", new Object[]{
+            map("name", "NEW", "sort_key", 100, "is_open", Boolean.TRUE, "can_change_to",
+                    new Object[]{map("name", "ASSIGNED", "comment_required", Boolean.FALSE)}),
+            map("name", "RESOLVED", "sort_key", 500, "is_open", Boolean.FALSE, "can_change_to", new Object[0]),
+        });
+        final BugField field = new BugField(state);
+        for (final ByteBuffer buffer : buffers()) {
+            BinaryCodec.encode(field, buffer);
+            buffer.flip();
+            final BugField copy = BinaryCodec.decodeBugField(buffer);
+            assertFalse(buffer.hasRemaining());
+            assertEquals(normalize(state), normalize(copy.getInternalState()));
+        }
+        assertEquals(normalize(state), normalize(BinaryCodec.decodeBugField(BinaryCodec.encode(field))
+                .getInternalState()));
+    }
+
+    @Test
+    public void roundTripsComments() {
+        final List<Comment> comments = Arrays.asList(
+                new Comment(7, "Steps:\r\n1. é 😀\n2. <crash>", new Date(1330000000000L)),
+                new Comment(-1, "", new Date(1330000000123L)), new Comment(0, "no time", null));
+        for (final Comment comment : comments) {
+            for (final ByteBuffer buffer : buffers()) {
+                BinaryCodec.encode(comment, buffer);
+                buffer.flip();
+                assertSameComment(comment, BinaryCodec.decodeComment(buffer));
+                assertFalse(buffer.hasRemaining());
+            }
+            assertSameComment(comment, BinaryCodec.decodeComment(BinaryCodec.encode(comment)));
+        }
+    }
+
+    @Test
+    public void roundTripsValuesOfEveryType() throws Exception {
+        final ECSBug bug = bug(1);
+        final Map<String, Object> state = bug.getInternalState();
+        state.put("min", Integer.MIN_VALUE);
+        state.put("max", Integer.MAX_VALUE);
+        state.put("estimated_time", 2.5d);
+        state.put("negative_time", new Date(-1234L));
+        state.put("empty", "");
+        state.put("missing", null);
+        state.put("nested", new Object[]{new Object[]{1, "two"}, new HashMap<Object, Object>()});
+        final ByteBuffer record = BinaryCodec.encode(bug);
+        assertEquals(normalize(state), normalize(BinaryCodec.decodeBug(record, ECSBug.class).getInternalState()));
+    }
+
+    @Test
+    public void readsConsecutiveRecords() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        for (int id = 1; id <= 100; id++) {
+            BinaryCodec.encode(bug(id), buffer);
+        }
+        buffer.flip();
+        for (int id = 1; id <= 100; id++) {
+            assertEquals(Integer.valueOf(id), BinaryCodec.decodeBug(buffer, ECSBug.class).getID());
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void rejectsRecordsOfAnotherKind() throws Exception {
+        final ByteBuffer record = BinaryCodec.encode(new Comment(1, "text"));
+        try {
+            BinaryCodec.decodeBug(record.duplicate(), ECSBug.class);
+            fail("A comment was decoded as a bug");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        try {
+            BinaryCodec.decodeState(record.duplicate());
+            fail("A comment was decoded as a state");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        try {
+            BinaryCodec.decodeProduct(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+            fail("Garbage was decoded as a product");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedValues() throws Exception {
+        final ECSBug bug = bug(1);
+        bug.getInternalState().put("long", 1L);
+        try {
+            BinaryCodec.encode(bug);
+            fail("A Long was encoded");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    static ECSBug bug(final int id) throws Exception {
+        final Map<String, Object> state = new HashMap<String, Object>();
+        state.put("id", id);
+        state.put("summary", "Crash " + id + " when saving a file named é😀.txt");
+        state.put("product", "Widgets");
+        state.put("component", "UI");
+        state.put("version", "unspecified");
+        state.put("status", "NEW");
+        state.put("resolution", "");
+        state.put("priority", "P3");
+        state.put("severity", "normal");
+        state.put("op_sys", "Linux");
+        state.put("platform", "PC");
+        state.put("assigned_to", "dev" + id % 7 + "@example.com");
+        state.put("creator", "reporter" + id % 13 + "@example.com");
+        state.put("cc", new Object[]{"dev" + id % 7 + "@example.com", "qa@example.com"});
+        state.put("keywords", new Object[0]);
+        state.put("depends_on", new Object[]{id + 1, id + 2});
+        state.put("is_open", Boolean.TRUE);
+        state.put("creation_time", new Date(1330000000000L + id * 1000L));
+        state.put("last_change_time", new Date(1340000000000L + id * 1000L));
+        state.put("flags", new Object[]{map("name", "review", "status", "?", "setter", "dev@example.com",
+                "type_id", 4, "creation_date", new Date(1335000000000L))});
+        return new BugFactory<ECSBug>(ECSBug.class).createBug(state);
+    }
+
+    static Map<String, Object> map(final Object... keysAndValues) {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    /**
+     * @return Empty buffers to encode into: heap and direct, in either byte order
+     */
+    private static List<ByteBuffer> buffers() {
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (final ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            buffers.add(ByteBuffer.allocate(16 * 1024).order(order));
+            buffers.add(ByteBuffer.allocateDirect(16 * 1024).order(order));
+        }
+        return buffers;
+    }
+
+    private static void assertSameComment(final Comment expected, final Comment actual) {
+        assertEquals(expected.getID(), actual.getID());
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getTime(), actual.getTime());
+    }
+
+    /**
+     * @return A value with its arrays replaced by lists, so that states compare by
+     *         content
+     */
+    private static Object normalize(final Object value) {
+        if (value instanceof Object[]) {
+            final List<Object> list = new ArrayList<Object>();
+            for (final Object element : (Object[]) value) {
+                list.add(normalize(element));
+            }
+            return list;
+        }
+        if (value instanceof Map) {
+            final Map<Object, Object> map = new HashMap<Object, Object>();
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(entry.getKey(), normalize(entry.getValue()));
+            }
+            return map;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,111 @@
+package com.j2bugzilla.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks that a {@link BugIndex} follows updates and removals of bugs, and that its
+ * lookups and negation find the right bugs.
+ */
+public class BugIndexTest {
+
+    @Test
+    public void findsBugsByValue() {
+        final BugIndex index = new BugIndex("status", "cc");
+        index.update(state(1, "NEW", "a@example.com", "b@example.com"));
+        index.update(state(2, "NEW", "b@example.com", "b@example.com"));
+        index.update(state(3, "ASSIGNED"));
+
+        assertArrayEquals(new int[]{1, 2}, index.get("status", "NEW").toArray());
+        assertArrayEquals(new int[]{3}, index.get("status", "ASSIGNED").toArray());
+        assertArrayEquals(new int[]{1, 2}, index.get("cc", "b@example.com").toArray());
+        assertArrayEquals(new int[]{1}, index.get("cc", "a@example.com").toArray());
+        assertTrue(index.get("status", "CLOSED").isEmpty());
+        assertEquals(2, index.count("status", "NEW"));
+        assertEquals(3, index.size());
+        assertArrayEquals(new int[]{1, 2, 3}, index.getAll().toArray());
+        assertFalse(index.isIndexed("product"));
+    }
+
+    @Test
+    public void movesUpdatedBugsBetweenValues() {
+        final BugIndex index = new BugIndex("status", "cc");
+        index.update(state(1, "NEW", "a@example.com", "b@example.com"));
+        index.update(state(2, "NEW", "a@example.com"));
+
+        index.update(state(1, "ASSIGNED", "b@example.com", "c@example.com"));
+        assertArrayEquals(new int[]{2}, index.get("status", "NEW").toArray());
+        assertArrayEquals(new int[]{1}, index.get("status", "ASSIGNED").toArray());
+        assertArrayEquals(new int[]{2}, index.get("cc", "a@example.com").toArray());
+        assertArrayEquals(new int[]{1}, index.get("cc", "c@example.com").toArray());
+        assertEquals(2, index.size());
+
+        // A value no bug has any more is forgotten
+        index.update(state(2, "ASSIGNED"));
+        assertEquals(Collections.singletonList("ASSIGNED"), index.getValues("status"));
+        assertEquals(new HashSet<String>(Arrays.asList("b@example.com", "c@example.com")),
+                new HashSet<String>(index.getValues("cc")));
+    }
+
+    @Test
+    public void removesBugs() {
+        final BugIndex index = new BugIndex("status", "cc");
+        index.update(state(1, "NEW", "a@example.com"));
+        index.update(state(2, "NEW"));
+
+        assertTrue(index.remove(1));
+        assertFalse(index.remove(1));
+        assertArrayEquals(new int[]{2}, index.get("status", "NEW").toArray());
+        assertTrue(index.getValues("cc").isEmpty());
+        assertArrayEquals(new int[]{2}, index.getAll().toArray());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void negatesAgainstEveryIndexedBug() {
+        final BugIndex index = new BugIndex("status");
+        for (int id = 1; id <= 10000; id++) {
+            index.update(state(id, id % 4 == 0 ? "NEW" : "CLOSED"));
+        }
+        index.remove(8);
+        final int[] open = index.not(index.get("status", "CLOSED")).toArray();
+        assertEquals(2499, open.length);
+        for (final int id : open) {
+            assertTrue(id % 4 == 0 && id != 8);
+        }
+        assertArrayEquals(index.get("status", "NEW").toArray(), open);
+    }
+
+    @Test
+    public void returnsCopies() {
+        final BugIndex index = new BugIndex("status");
+        index.update(state(1, "NEW"));
+        index.get("status", "NEW").add(2);
+        index.getAll().add(3);
+        assertArrayEquals(new int[]{1}, index.get("status", "NEW").toArray());
+        assertArrayEquals(new int[]{1}, index.getAll().toArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFieldsNotIndexed() {
+        new BugIndex("status").get("product", "Widgets");
+    }
+
+    private static Map<String, Object> state(final int id, final String status, final Object... cc) {
+        final Map<String, Object> state = new HashMap<String, Object>();
+        state.put("id", id);
+        state.put("status", status);
+        state.put("cc", cc);
+        return state;
+    }
+}
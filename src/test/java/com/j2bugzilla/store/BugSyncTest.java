@@ -0,0 +1,204 @@
+package com.j2bugzilla.store;
+
+import static com.j2bugzilla.store.StubConnector.bug;
+import static com.j2bugzilla.store.StubConnector.bugs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.ECSBug;
+
+/**
+ * Checks how a {@link BugSync} pages through the installation, what it reports as
+ * changed when polls overlap, and when it advances its high-water mark. The stub
+ * installation answers like Bugzilla: bugs changed at or after the
+ * {@code last_change_time} limit, ordered by ID, paged by {@code limit} and
+ * {@code offset} but never more than its own maximum per page.
+ */
+public class BugSyncTest {
+
+    private static final long T = 1340000000000L;
+
+    private static final long MINUTE = 60 * 1000L;
+
+    /**
+     * The installation's bugs by ID
+     */
+    private final Map<Integer, Map<String, Object>> installation = new TreeMap<Integer, Map<String, Object>>();
+
+    private int maxResults = Integer.MAX_VALUE;
+
+    /**
+     * The number of the page request to fail, counting from one, or zero
+     */
+    private int failingRequest;
+
+    private final StubConnector connector = new StubConnector(new StubConnector.Answer() {
+        public Map<Object, Object> answer(final BugzillaMethod method) throws BugzillaException {
+            final Map<Object, Object> params = method.getParameterMap();
+            if (connectorRequests() == failingRequest) {
+                throw new BugzillaException("Connection reset");
+            }
+            assertEquals("bug_id", params.get("order"));
+            final Date since = (Date) params.get("last_change_time");
+            final List<Map<String, Object>> matching = new ArrayList<Map<String, Object>>();
+            for (final Map<String, Object> state : installation.values()) {
+                if (since == null || !((Date) state.get("last_change_time")).before(since)) {
+                    matching.add(state);
+                }
+            }
+            final int offset = (Integer) params.get("offset");
+            final int limit = Math.min((Integer) params.get("limit"), maxResults);
+            final List<Map<String, Object>> page = matching.subList(Math.min(offset, matching.size()),
+                    Math.min(offset + limit, matching.size()));
+            return bugs(page.toArray(new Map<?, ?>[page.size()]));
+        }
+    });
+
+    @Test
+    public void retrievesEveryPage() throws Exception {
+        for (int id = 1; id <= 23; id++) {
+            store(id, "Bug " + id, T + id * 1000L);
+        }
+        final BugSync<ECSBug> sync = new BugSync<ECSBug>(connector, ECSBug.class, 5);
+        assertEquals(23, sync.sync());
+        assertEquals(23, sync.size());
+        // Four full pages, a short one and the empty one ending the poll
+        assertEquals(6, connector.executed.size());
+        assertEquals(new Date(T + 23000L), sync.getHighWaterMark());
+    }
+
+    @Test
+    public void pagesPastAServerMaximumBelowThePageSize() throws Exception {
+        for (int id = 1; id <= 23; id++) {
+            store(id, "Bug " + id, T + id * 1000L);
+        }
+        maxResults = 4;
+        final BugSync<ECSBug> sync = new BugSync<ECSBug>(connector, ECSBug.class, 10);
+        assertEquals(23, sync.sync());
+        for (int id = 1; id <= 23; id++) {
+            assertEquals("Bug " + id, sync.getBug(id).getSummary());
+        }
+    }
+
+    @Test
+    public void reportsOnlyChangedBugsSeenAgainInTheOverlap() throws Exception {
+        store(1, "First", T);
+        store(2, "Second", T + MINUTE);
+        final BugSync<ECSBug> sync = new BugSync<ECSBug>(connector, ECSBug.class, 10);
+        final List<Integer> changed = listen(sync);
+        assertEquals(2, sync.sync());
+
+        // Bug 1 is seen again unchanged within the overlap, bug 2 changed within the
+        // same second as the mark, and bug 3 was committed late, before the mark
+        store(2, "Second, changed", T + MINUTE);
+        store(3, "Third", T + MINUTE - 1000L);
+        changed.clear();
+        assertEquals(2, sync.sync());
+        assertEquals(new Date(T + MINUTE - BugSync.DEFAULT_OVERLAP),
+                connector.executed.get(connector.executed.size() - 1).getParameterMap().get("last_change_time"));
+        assertEquals(Arrays.asList(2, 3), changed);
+        assertEquals("Second, changed", sync.getBug(2).getSummary());
+
+        changed.clear();
+        assertEquals(0, sync.sync());
+        assertTrue(changed.isEmpty());
+    }
+
+    @Test
+    public void ignoresOlderStatesSeenAgain() throws Exception {
+        store(1, "Newer", T + MINUTE);
+        final BugSync<ECSBug> sync = new BugSync<ECSBug>(connector, ECSBug.class, 10);
+        sync.sync();
+        store(1, "Older", T);
+        sync.setHighWaterMark(null);
+        assertEquals(0, sync.sync());
+        assertEquals("Newer", sync.getBug(1).getSummary());
+    }
+
+    @Test
+    public void advancesTheMarkOnlyAfterACompletePoll() throws Exception {
+        for (int id = 1; id <= 12; id++) {
+            store(id, "Bug " + id, T + id * 1000L);
+        }
+        final BugSync<ECSBug> sync = new BugSync<ECSBug>(connector, ECSBug.class, 5);
+        final List<Integer> changed = listen(sync);
+
+        // The second page fails: nothing is applied and the mark stays unset
+        failingRequest = 2;
+        try {
+            sync.sync();
+            fail("The failed page was not reported");
+        } catch (BugzillaException expected) {
+            // expected
+        }
+        assertEquals(0, sync.size());
+        assertNull(sync.getHighWaterMark());
+        assertNull(sync.getLastSyncTime());
+        assertTrue(changed.isEmpty());
+
+        failingRequest = 0;
+        assertEquals(12, sync.sync());
+        assertEquals(new Date(T + 12000L), sync.getHighWaterMark());
+
+        // A later failure keeps the mark and the replica as they were
+        store(13, "Bug 13", T + 13000L);
+        failingRequest = connector.executed.size() + 1;
+        try {
+            sync.sync();
+            fail("The failed page was not reported");
+        } catch (BugzillaException expected) {
+            // expected
+        }
+        assertEquals(new Date(T + 12000L), sync.getHighWaterMark());
+        assertEquals(12, sync.size());
+        failingRequest = 0;
+        assertEquals(1, sync.sync());
+        assertEquals(new Date(T + 13000L), sync.getHighWaterMark());
+    }
+
+    @Test
+    public void sendsTheQueryWithEveryPage() throws Exception {
+        store(1, "First", T);
+        final BugSync<ECSBug> sync = new BugSync<ECSBug>(connector, ECSBug.class, 10);
+        sync.addQueryParam("product", "Widgets");
+        sync.sync();
+        for (final BugzillaMethod method : connector.executed) {
+            assertEquals("Widgets", method.getParameterMap().get("product"));
+            assertEquals(10, method.getParameterMap().get("limit"));
+        }
+    }
+
+    private void store(final int id, final String summary, final long lastChangeTime) {
+        installation.put(id, bug(id, summary, new Date(lastChangeTime)));
+    }
+
+    /**
+     * @return The number of requests made so far, the current one included
+     */
+    private int connectorRequests() {
+        return connector.executed.size();
+    }
+
+    private static List<Integer> listen(final BugSync<ECSBug> sync) {
+        final List<Integer> changed = new ArrayList<Integer>();
+        sync.addListener(new SyncListener<ECSBug>() {
+            public void bugChanged(final ECSBug bug, final ECSBug previous) {
+                changed.add(bug.getID());
+            }
+        });
+        return changed;
+    }
+}
@@ -0,0 +1,185 @@
+package com.j2bugzilla.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks every operation of a {@link CompressedBitmap} against a {@link BitSet}
+ * holding the same values, on random sets whose chunks hold fewer, about as many
+ * and more values than an array container does.
+ */
+public class CompressedBitmapTest {
+
+    /**
+     * The number of values of a chunk, around the 4096 at which it becomes a bitmap
+     */
+    private static final int[] DENSITIES = {0, 1, 100, 4000, 4096, 4097, 4200, 30000, 65536};
+
+    @Test
+    public void addsAndRemovesAcrossTheArrayLimit() {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        final BitSet expected = new BitSet();
+        for (int value = 0; value < 4097; value++) {
+            assertTrue(bitmap.add(value * 16 + 3));
+            expected.set(value * 16 + 3);
+        }
+        assertFalse(bitmap.add(3));
+        assertHolds(expected, bitmap);
+
+        // Back below the limit, and over it again
+        for (int value = 0; value < 10; value++) {
+            assertTrue(bitmap.remove(value * 16 + 3));
+            expected.clear(value * 16 + 3);
+        }
+        assertFalse(bitmap.remove(3));
+        assertHolds(expected, bitmap);
+        for (int value = 0; value < 20; value++) {
+            assertEquals(!expected.get(value * 16 + 3), bitmap.add(value * 16 + 3));
+            expected.set(value * 16 + 3);
+        }
+        assertHolds(expected, bitmap);
+    }
+
+    @Test
+    public void removesEmptiedChunks() {
+        final CompressedBitmap bitmap = CompressedBitmap.of(1, 70000, 140000);
+        assertTrue(bitmap.remove(70000));
+        assertArrayEquals(new int[]{1, 140000}, bitmap.toArray());
+        assertTrue(bitmap.remove(1));
+        assertTrue(bitmap.remove(140000));
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.cardinality());
+        assertTrue(bitmap.add(70001));
+        assertArrayEquals(new int[]{70001}, bitmap.toArray());
+    }
+
+    @Test
+    public void matchesABitSetOnRandomSets() {
+        final Random random = new Random(46);
+        for (final int a : DENSITIES) {
+            for (final int b : DENSITIES) {
+                final BitSet left = new BitSet();
+                final BitSet right = new BitSet();
+                final CompressedBitmap x = random(random, left, a, 4097);
+                final CompressedBitmap y = random(random, right, b, a == 0 ? 1 : a);
+                assertHolds(left, x);
+                assertHolds(right, y);
+
+                final BitSet and = (BitSet) left.clone();
+                and.and(right);
+                assertHolds(and, x.and(y));
+                assertHolds(and, y.and(x));
+
+                final BitSet or = (BitSet) left.clone();
+                or.or(right);
+                assertHolds(or, x.or(y));
+                assertHolds(or, y.or(x));
+
+                final BitSet andNot = (BitSet) left.clone();
+                andNot.andNot(right);
+                assertHolds(andNot, x.andNot(y));
+
+                // The operands are left as they were
+                assertHolds(left, x);
+                assertHolds(right, y);
+            }
+        }
+    }
+
+    @Test
+    public void shrinksResultsThatFitAnArray() {
+        final CompressedBitmap dense = new CompressedBitmap();
+        final CompressedBitmap other = new CompressedBitmap();
+        for (int value = 0; value < 65536; value++) {
+            dense.add(value);
+            if (value % 1000 == 0) {
+                other.add(value);
+            }
+        }
+        final CompressedBitmap and = dense.and(other);
+        assertEquals(other, and);
+        assertTrue("Expected an array, took " + and.getSizeInBytes(), and.getSizeInBytes() < 1024);
+
+        final CompressedBitmap andNot = dense.andNot(dense.andNot(other));
+        assertEquals(other, andNot);
+        assertTrue("Expected an array, took " + andNot.getSizeInBytes(), andNot.getSizeInBytes() < 1024);
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        final CompressedBitmap bitmap = CompressedBitmap.of(1, 2, 70000);
+        final CompressedBitmap copy = bitmap.copy();
+        copy.add(3);
+        copy.remove(70000);
+        assertArrayEquals(new int[]{1, 2, 70000}, bitmap.toArray());
+        assertArrayEquals(new int[]{1, 2, 3}, copy.toArray());
+        assertEquals(CompressedBitmap.of(70000, 2, 1), bitmap);
+        assertEquals(CompressedBitmap.of(70000, 2, 1).hashCode(), bitmap.hashCode());
+    }
+
+    @Test
+    public void rejectsNegativeValues() {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        try {
+            bitmap.add(-1);
+            fail("A negative value was added");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertFalse(bitmap.remove(-1));
+        assertFalse(bitmap.contains(-1));
+    }
+
+    /**
+     * @param values  The set to add the values to as well
+     * @param density The number of values of each chunk
+     * @param seed    Varies the chunks filled
+     * @return A new bitmap holding some values in three chunks
+     */
+    private static CompressedBitmap random(final Random random, final BitSet values, final int density,
+            final int seed) {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        for (final int chunk : new int[]{0, seed % 3 + 1, 40}) {
+            // Choose the values, or for a dense chunk the ones left out
+            final boolean dense = density > 32768;
+            final BitSet chosen = new BitSet();
+            int n = 0;
+            while (n < (dense ? 65536 - density : density)) {
+                final int value = random.nextInt(65536);
+                if (!chosen.get(value)) {
+                    chosen.set(value);
+                    n++;
+                }
+            }
+            if (dense) {
+                chosen.flip(0, 65536);
+            }
+            for (int i = chosen.nextSetBit(0); i >= 0; i = chosen.nextSetBit(i + 1)) {
+                bitmap.add(chunk << 16 | i);
+                values.set(chunk << 16 | i);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertHolds(final BitSet expected, final CompressedBitmap actual) {
+        final int[] values = new int[expected.cardinality()];
+        int n = 0;
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            values[n++] = i;
+            assertTrue(actual.contains(i));
+        }
+        assertArrayEquals(values, actual.toArray());
+        assertEquals(values.length, actual.cardinality());
+        assertEquals(values.length == 0, actual.isEmpty());
+        assertFalse(actual.contains(expected.length()));
+    }
+}
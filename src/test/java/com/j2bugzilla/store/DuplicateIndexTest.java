@@ -0,0 +1,169 @@
+package com.j2bugzilla.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.ECSBug;
+import com.j2bugzilla.rpc.ReportBug;
+
+/**
+ * Checks that a {@link DuplicateIndex} finds exact and near duplicates, compares bugs
+ * indexed without a description by their summary, and keeps its bucket chains intact
+ * through updates and removals.
+ */
+public class DuplicateIndexTest {
+
+    private static final String DESCRIPTION = "Steps to reproduce: open the settings dialog, change the proxy port"
+            + " to a value above 65535 and press apply. The application freezes and has to be killed from"
+            + " the task manager; nothing is written to the log before it hangs.";
+
+    @Test
+    public void findsExactAndNearDuplicates() {
+        final DuplicateIndex index = new DuplicateIndex();
+        index.update(1, "Settings dialog freezes on invalid proxy port", DESCRIPTION);
+        index.update(2, "Crash when printing an empty report", "Printing a report with no rows crashes.");
+        index.update(3, "Typo in the about dialog", null);
+
+        final List<DuplicateIndex.Candidate> exact = index.findDuplicates(
+                new ReportBug(bug(null, "Settings dialog freezes on invalid proxy port", DESCRIPTION)));
+        assertEquals(1, exact.size());
+        assertEquals(1, exact.get(0).getID());
+        assertEquals(1.0, exact.get(0).getSimilarity(), 0);
+
+        final List<DuplicateIndex.Candidate> near = index.findDuplicates("Settings dialog hangs on bad proxy port",
+                DESCRIPTION.replace("65535", "70000").replace("killed", "terminated"));
+        assertEquals(1, near.size());
+        assertEquals(1, near.get(0).getID());
+        assertTrue(near.get(0).getSimilarity() >= 0.5 && near.get(0).getSimilarity() < 1.0);
+
+        assertTrue(index.findDuplicates("Memory leak in the image cache", "Heap grows without bound").isEmpty());
+        assertTrue(index.findDuplicates("", " ,. ").isEmpty());
+    }
+
+    @Test
+    public void comparesBugsWithoutDescriptionsBySummary() {
+        final DuplicateIndex index = new DuplicateIndex();
+        // As replicated by a BugSync, whose bugs have no description
+        index.update(bug(7, "Settings dialog freezes on invalid proxy port", null));
+        index.update(bug(8, "Settings dialog layout broken on small screens", null));
+
+        final List<DuplicateIndex.Candidate> found = index.findDuplicates(
+                new ReportBug(bug(null, "Settings dialog freezes on invalid proxy port", DESCRIPTION)));
+        assertEquals(1, found.size());
+        assertEquals(7, found.get(0).getID());
+        assertEquals(1.0, found.get(0).getSimilarity(), 0);
+    }
+
+    @Test
+    public void keepsDescriptionsGivenBefore() {
+        final DuplicateIndex index = new DuplicateIndex();
+        index.update(1, "Settings dialog freezes", DESCRIPTION);
+
+        // The same summary without a description keeps the signature
+        index.update(bug(1, "Settings dialog freezes", null));
+        assertEquals(1.0, index.findDuplicates("Settings dialog freezes", DESCRIPTION).get(0).getSimilarity(), 0);
+
+        // A new summary replaces it
+        index.update(bug(1, "Proxy port accepts invalid values", null));
+        assertTrue(index.findDuplicates("Settings dialog freezes", DESCRIPTION).isEmpty());
+        assertEquals(1, index.findDuplicates("Proxy port accepts invalid values", null).get(0).getID());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void excludesTheBugItself() {
+        final DuplicateIndex index = new DuplicateIndex();
+        index.update(bug(1, "Settings dialog freezes on invalid proxy port", null));
+        index.update(bug(2, "Settings dialog freezes on invalid proxy port", null));
+        final List<DuplicateIndex.Candidate> found = index.findDuplicates(
+                bug(1, "Settings dialog freezes on invalid proxy port", null));
+        assertEquals(1, found.size());
+        assertEquals(2, found.get(0).getID());
+    }
+
+    @Test
+    public void survivesUpdateAndRemoveChurn() {
+        final DuplicateIndex index = new DuplicateIndex();
+        final Random random = new Random(50);
+        // Bugs sharing a text share every bucket, so their chains run through each other
+        final Map<Integer, Integer> texts = new HashMap<Integer, Integer>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 500; i++) {
+                final int id = 1 + random.nextInt(400);
+                if (random.nextInt(3) == 0) {
+                    assertEquals(texts.remove(id) != null, index.remove(id));
+                } else {
+                    final int text = random.nextInt(40);
+                    index.update(id, text(text), text % 2 == 0 ? null : "Seen in build " + text);
+                    texts.put(id, text);
+                }
+            }
+            assertEquals(texts.size(), index.size());
+        }
+        for (int text = 0; text < 40; text++) {
+            final Set<Integer> expected = new HashSet<Integer>();
+            for (final Map.Entry<Integer, Integer> entry : texts.entrySet()) {
+                if (entry.getValue() == text) {
+                    expected.add(entry.getKey());
+                }
+            }
+            final Set<Integer> found = new HashSet<Integer>();
+            for (final DuplicateIndex.Candidate candidate : index.findDuplicates(text(text),
+                    text % 2 == 0 ? null : "Seen in build " + text)) {
+                if (candidate.getSimilarity() == 1.0) {
+                    assertTrue("Bug " + candidate.getID() + " found twice", found.add(candidate.getID()));
+                }
+            }
+            assertEquals("Text " + text, expected, found);
+        }
+        for (final Integer id : new ArrayList<Integer>(texts.keySet())) {
+            assertTrue(index.remove(id));
+        }
+        assertEquals(0, index.size());
+        assertFalse(index.remove(1));
+        assertTrue(index.findDuplicates(text(1), null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAThresholdOfZero() {
+        new DuplicateIndex(0);
+    }
+
+    /**
+     * @return One of a few distinct summaries, each of its own words
+     */
+    private static String text(final int n) {
+        final List<String> words = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            words.add("word" + n + "x" + i);
+        }
+        return Arrays.toString(words.toArray());
+    }
+
+    private static ECSBug bug(final Integer id, final String summary, final String description) {
+        final Map<String, Object> state = new HashMap<String, Object>();
+        if (id != null) {
+            state.put("id", id);
+        }
+        state.put("summary", summary);
+        if (description != null) {
+            state.put("description", description);
+        }
+        state.put("product", "Widgets");
+        state.put("component", "UI");
+        state.put("version", "unspecified");
+        return new ECSBug(state);
+    }
+}
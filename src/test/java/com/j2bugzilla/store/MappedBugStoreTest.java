@@ -0,0 +1,211 @@
+package com.j2bugzilla.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.j2bugzilla.base.ECSBug;
+import com.j2bugzilla.base.factory.BugFactory;
+
+/**
+ * Checks that a {@link MappedBugStore} reads back what was stored across segments and
+ * reopens, and that a torn or corrupt record ends a segment rather than being read.
+ */
+public class MappedBugStoreTest {
+
+    /**
+     * Small enough that a few dozen bugs take several segments
+     */
+    private static final int SEGMENT_SIZE = 2048;
+
+    /**
+     * The offset of the first record of a segment
+     */
+    private static final int FIRST_RECORD = 8;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackAcrossSegmentsAndReopens() throws Exception {
+        final File directory = folder.newFolder();
+        MappedBugStore store = new MappedBugStore(directory, SEGMENT_SIZE);
+        for (int id = 1; id <= 40; id++) {
+            store.put(bug(id, "first"));
+        }
+        for (int id = 1; id <= 40; id += 3) {
+            store.put(bug(id, "second"));
+        }
+        for (int id = 2; id <= 40; id += 5) {
+            store.remove(id);
+        }
+        store.remove(1000);
+        assertTrue("Expected several segments", new File(directory, "segment-00002.dat").exists());
+        assertStored(store);
+        store.close();
+
+        store = new MappedBugStore(directory, SEGMENT_SIZE);
+        assertStored(store);
+        store.put(bug(2, "third"));
+        store.close();
+
+        store = new MappedBugStore(directory, SEGMENT_SIZE);
+        assertEquals("third " + 2, store.getState(2).get("summary"));
+        assertEquals(Integer.valueOf(2), store.getBug(2, ECSBug.class).getID());
+        store.close();
+    }
+
+    @Test
+    public void stopsAtATornRecord() throws Exception {
+        final File directory = folder.newFolder();
+        MappedBugStore store = new MappedBugStore(directory, 64 * 1024);
+        store.put(bug(1, "first"));
+        store.put(bug(2, "first"));
+        store.put(bug(3, "first"));
+        store.close();
+
+        // Flip a byte of the second record's state, as if its page never reached the disk
+        final File segment = new File(directory, "segment-00000.dat");
+        final int second = FIRST_RECORD + recordLength(segment, FIRST_RECORD);
+        corrupt(segment, second + recordLength(segment, second) - 1);
+
+        store = new MappedBugStore(directory, 64 * 1024);
+        assertEquals(1, store.size());
+        assertEquals("first 1", store.getState(1).get("summary"));
+        assertNull(store.getState(2));
+        assertNull(store.getState(3));
+
+        // The next records are written over the torn one, and end where they stop
+        store.put(bug(4, "first"));
+        store.close();
+        store = new MappedBugStore(directory, 64 * 1024);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 4)), new HashSet<Integer>(store.getBugIDs()));
+        store.close();
+    }
+
+    @Test
+    public void stopsAtACorruptTag() throws Exception {
+        for (final int tag : new int[]{-7, Integer.MIN_VALUE, Integer.MAX_VALUE, SEGMENT_SIZE}) {
+            final File directory = folder.newFolder();
+            MappedBugStore store = new MappedBugStore(directory, SEGMENT_SIZE);
+            store.put(bug(1, "first"));
+            store.put(bug(2, "first"));
+            store.close();
+
+            final File segment = new File(directory, "segment-00000.dat");
+            final RandomAccessFile file = new RandomAccessFile(segment, "rw");
+            try {
+                file.seek(FIRST_RECORD + recordLength(segment, FIRST_RECORD));
+                file.writeInt(tag);
+            } finally {
+                file.close();
+            }
+
+            store = new MappedBugStore(directory, SEGMENT_SIZE);
+            assertEquals("Tag " + tag, 1, store.size());
+            assertEquals("first 1", store.getState(1).get("summary"));
+            store.close();
+        }
+    }
+
+    @Test
+    public void tracksTheHighWaterMark() throws Exception {
+        final File directory = folder.newFolder();
+        MappedBugStore store = new MappedBugStore(directory, SEGMENT_SIZE);
+        assertNull(store.getHighWaterMark());
+        store.put(bug(5, "first"));
+        store.put(bug(3, "first"));
+        assertEquals(time(5), store.getHighWaterMark());
+        store.close();
+
+        store = new MappedBugStore(directory, SEGMENT_SIZE);
+        assertEquals(time(5), store.getHighWaterMark());
+        store.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAStateLargerThanASegment() throws Exception {
+        final MappedBugStore store = new MappedBugStore(folder.newFolder(), SEGMENT_SIZE);
+        final ECSBug bug = bug(1, "first");
+        bug.getInternalState().put("summary", new String(new char[SEGMENT_SIZE]));
+        store.put(bug);
+    }
+
+    /**
+     * Checks the state left by {@link #readsBackAcrossSegmentsAndReopens()}.
+     */
+    private static void assertStored(final MappedBugStore store) throws Exception {
+        final HashSet<Integer> expected = new HashSet<Integer>();
+        for (int id = 1; id <= 40; id++) {
+            if (id % 5 == 2) {
+                assertNull(store.getState(id));
+                assertNull(store.getBug(id, ECSBug.class));
+                continue;
+            }
+            expected.add(id);
+            final String summary = (id % 3 == 1 ? "second " : "first ") + id;
+            assertEquals(summary, store.getState(id).get("summary"));
+            assertEquals(summary, store.getBug(id, ECSBug.class).getSummary());
+        }
+        assertEquals(expected, new HashSet<Integer>(store.getBugIDs()));
+        assertEquals(expected.size(), store.size());
+        assertEquals(time(40), store.getHighWaterMark());
+    }
+
+    /**
+     * @return The length of the record at an offset of a segment file, header included
+     */
+    private static int recordLength(final File segment, final int offset) throws Exception {
+        final RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            file.seek(offset);
+            final int tag = file.readInt();
+            return 20 + (tag == -1 ? 0 : tag - 1);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void corrupt(final File segment, final int offset) throws Exception {
+        final RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(offset);
+            final int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0xFF);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static Date time(final int id) {
+        return new Date(1340000000000L + id * 1000L);
+    }
+
+    private static ECSBug bug(final int id, final String version) throws Exception {
+        final Map<String, Object> state = new HashMap<String, Object>();
+        state.put("id", id);
+        state.put("summary", version + " " + id);
+        state.put("product", "Widgets");
+        state.put("component", "UI");
+        state.put("version", "unspecified");
+        state.put("status", "NEW");
+        state.put("priority", "P3");
+        state.put("severity", "normal");
+        state.put("cc", new Object[]{"qa@example.com"});
+        state.put("last_change_time", time(id));
+        return new BugFactory<ECSBug>(ECSBug.class).createBug(state);
+    }
+}
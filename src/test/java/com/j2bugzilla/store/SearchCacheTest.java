@@ -0,0 +1,206 @@
+package com.j2bugzilla.store;
+
+import static com.j2bugzilla.store.StubConnector.bug;
+import static com.j2bugzilla.store.StubConnector.bugs;
+import static com.j2bugzilla.store.StubConnector.method;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.BugHandler;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.ECSBug;
+import com.j2bugzilla.rpc.BugSearch;
+
+/**
+ * Checks which searches a {@link SearchCache} answers itself, and which changes,
+ * expiry and evictions make it search the installation again.
+ */
+public class SearchCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    /**
+     * Answers every search with the bug whose ID is the search's {@code id} limit,
+     * or bug 1
+     */
+    private final StubConnector connector = new StubConnector(new StubConnector.Answer() {
+        public Map<Object, Object> answer(final BugzillaMethod method) {
+            final Object id = method.getParameterMap().get("id");
+            final int n = id == null ? 1 : Integer.parseInt(id.toString().replaceAll("\\D", ""));
+            return bugs(bug(n, "Crash " + n, new Date(1340000000000L)));
+        }
+    });
+
+    @Test
+    public void answersTheSameSearchInAnyForm() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        assertFalse(cache.execute(search("product", "Widgets", "status", new Object[]{"NEW", "ASSIGNED"})));
+
+        final BugSearch<ECSBug> same = search("status", Arrays.asList("ASSIGNED", "NEW", "NEW"),
+                "product", new Object[]{"Widgets"});
+        assertTrue(cache.execute(same));
+        assertEquals("Crash 1", same.getSearchResults().get(0).getSummary());
+
+        assertFalse(cache.execute(search("product", "Widgets", "status", "NEW")));
+        assertFalse(cache.execute(search("product", "Gadgets", "status", new Object[]{"NEW", "ASSIGNED"})));
+
+        assertFalse(cache.execute(search("id", 5)));
+        assertTrue(cache.execute(search("id", "5")));
+        assertTrue(cache.execute(search("id", new Object[]{5.0d})));
+        assertEquals(4, connector.executed.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void handsOutCopies() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        final BugSearch<ECSBug> first = search("id", 1);
+        cache.execute(first);
+        first.getSearchResults().get(0).getInternalState().put("summary", "Changed");
+
+        final BugSearch<ECSBug> second = search("id", 1);
+        assertTrue(cache.execute(second));
+        second.getSearchResults().get(0).getInternalState().put("summary", "Changed again");
+
+        final BugSearch<ECSBug> third = search("id", 1);
+        assertTrue(cache.execute(third));
+        assertEquals("Crash 1", third.getSearchResults().get(0).getSummary());
+    }
+
+    @Test
+    public void expiresResults() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, 50, 1 << 20);
+        assertFalse(cache.execute(search("id", 1)));
+        assertTrue(cache.execute(search("id", 1)));
+        Thread.sleep(100);
+        assertFalse(cache.execute(search("id", 1)));
+        assertEquals(2, connector.executed.size());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() throws Exception {
+        final SearchCache<ECSBug> measure = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        measure.execute(search("id", 1));
+        final long weight = measure.getWeight();
+        assertTrue(weight > 0);
+
+        // Room for two results of the same weight, but not three
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, weight * 5 / 2);
+        cache.execute(search("id", 1));
+        cache.execute(search("id", 2));
+        assertTrue(cache.execute(search("id", 1)));
+        cache.execute(search("id", 3));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        assertEquals(2 * weight, cache.getWeight());
+        assertTrue(cache.execute(search("id", 1)));
+        assertTrue(cache.execute(search("id", 3)));
+        assertFalse(cache.execute(search("id", 2)));
+
+        // A result heavier than the whole cache is not kept
+        final SearchCache<ECSBug> small = new SearchCache<ECSBug>(connector, HOUR, weight - 1);
+        small.execute(search("id", 1));
+        assertEquals(0, small.size());
+        assertEquals(0, small.getWeight());
+    }
+
+    @Test
+    public void dropsResultsHoldingChangedBugs() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        cache.execute(search("id", 1));
+        cache.execute(search("id", 2));
+        cache.execute(search("id", 3));
+
+        connector.executeMethod(method("Bug.update", "ids", new Object[]{1, 99}));
+        assertFalse(cache.execute(search("id", 1)));
+        assertTrue(cache.execute(search("id", 2)));
+
+        connector.executeMethod(method("Bug.add_comment", "id", 2));
+        assertFalse(cache.execute(search("id", 2)));
+        assertTrue(cache.execute(search("id", 3)));
+        assertEquals(2, cache.getInvalidations());
+
+        // Neither methods which change nothing nor other bugs drop anything
+        connector.executeMethod(method("Bug.get", "ids", new Object[]{3}));
+        connector.executeMethod(method("Bug.update", "ids", new Object[]{4}));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void dropsEveryResultWhenTheChangedBugsAreUnknown() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        cache.execute(search("id", 1));
+        cache.execute(search("id", 2));
+        connector.executeMethod(method("Bug.update", "ids", new Object[]{"an-alias"}));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+
+        // The IDs of Bug.update_attachment are attachment IDs, not bug IDs
+        cache.execute(search("id", 1));
+        cache.execute(search("id", 2));
+        connector.executeMethod(method("Bug.update_attachment", "ids", new Object[]{1}));
+        assertEquals(0, cache.size());
+        assertEquals(4, cache.getInvalidations());
+    }
+
+    @Test
+    public void doesNotCacheResultsRetrievedWhileBugsChanged() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        final StubConnector.Answer answer = new StubConnector.Answer() {
+            public Map<Object, Object> answer(final BugzillaMethod method) throws BugzillaException {
+                if (method instanceof BugSearch) {
+                    // Another thread updates the bug while the search is on its way
+                    cache.methodExecuted(method("Bug.update", "ids", new Object[]{1}));
+                }
+                return bugs(bug(1, "Crash 1", new Date(1340000000000L)));
+            }
+        };
+        connector.setAnswer(answer);
+        assertFalse(cache.execute(search("id", 1)));
+        assertEquals(0, cache.size());
+        assertFalse(cache.execute(search("id", 1)));
+        assertEquals(2, connector.executed.size());
+    }
+
+    @Test
+    public void dropsEverythingWhenCleared() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        cache.execute(search("id", 1));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertFalse(cache.execute(search("id", 1)));
+    }
+
+    @Test
+    public void doesNotCacheStreamedSearches() throws Exception {
+        final SearchCache<ECSBug> cache = new SearchCache<ECSBug>(connector, HOUR, 1 << 20);
+        final BugSearch<ECSBug> search = search("id", 1);
+        search.setBugHandler(new BugHandler<ECSBug>() {
+            public void handleBug(final ECSBug bug) {
+            }
+        });
+        assertFalse(cache.execute(search));
+        assertEquals(0, cache.size());
+        assertEquals(1, connector.executed.size());
+    }
+
+    private static BugSearch<ECSBug> search(final Object... keysAndValues) {
+        final BugSearch<ECSBug> search = new BugSearch<ECSBug>(ECSBug.class);
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            search.addQueryParam((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return search;
+    }
+}
@@ -0,0 +1,129 @@
+package com.j2bugzilla.store;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.j2bugzilla.base.BugzillaConnector;
+import com.j2bugzilla.base.BugzillaException;
+import com.j2bugzilla.base.BugzillaMethod;
+import com.j2bugzilla.base.MethodListener;
+import com.j2bugzilla.base.StreamingBugzillaMethod;
+
+/**
+ * A {@link BugzillaConnector} which answers methods from the test instead of an
+ * installation, records every method executed and tells its listeners about them.
+ * The streamed member of a {@link StreamingBugzillaMethod} is handed to it element
+ * by element, as the transport does.
+ */
+class StubConnector extends BugzillaConnector {
+
+    /**
+     * Gives the result of a method, or throws its fault.
+     */
+    interface Answer {
+        Map<Object, Object> answer(BugzillaMethod method) throws BugzillaException;
+    }
+
+    /**
+     * Every method executed, in order
+     */
+    final List<BugzillaMethod> executed = new CopyOnWriteArrayList<BugzillaMethod>();
+
+    private final List<MethodListener> listeners = new CopyOnWriteArrayList<MethodListener>();
+
+    private volatile Answer answer;
+
+    StubConnector(final Answer answer) {
+        this.answer = answer;
+    }
+
+    void setAnswer(final Answer answer) {
+        this.answer = answer;
+    }
+
+    public void addMethodListener(final MethodListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeMethodListener(final MethodListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void executeMethod(final BugzillaMethod method) throws BugzillaException {
+        executed.add(method);
+        final Map<Object, Object> result = new HashMap<Object, Object>(answer.answer(method));
+        if (method instanceof StreamingBugzillaMethod) {
+            final StreamingBugzillaMethod streaming = (StreamingBugzillaMethod) method;
+            final String member = streaming.getStreamedMember();
+            if (member != null && result.get(member) instanceof Object[]) {
+                for (final Object element : (Object[]) result.remove(member)) {
+                    streaming.handleStreamedElement(copy(element));
+                }
+            }
+        }
+        method.setResultMap(result);
+        for (final MethodListener listener : listeners) {
+            listener.methodExecuted(method);
+        }
+    }
+
+    /**
+     * @return A search result holding copies of the states
+     */
+    static Map<Object, Object> bugs(final Map<?, ?>... states) {
+        final Object[] bugs = new Object[states.length];
+        for (int i = 0; i < states.length; i++) {
+            bugs[i] = copy(states[i]);
+        }
+        final Map<Object, Object> result = new HashMap<Object, Object>();
+        result.put("bugs", bugs);
+        return result;
+    }
+
+    /**
+     * @return The state of a bug, as an installation would return it
+     */
+    static Map<String, Object> bug(final int id, final String summary, final Date lastChangeTime) {
+        final Map<String, Object> state = new HashMap<String, Object>();
+        state.put("id", id);
+        state.put("summary", summary);
+        state.put("product", "Widgets");
+        state.put("component", "UI");
+        state.put("version", "unspecified");
+        state.put("status", "NEW");
+        state.put("priority", "P3");
+        state.put("severity", "normal");
+        state.put("cc", new Object[]{"qa@example.com"});
+        state.put("last_change_time", lastChangeTime);
+        return state;
+    }
+
+    /**
+     * @return A method with no result of interest, such as an update
+     */
+    static BugzillaMethod method(final String name, final Object... keysAndValues) {
+        final Map<Object, Object> params = new HashMap<Object, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new BugzillaMethod() {
+            public void setResultMap(final Map<Object, Object> hash) {
+            }
+
+            public Map<Object, Object> getParameterMap() {
+                return params;
+            }
+
+            public String getMethodName() {
+                return name;
+            }
+        };
+    }
+
+    private static Map<Object, Object> copy(final Object state) {
+        return new HashMap<Object, Object>((Map<?, ?>) state);
+    }
+}
@@ -0,0 +1,168 @@
+package com.j2bugzilla.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.j2bugzilla.base.Comment;
+
+/**
+ * Checks the ranking of a {@link TextIndex}, how it follows changed summaries, new
+ * comments and removed bugs, and that compacting it changes no search result.
+ */
+public class TextIndexTest {
+
+    private static final String[] QUERIES = {"widget", "w3", "c4 crash2", "shared text", "w7 w8 c9", "gone5"};
+
+    @Test
+    public void ranksSummariesAboveComments() {
+        final TextIndex index = new TextIndex();
+        index.setSummary(1, "Slow rendering of large tables");
+        index.addComments(1, Arrays.asList(new Comment(10, "It may crash as well")));
+        index.setSummary(2, "Crash on startup");
+        index.setSummary(3, "Typo in the about dialog");
+
+        assertEquals(Arrays.asList(2, 1), ids(index.search("crash", 10)));
+        assertEquals(Arrays.asList(2), ids(index.search("CRASH startup", 1)));
+        // Equal scores, lower ID first
+        assertEquals(Arrays.asList(1, 3), ids(index.search("about tables", 10)));
+        assertTrue(index.search("nothing", 10).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+    }
+
+    @Test
+    public void ranksBugsMatchingMoreWordsFirst() {
+        final TextIndex index = new TextIndex();
+        index.setSummary(1, "crash when saving");
+        index.setSummary(2, "crash when saving a large file");
+        index.setSummary(3, "large file upload fails sometimes");
+        final List<TextIndex.Hit> hits = index.search("crash large file", 10);
+        assertEquals(Arrays.asList(2, 3, 1), ids(hits));
+        assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+        assertTrue(hits.get(1).getScore() > hits.get(2).getScore());
+    }
+
+    @Test
+    public void skipsCommentsAlreadyIndexed() {
+        final List<Comment> comments = Arrays.asList(new Comment(1, "backtrace attached"),
+                new Comment(2, "still broken"), new Comment(3, "fixed upstream"));
+        final TextIndex once = new TextIndex();
+        once.setSummary(1, "Crash on startup");
+        once.setSummary(2, "Other problem");
+        once.addComments(2, comments);
+
+        // The first two, then all three as a later refresh returns them
+        final TextIndex twice = new TextIndex();
+        twice.setSummary(1, "Crash on startup");
+        twice.setSummary(2, "Other problem");
+        twice.addComments(2, comments.subList(0, 2));
+        twice.addComments(2, comments);
+        for (final String query : new String[]{"backtrace broken", "upstream", "crash backtrace"}) {
+            assertEquals(query, once.search(query, 10).toString(), twice.search(query, 10).toString());
+        }
+        assertEquals(Arrays.asList(2), ids(twice.search("upstream", 10)));
+    }
+
+    @Test
+    public void replacesSummaries() {
+        final TextIndex index = new TextIndex();
+        index.setSummary(1, "Crash on startup");
+        index.setSummary(2, "Crash on exit");
+        index.setSummary(1, "Hang on startup");
+        assertEquals(Arrays.asList(2), ids(index.search("crash", 10)));
+        assertEquals(Arrays.asList(1), ids(index.search("hang", 10)));
+
+        index.setSummary(1, null);
+        assertTrue(index.search("hang", 10).isEmpty());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void removesBugs() {
+        final TextIndex index = new TextIndex();
+        index.setSummary(1, "Crash on startup");
+        index.addComments(1, Arrays.asList(new Comment(5, "backtrace attached")));
+        index.setSummary(2, "Crash on exit");
+
+        assertTrue(index.remove(1));
+        assertFalse(index.remove(1));
+        assertEquals(Arrays.asList(2), ids(index.search("crash backtrace", 10)));
+        assertEquals(1, index.size());
+
+        // Indexed again from scratch, comments included
+        index.setSummary(1, "Crash on startup");
+        index.addComments(1, Arrays.asList(new Comment(5, "backtrace attached")));
+        assertEquals(Arrays.asList(1), ids(index.search("backtrace", 10)));
+    }
+
+    @Test
+    public void compactsWithoutChangingResults() {
+        final TextIndex churned = new TextIndex();
+        for (int id = 1; id <= 2000; id++) {
+            index(churned, id);
+        }
+        // Each removal deletes a summary and a comment; one more compacts the index
+        for (int id = 1; id < 1000; id++) {
+            churned.remove(id);
+        }
+        final int words = churned.getWordCount();
+        final List<Set<Integer>> before = new ArrayList<Set<Integer>>();
+        for (final String query : QUERIES) {
+            before.add(new HashSet<Integer>(ids(churned.search(query, 5000))));
+        }
+        churned.remove(1000);
+        assertEquals("Expected a compaction to drop the removed bugs' words", words - 1000,
+                churned.getWordCount());
+
+        final TextIndex fresh = new TextIndex();
+        for (int id = 1001; id <= 2000; id++) {
+            index(fresh, id);
+        }
+        for (int i = 0; i < QUERIES.length; i++) {
+            final Set<Integer> expected = before.get(i);
+            expected.remove(1000);
+            assertEquals(QUERIES[i], expected, new HashSet<Integer>(ids(churned.search(QUERIES[i], 5000))));
+        }
+        assertSameResults(fresh, churned);
+
+        // The renumbered bugs are still updated in place
+        for (final TextIndex index : Arrays.asList(fresh, churned)) {
+            index.setSummary(1500, "replaced summary");
+            index.addComments(1600, Arrays.asList(new Comment(1600, "repeated"), new Comment(5000, "new comment")));
+            index.remove(1700);
+        }
+        assertSameResults(fresh, churned);
+        assertEquals(Arrays.asList(1500), ids(churned.search("replaced", 10)));
+        assertEquals(Arrays.asList(1600), ids(churned.search("new", 10)));
+        assertEquals(999, churned.size());
+    }
+
+    private static void index(final TextIndex index, final int id) {
+        index.setSummary(id, "widget w" + id % 50 + " crash" + id % 7 + " gone" + id);
+        index.addComments(id, Arrays.asList(new Comment(id, "comment c" + id % 30 + " shared text")));
+    }
+
+    private static void assertSameResults(final TextIndex expected, final TextIndex actual) {
+        for (final String query : QUERIES) {
+            assertEquals(query, expected.search(query, 5000).toString(), actual.search(query, 5000).toString());
+        }
+        assertEquals(expected.getWordCount(), actual.getWordCount());
+        assertEquals(expected.size(), actual.size());
+    }
+
+    private static List<Integer> ids(final List<TextIndex.Hit> hits) {
+        final List<Integer> ids = new ArrayList<Integer>();
+        for (final TextIndex.Hit hit : hits) {
+            ids.add(hit.getID());
+        }
+        return ids;
+    }
+}